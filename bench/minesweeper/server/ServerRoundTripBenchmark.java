@@ -0,0 +1,198 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeperclass.MinesweeperBoard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Latency of a command sent to a MinesweeperServer over loopback, from
+ * writing the line to reading the last line of the response, like a telnet
+ * client would see it. The server runs in the benchmark's own JVM, in
+ * thread-per-client or NIO mode, and each benchmark thread is one client in
+ * delta mode on the default game.
+ *
+ * Latencies are sampled, so the results show percentiles as well as the
+ * mean. Run main() to run every benchmark with 1 to 64 clients, or pick one
+ * client count with JMH's -t option.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ServerRoundTripBenchmark {
+	/** Client counts main() runs the benchmarks with. */
+	private static final int[] CLIENTS = { 1, 4, 16, 64 };
+	private static final int SIZE = 1000;
+	private static final int WINDOW_WIDTH = 80;
+	private static final int WINDOW_HEIGHT = 40;
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/** "threads" for serve(), "nio" for serveNio() */
+	@Param({ "threads", "nio" })
+	String mode;
+
+	int port;
+	/** Seeds of the clients' squares, so each client plays its own. */
+	final AtomicInteger nextSeed = new AtomicInteger();
+
+	/**
+	 * Start the server on a free port. It cannot be stopped, so it runs on a
+	 * daemon thread until the forked JVM exits; its client threads and event
+	 * loops are daemons too, as threads made by a daemon thread are.
+	 */
+	@Setup
+	public void startServer() throws IOException {
+		ServerSocket probe = new ServerSocket(0);
+		port = probe.getLocalPort();
+		probe.close();
+		final MinesweeperServer server = new MinesweeperServer(port, true,
+				MinesweeperBoard.randomWithDensity(SIZE,
+						MinesweeperBoard.DEFAULT_DENSITY, 1));
+		final boolean nio = mode.equals("nio");
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					if (nio) {
+						server.serveNio(Runtime.getRuntime()
+								.availableProcessors());
+					} else {
+						server.serve();
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, "minesweeper-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** One client connection, and the square it flags. */
+	@State(Scope.Thread)
+	public static class Client {
+		private Socket socket;
+		private BufferedReader in;
+		private OutputStream out;
+		private Random random;
+		private int x;
+		private int y;
+		private boolean flagged;
+
+		@Setup
+		public void connect(ServerRoundTripBenchmark server)
+				throws IOException {
+			// the server socket is bound before serving, so this connects
+			// even if the server thread has not started accepting yet
+			socket = new Socket("127.0.0.1", server.port);
+			socket.setTcpNoDelay(true);
+			in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), ASCII));
+			out = socket.getOutputStream();
+			random = new Random(server.nextSeed.incrementAndGet());
+			readLine(); // welcome
+			send("mode delta");
+			readLine();
+		}
+
+		@TearDown
+		public void disconnect() throws IOException {
+			send("bye");
+			socket.close();
+		}
+
+		void send(String command) throws IOException {
+			out.write((command + "\r\n").getBytes(ASCII));
+			out.flush();
+		}
+
+		String readLine() throws IOException {
+			String line = in.readLine();
+			if (line == null) {
+				throw new IOException("Server closed the connection");
+			}
+			return line;
+		}
+
+		/**
+		 * Read a board, window or change list response, which ends with an
+		 * empty line.
+		 *
+		 * @return number of lines before the empty line
+		 */
+		int readResponse() throws IOException {
+			int lines = 0;
+			while (!readLine().isEmpty()) {
+				lines++;
+			}
+			return lines;
+		}
+	}
+
+	/**
+	 * Flag a random square, or take the flag put on it by the last call off
+	 * again, so the board is left as it was every other call.
+	 */
+	@Benchmark
+	public int flag(Client client) throws IOException {
+		if (client.flagged) {
+			client.send("deflag " + client.x + " " + client.y);
+		} else {
+			client.x = client.random.nextInt(SIZE);
+			client.y = client.random.nextInt(SIZE);
+			client.send("flag " + client.x + " " + client.y);
+		}
+		client.flagged = !client.flagged;
+		return client.readResponse();
+	}
+
+	@Benchmark
+	public int lookScreenWindow(Client client) throws IOException {
+		client.send("look " + client.random.nextInt(SIZE - WINDOW_WIDTH) + " "
+				+ client.random.nextInt(SIZE - WINDOW_HEIGHT) + " "
+				+ WINDOW_WIDTH + " " + WINDOW_HEIGHT);
+		return client.readResponse();
+	}
+
+	@Benchmark
+	public String status(Client client) throws IOException {
+		client.send("status");
+		return client.readLine();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int clients : CLIENTS) {
+			Options options = new OptionsBuilder()
+					.include(ServerRoundTripBenchmark.class.getName())
+					.threads(clients).build();
+			new Runner(options).run();
+		}
+	}
+}
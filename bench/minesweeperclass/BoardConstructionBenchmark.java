@@ -0,0 +1,72 @@
+package minesweeperclass;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to make a board of each kind, from 10x10 to 10000x10000. A board made
+ * from a char[][] is checked square by square; a random one is filled in
+ * parallel; a procedural one only allocates its band locks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BoardConstructionBenchmark {
+	private static final long SEED = 1;
+
+	@Param({ "10", "100", "1000", "10000" })
+	int size;
+
+	/** Grid for fromGrid(); never played on, so it is reused. */
+	private char[][] grid;
+
+	@Setup
+	public void makeGrid() {
+		CellStore store = BoardGenerator.withDensity(size,
+				MinesweeperBoard.DEFAULT_DENSITY, SEED,
+				new long[StateCounts.STATES]);
+		grid = new char[size][size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				grid[y][x] = store.get(x, y);
+			}
+		}
+	}
+
+	@Benchmark
+	public MinesweeperBoard fromGrid() {
+		return new MinesweeperBoard(grid);
+	}
+
+	@Benchmark
+	public MinesweeperBoard randomWithDensity() {
+		return MinesweeperBoard.randomWithDensity(size,
+				MinesweeperBoard.DEFAULT_DENSITY, SEED);
+	}
+
+	@Benchmark
+	public MinesweeperBoard randomWithMines() {
+		return MinesweeperBoard.randomWithMines(size, (long) size * size / 4,
+				SEED);
+	}
+
+	@Benchmark
+	public MinesweeperBoard procedural() {
+		return MinesweeperBoard.procedural(size,
+				MinesweeperBoard.DEFAULT_DENSITY, SEED);
+	}
+}
@@ -0,0 +1,117 @@
+package minesweeperclass;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of one board shared by many threads, each playing at random
+ * squares. Moves lock the band of rows they touch, so on the small board,
+ * with 16 bands, threads often wait for each other, and on the large one,
+ * with 256, they seldom do. Windows lock the bands they read and status()
+ * locks nothing.
+ *
+ * Digging is left out: digs use up a board, so they cannot be repeated for
+ * the length of an iteration, and DigBenchmark times them alone.
+ *
+ * Run main() to run every benchmark with 1 to 64 threads, or pick one thread
+ * count with JMH's -t option.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentBoardBenchmark {
+	/** Thread counts main() runs the benchmarks with. */
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+	/** Number of squares picked by each thread, a power of two. */
+	private static final int SQUARES = 4096;
+	private static final int WINDOW_WIDTH = 80;
+	private static final int WINDOW_HEIGHT = 40;
+
+	@Param({ "256", "4096" })
+	int size;
+
+	MinesweeperBoard board;
+	/** Seeds of the threads' squares, so each thread plays its own. */
+	final AtomicInteger nextSeed = new AtomicInteger();
+
+	@Setup
+	public void makeBoard() {
+		board = MinesweeperBoard.randomWithDensity(size,
+				MinesweeperBoard.DEFAULT_DENSITY, 1);
+	}
+
+	/** The squares one thread plays at, and its change list. */
+	@State(Scope.Thread)
+	public static class Player {
+		final ChangeList changes = new ChangeList();
+		/** x at 2i and y at 2i + 1. */
+		final int[] squares = new int[2 * SQUARES];
+		int next;
+
+		@Setup
+		public void pickSquares(ConcurrentBoardBenchmark shared) {
+			Random random = new Random(shared.nextSeed.incrementAndGet());
+			for (int i = 0; i < squares.length; i++) {
+				squares[i] = random.nextInt(shared.size);
+			}
+		}
+
+		/** @return index of the x of the next square to play at */
+		int nextSquare() {
+			return 2 * (next++ & (SQUARES - 1));
+		}
+	}
+
+	@Benchmark
+	public int flagDeflag(Player player) {
+		int i = player.nextSquare();
+		int x = player.squares[i];
+		int y = player.squares[i + 1];
+		player.changes.clear();
+		board.flag(x, y, player.changes);
+		board.deFlag(x, y, player.changes);
+		return player.changes.size();
+	}
+
+	@Benchmark
+	public List<String> lookScreenWindow(Player player) {
+		int i = player.nextSquare();
+		return board.look(player.squares[i], player.squares[i + 1],
+				WINDOW_WIDTH, WINDOW_HEIGHT);
+	}
+
+	@Benchmark
+	public BoardStatus status() {
+		return board.status();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads : THREADS) {
+			Options options = new OptionsBuilder()
+					.include(ConcurrentBoardBenchmark.class.getName())
+					.threads(threads).build();
+			new Runner(options).run();
+		}
+	}
+}
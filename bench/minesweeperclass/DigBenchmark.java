@@ -0,0 +1,140 @@
+package minesweeperclass;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to dig, with no flood, with the small floods of a board at the
+ * default density, and with a flood opening a whole board with no bombs.
+ *
+ * A dig cannot be undone, so a board is good for one pass of digs: every
+ * iteration gets a fresh board and times a fixed batch of digs on it
+ * (SingleShotTime), rather than digging for as long as the iteration lasts
+ * and running out of squares. Time is per batch; divide by DIGS for the time
+ * of one dig. The changes are not recorded, as with dig(x, y, null), so
+ * nothing is rendered.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DigBenchmark {
+	/** Digs timed together in each iteration of the batched benchmarks. */
+	static final int DIGS = 1000;
+	private static final long SEED = 1;
+
+	/**
+	 * A board at the default density, with squares to dig picked 8 apart
+	 * across it. The floods are run first on a copy of the board, in the
+	 * order they are timed, and a square is only kept if no earlier flood
+	 * opened it, so every timed dig opens the same squares as on the copy.
+	 */
+	@State(Scope.Thread)
+	public static class Scattered {
+		private static final int SIZE = 1000;
+		private static final int SPACING = 8;
+
+		MinesweeperBoard board;
+		/** Safe squares with no bomb neighbors, x at 2i and y at 2i + 1. */
+		int[] floods;
+		/** Safe squares with bomb neighbors, as floods. */
+		int[] singles;
+		int next;
+
+		@Setup(Level.Iteration)
+		public void makeBoard() {
+			long[] states = new long[StateCounts.STATES];
+			CellStore store = BoardGenerator.withDensity(SIZE,
+					MinesweeperBoard.DEFAULT_DENSITY, SEED, states);
+			long[] copyStates = new long[StateCounts.STATES];
+			CellStore copyStore = BoardGenerator.withDensity(SIZE,
+					MinesweeperBoard.DEFAULT_DENSITY, SEED, copyStates);
+			MinesweeperBoard copy = new MinesweeperBoard(copyStore, copyStates);
+			int[] zero = new int[2 * DIGS];
+			int[] numbered = new int[2 * DIGS];
+			int zeros = 0;
+			int numbers = 0;
+			for (int y = 0; y < SIZE; y += SPACING) {
+				for (int x = 0; x < SIZE; x += SPACING) {
+					if (store.get(x, y) != CellStore.UNTOUCHED) {
+						continue;
+					}
+					if (store.bombNeighbors(x, y) == 0) {
+						if (zeros < DIGS
+								&& copyStore.get(x, y) == CellStore.UNTOUCHED) {
+							copy.dig(x, y, null);
+							zero[2 * zeros] = x;
+							zero[2 * zeros + 1] = y;
+							zeros++;
+						}
+					} else if (numbers < DIGS) {
+						numbered[2 * numbers] = x;
+						numbered[2 * numbers + 1] = y;
+						numbers++;
+					}
+				}
+			}
+			if (zeros < DIGS || numbers < DIGS) {
+				throw new IllegalStateException(
+						"Board has too few squares to dig");
+			}
+			floods = zero;
+			singles = numbered;
+			board = new MinesweeperBoard(store, states);
+			next = 0;
+		}
+	}
+
+	/** A board with no bombs, opened by a single dig. */
+	@State(Scope.Thread)
+	public static class Empty {
+		@Param({ "100", "1000", "10000" })
+		int size;
+
+		MinesweeperBoard board;
+
+		@Setup(Level.Iteration)
+		public void makeBoard() {
+			long[] states = new long[StateCounts.STATES];
+			board = new MinesweeperBoard(BoardGenerator.withDensity(size, 0,
+					SEED, states), states);
+		}
+	}
+
+	@Benchmark
+	@Warmup(iterations = 10, batchSize = DIGS)
+	@Measurement(iterations = 20, batchSize = DIGS)
+	public boolean digNoFlood(Scattered state) {
+		int i = state.next++;
+		return state.board.dig(state.singles[2 * i],
+				state.singles[2 * i + 1], null);
+	}
+
+	@Benchmark
+	@Warmup(iterations = 10, batchSize = DIGS)
+	@Measurement(iterations = 20, batchSize = DIGS)
+	public boolean digSmallFlood(Scattered state) {
+		int i = state.next++;
+		return state.board.dig(state.floods[2 * i], state.floods[2 * i + 1],
+				null);
+	}
+
+	@Benchmark
+	@Warmup(iterations = 3)
+	@Measurement(iterations = 5)
+	public boolean digWholeBoard(Empty state) {
+		int middle = state.board.getSize() / 2;
+		return state.board.dig(middle, middle, null);
+	}
+}
@@ -0,0 +1,74 @@
+package minesweeperclass;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time to flag a square and take the flag off again, which leaves the board
+ * as it was, so the same board serves the whole run. Each operation is one
+ * flag and one deFlag of a square picked at random up front.
+ *
+ * The ChangeList forms are what the server calls in delta mode. On a board
+ * nobody has looked at they only change squares; once the whole board has
+ * been asked for, as the forms returning it do, every move also renders its
+ * row again and publishes the board, which is what a board mode client
+ * waits for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FlagBenchmark {
+	/** Number of squares picked, a power of two. */
+	private static final int SQUARES = 4096;
+
+	@Param({ "10", "100", "1000", "10000" })
+	int size;
+
+	private MinesweeperBoard board;
+	private final ChangeList changes = new ChangeList();
+	/** Squares to flag, x at 2i and y at 2i + 1. */
+	private final int[] squares = new int[2 * SQUARES];
+	private int next;
+
+	@Setup
+	public void makeBoard() {
+		board = MinesweeperBoard.randomWithDensity(size,
+				MinesweeperBoard.DEFAULT_DENSITY, 1);
+		Random random = new Random(2);
+		for (int i = 0; i < squares.length; i++) {
+			squares[i] = random.nextInt(size);
+		}
+	}
+
+	@Benchmark
+	public int flagDeflag() {
+		int i = 2 * (next++ & (SQUARES - 1));
+		changes.clear();
+		board.flag(squares[i], squares[i + 1], changes);
+		board.deFlag(squares[i], squares[i + 1], changes);
+		return changes.size();
+	}
+
+	@Benchmark
+	public void flagDeflagReturningBoard(Blackhole hole) {
+		int i = 2 * (next++ & (SQUARES - 1));
+		hole.consume(board.flag(squares[i], squares[i + 1]));
+		hole.consume(board.deFlag(squares[i], squares[i + 1]));
+	}
+}
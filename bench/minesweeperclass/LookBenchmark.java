@@ -0,0 +1,89 @@
+package minesweeperclass;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to look at boards from 10x10 to 10000x10000: the published rendering
+ * when nothing changed, the rendering after a move changed one square, the
+ * whole board read through a window, and a window of 80x40 squares, about
+ * one terminal screen, at a random place.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LookBenchmark {
+	/** Number of window places picked, a power of two. */
+	private static final int PLACES = 4096;
+	private static final int WINDOW_WIDTH = 80;
+	private static final int WINDOW_HEIGHT = 40;
+
+	@Param({ "10", "100", "1000", "10000" })
+	int size;
+
+	private MinesweeperBoard board;
+	/** Top left squares of windows, x at 2i and y at 2i + 1. */
+	private final int[] places = new int[2 * PLACES];
+	private int next;
+	private boolean flagged;
+
+	@Setup
+	public void makeBoard() {
+		board = MinesweeperBoard.randomWithDensity(size,
+				MinesweeperBoard.DEFAULT_DENSITY, 1);
+		Random random = new Random(2);
+		for (int i = 0; i < places.length; i++) {
+			places[i] = random.nextInt(size);
+		}
+		board.look();
+	}
+
+	@Benchmark
+	public List<String> lookUnchanged() {
+		return board.look();
+	}
+
+	/**
+	 * Flag or deflag the middle square, and look: the move renders its row
+	 * again and publishes a new board, which look() returns.
+	 */
+	@Benchmark
+	public List<String> lookAfterMove() {
+		int middle = size / 2;
+		if (flagged) {
+			board.deFlag(middle, middle, null);
+		} else {
+			board.flag(middle, middle, null);
+		}
+		flagged = !flagged;
+		return board.look();
+	}
+
+	@Benchmark
+	public List<String> lookWholeWindow() {
+		return board.look(0, 0, size, size);
+	}
+
+	@Benchmark
+	public List<String> lookScreenWindow() {
+		int i = 2 * (next++ & (PLACES - 1));
+		return board.look(places[i], places[i + 1], WINDOW_WIDTH,
+				WINDOW_HEIGHT);
+	}
+}
@@ -0,0 +1,56 @@
+package minesweeper.server;
+
+/**
+ * A CharSequence view of a line of bytes, one char per byte, so that a line
+ * read from a socket can be parsed without first decoding it into a String.
+ * Bytes above 127 become chars above 127, which no command contains.
+ * 
+ * The view is not copied: it shows whatever the underlying array holds, and
+ * is reused for every line of a connection.
+ */
+class AsciiLine implements CharSequence {
+	private final byte[] bytes;
+	private int length = 0;
+
+	/**
+	 * Make a view of the start of bytes, initially empty.
+	 */
+	AsciiLine(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Show the first length bytes of the array.
+	 */
+	void setLength(int length) {
+		this.length = length;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index " + index
+					+ ", length " + length);
+		}
+		return (char) (bytes[index] & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().substring(start, end);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			builder.append(charAt(i));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,241 @@
+package minesweeper.server;
+
+import minesweeperclass.MoveList;
+
+/**
+ * Decodes binary protocol requests a byte at a time, so that bytes can be
+ * fed in as they arrive however the stream is split into reads.
+ * 
+ * Not threadsafe: a decoder is confined to the thread serving its client.
+ */
+class BinaryDecoder {
+	/** What the next byte is. */
+	private enum State {
+		OPCODE, X, Y, COUNT, MOVE_OPCODE, MOVE_X, MOVE_Y, NAME_LENGTH, NAME,
+		WINDOW, FAILED
+	}
+
+	private State state = State.OPCODE;
+	private int opcode;
+	private int x;
+	/** Value and length so far of the varint being read. */
+	private int varint;
+	private int varintShift;
+	private int movesLeft;
+	private MoveList moves;
+	/** Characters of the game name being read, for JOIN, SAVE or LOAD. */
+	private final StringBuilder name = new StringBuilder(
+			GameRegistry.MAX_NAME_LENGTH);
+	private int nameLength;
+	/** Numbers of the window being read, for LOOK_WINDOW or VIEW. */
+	private final int[] window = new int[4];
+	private int windowRead;
+	private Command command;
+
+	/**
+	 * Feed the decoder the next byte from the client.
+	 * 
+	 * @return true if b completed a request, which command() now returns
+	 */
+	boolean feed(byte b) {
+		switch (state) {
+		case OPCODE:
+			opcode = b & 0xff;
+			switch (opcode) {
+			case BinaryProtocol.LOOK:
+				return complete(Command.LOOK);
+			case BinaryProtocol.HELP:
+				return complete(Command.HELP);
+			case BinaryProtocol.BYE:
+				return complete(Command.BYE);
+			case BinaryProtocol.DELTA_MODE:
+				return complete(Command.DELTA_MODE);
+			case BinaryProtocol.BOARD_MODE:
+				return complete(Command.BOARD_MODE);
+			case BinaryProtocol.SUBSCRIBE:
+				return complete(Command.SUBSCRIBE);
+			case BinaryProtocol.UNSUBSCRIBE:
+				return complete(Command.UNSUBSCRIBE);
+			case BinaryProtocol.NEW:
+				return complete(Command.NEW);
+			case BinaryProtocol.LIST:
+				return complete(Command.LIST);
+			case BinaryProtocol.VIEW_ALL:
+				return complete(Command.VIEW_ALL);
+			case BinaryProtocol.STATUS:
+				return complete(Command.STATUS);
+			case BinaryProtocol.LOOK_WINDOW:
+			case BinaryProtocol.VIEW:
+				windowRead = 0;
+				state = State.WINDOW;
+				return false;
+			case BinaryProtocol.JOIN:
+			case BinaryProtocol.SAVE:
+			case BinaryProtocol.LOAD:
+				state = State.NAME_LENGTH;
+				return false;
+			case BinaryProtocol.DIG:
+			case BinaryProtocol.FLAG:
+			case BinaryProtocol.DEFLAG:
+				state = State.X;
+				return false;
+			case BinaryProtocol.BATCH:
+				state = State.COUNT;
+				return false;
+			default:
+				return fail();
+			}
+		case X:
+		case MOVE_X:
+			if (!readVarint(b)) {
+				return state == State.FAILED;
+			}
+			x = BinaryProtocol.unzigzag(varint);
+			state = state == State.X ? State.Y : State.MOVE_Y;
+			return false;
+		case Y:
+			if (!readVarint(b)) {
+				return state == State.FAILED;
+			}
+			return complete(new Command(typeOf(opcode), x,
+					BinaryProtocol.unzigzag(varint)));
+		case COUNT:
+			if (!readVarint(b)) {
+				return state == State.FAILED;
+			}
+			if (varint < 1 || varint > BinaryProtocol.MAX_BATCH_MOVES) {
+				return fail();
+			}
+			movesLeft = varint;
+			moves = new MoveList();
+			state = State.MOVE_OPCODE;
+			return false;
+		case MOVE_OPCODE:
+			opcode = b & 0xff;
+			if (opcode != BinaryProtocol.DIG && opcode != BinaryProtocol.FLAG
+					&& opcode != BinaryProtocol.DEFLAG) {
+				return fail();
+			}
+			state = State.MOVE_X;
+			return false;
+		case MOVE_Y:
+			if (!readVarint(b)) {
+				return state == State.FAILED;
+			}
+			moves.add(kindOf(opcode), x, BinaryProtocol.unzigzag(varint));
+			if (--movesLeft > 0) {
+				state = State.MOVE_OPCODE;
+				return false;
+			}
+			return complete(Command.batch(moves));
+		case NAME_LENGTH:
+			if (!readVarint(b)) {
+				return state == State.FAILED;
+			}
+			if (varint < 1 || varint > GameRegistry.MAX_NAME_LENGTH) {
+				return fail();
+			}
+			nameLength = varint;
+			name.setLength(0);
+			state = State.NAME;
+			return false;
+		case NAME:
+			name.append((char) (b & 0xff));
+			if (name.length() < nameLength) {
+				return false;
+			}
+			if (!GameRegistry.isGameName(name)) {
+				return fail();
+			}
+			if (opcode == BinaryProtocol.SAVE) {
+				return complete(Command.save(name.toString()));
+			} else if (opcode == BinaryProtocol.LOAD) {
+				return complete(Command.load(name.toString()));
+			}
+			return complete(Command.join(name.toString()));
+		case WINDOW:
+			if (!readVarint(b)) {
+				return state == State.FAILED;
+			}
+			window[windowRead++] = BinaryProtocol.unzigzag(varint);
+			if (windowRead < window.length) {
+				return false;
+			}
+			return complete(Command.window(
+					opcode == BinaryProtocol.VIEW ? Command.Type.VIEW
+							: Command.Type.LOOK_WINDOW, window[0], window[1],
+					window[2], window[3]));
+		default:
+			// nothing can be framed after a bad request
+			return false;
+		}
+	}
+
+	/**
+	 * @return the request completed by the last call to feed() that returned
+	 *         true, or null if it could not be decoded, after which the
+	 *         decoder ignores every byte fed to it
+	 */
+	Command command() {
+		return command;
+	}
+
+	/**
+	 * Adds b to the varint being read.
+	 * 
+	 * @return true if b was its last byte, leaving the value in varint
+	 */
+	private boolean readVarint(byte b) {
+		if (varintShift == 0) {
+			varint = 0;
+		}
+		if (varintShift == 28 && (b & 0xf0) != 0) {
+			// longer than 32 bits
+			fail();
+			return false;
+		}
+		varint |= (b & 0x7f) << varintShift;
+		if ((b & 0x80) != 0) {
+			varintShift += 7;
+			return false;
+		}
+		varintShift = 0;
+		return true;
+	}
+
+	private boolean complete(Command completed) {
+		command = completed;
+		moves = null;
+		state = State.OPCODE;
+		return true;
+	}
+
+	private boolean fail() {
+		command = null;
+		moves = null;
+		state = State.FAILED;
+		return true;
+	}
+
+	private static Command.Type typeOf(int opcode) {
+		switch (opcode) {
+		case BinaryProtocol.DIG:
+			return Command.Type.DIG;
+		case BinaryProtocol.FLAG:
+			return Command.Type.FLAG;
+		default:
+			return Command.Type.DEFLAG;
+		}
+	}
+
+	private static MoveList.Kind kindOf(int opcode) {
+		switch (opcode) {
+		case BinaryProtocol.DIG:
+			return MoveList.Kind.DIG;
+		case BinaryProtocol.FLAG:
+			return MoveList.Kind.FLAG;
+		default:
+			return MoveList.Kind.DEFLAG;
+		}
+	}
+}
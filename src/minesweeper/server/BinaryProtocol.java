@@ -0,0 +1,136 @@
+package minesweeper.server;
+
+/**
+ * Constants and encodings of the binary protocol, a compact alternative to
+ * the text protocol for programs.
+ * 
+ * A connection is binary if the first byte the client sends is MAGIC, which
+ * is not ASCII and not a telnet command, so text clients are never mistaken
+ * for binary ones. The server greets every client with the text welcome line
+ * before it can know which protocol the client speaks, so a binary client
+ * skips everything up to and including the first \n it receives.
+ * 
+ * Integers are varints: 7 bits per byte, least significant group first, the
+ * top bit set on every byte but the last. Coordinates sent by the client are
+ * zigzag encoded first (0, -1, 1, -2, ... as 0, 1, 2, 3, ...) since they may
+ * be negative; everything the server sends is non-negative.
+ * 
+ * Requests are an opcode byte, followed for DIG, FLAG and DEFLAG by x and y,
+ * for BATCH by a move count and that many (DIG, FLAG or DEFLAG, x, y) moves,
+ * for JOIN, SAVE and LOAD by the length of the game name and its ASCII
+ * bytes, and for LOOK_WINDOW and VIEW by the left column, top row, width
+ * and height of the window, zigzag encoded like coordinates. The other
+ * opcodes stand alone and mean the text command of the same name, VIEW_ALL
+ * meaning "view all". A request that cannot be decoded is answered with the
+ * invalid command message and the connection is closed, since the rest of
+ * the stream can no longer be framed.
+ * 
+ * Responses are a frame type byte followed by:
+ * 
+ * BOARD: size, encoding, then the size * size cells in row-major order; with
+ * PACKED encoding two cells per byte, high nibble first, the last nibble
+ * padded with 0 if there is an odd number of cells; with RUN_LENGTH encoding
+ * (cell, count) pairs, each a cell byte and a varint, covering all the cells.
+ * The server picks whichever is shorter.
+ * 
+ * DELTA, UPDATE: count, then count (x, y, cell) triples. Like the text DELTA
+ * and UPDATE responses.
+ * 
+ * WINDOW: left, top, width, height, encoding, then the width * height cells
+ * of a window of the board, cut down to the part on the board, encoded as
+ * for BOARD. Sent instead of BOARD to a client with a viewport.
+ * 
+ * RESYNC: nothing; a BOARD or WINDOW frame follows.
+ * 
+ * BOOM: nothing.
+ * 
+ * MESSAGE: length, then that many bytes of UTF-8 text, without a line
+ * terminator.
+ * 
+ * Cells are 0 to 8 for a dug square with that many bomb neighbors,
+ * UNTOUCHED_CELL and FLAGGED_CELL.
+ */
+final class BinaryProtocol {
+	static final int MAGIC = 0xCD;
+
+	// request opcodes
+	static final int LOOK = 0x01;
+	static final int DIG = 0x02;
+	static final int FLAG = 0x03;
+	static final int DEFLAG = 0x04;
+	static final int BYE = 0x05;
+	static final int HELP = 0x06;
+	static final int DELTA_MODE = 0x07;
+	static final int BOARD_MODE = 0x08;
+	static final int SUBSCRIBE = 0x09;
+	static final int UNSUBSCRIBE = 0x0A;
+	static final int BATCH = 0x0B;
+	static final int NEW = 0x0C;
+	static final int JOIN = 0x0D;
+	static final int LIST = 0x0E;
+	static final int SAVE = 0x0F;
+	static final int LOAD = 0x10;
+	static final int LOOK_WINDOW = 0x11;
+	static final int VIEW = 0x12;
+	static final int VIEW_ALL = 0x13;
+	static final int STATUS = 0x14;
+	/**
+	 * Most moves in one BATCH request.
+	 */
+	static final int MAX_BATCH_MOVES = 4096;
+
+	// response frame types
+	static final int BOARD = 0x01;
+	static final int DELTA = 0x02;
+	static final int UPDATE = 0x03;
+	static final int RESYNC = 0x04;
+	static final int BOOM = 0x05;
+	static final int MESSAGE = 0x06;
+	static final int WINDOW = 0x07;
+
+	// board encodings
+	static final int PACKED = 0;
+	static final int RUN_LENGTH = 1;
+
+	static final int UNTOUCHED_CELL = 9;
+	static final int FLAGGED_CELL = 10;
+
+	private BinaryProtocol() {
+	}
+
+	/**
+	 * @return the cell code of a glyph of a board row
+	 */
+	static int cellOf(char glyph) {
+		switch (glyph) {
+		case ' ':
+			return 0;
+		case '-':
+			return UNTOUCHED_CELL;
+		case 'F':
+			return FLAGGED_CELL;
+		default:
+			return glyph - '0';
+		}
+	}
+
+	static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 * @return number of bytes in the varint encoding of n, taken as unsigned
+	 */
+	static int varintLength(int n) {
+		int length = 1;
+		while ((n & ~0x7f) != 0) {
+			n >>>= 7;
+			length++;
+		}
+		return length;
+	}
+}
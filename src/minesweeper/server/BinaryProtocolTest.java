@@ -0,0 +1,200 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import minesweeperclass.ChangeList;
+import minesweeperclass.MoveList;
+
+import org.junit.Test;
+
+public class BinaryProtocolTest {
+
+	/*
+	 * Test BinaryDecoder and BinarySink against hand-encoded frames
+	 *
+	 * Testing space: each opcode, negative and multi-byte coordinates,
+	 * batches, game requests, requests split across feeds, invalid opcode,
+	 * invalid batch count, invalid game name, overlong varint, windows;
+	 * packed and run-length boards, odd cell count, windows, empty window,
+	 * changes, messages
+	 */
+
+	/**
+	 * Feeds bytes to decoder and returns the requests completed, with null
+	 * for an invalid one.
+	 */
+	private static Command[] decode(BinaryDecoder decoder, int... bytes) {
+		Command[] commands = new Command[bytes.length];
+		int completed = 0;
+		for (int b : bytes) {
+			if (decoder.feed((byte) b)) {
+				commands[completed++] = decoder.command();
+			}
+		}
+		return Arrays.copyOf(commands, completed);
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+
+	@Test
+	public void zigzagTest() {
+		int[] values = { 0, -1, 1, -2, 2, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i],
+					BinaryProtocol.unzigzag(BinaryProtocol.zigzag(values[i])));
+		}
+		assertEquals(3, BinaryProtocol.zigzag(-2));
+		assertEquals(1, BinaryProtocol.varintLength(127));
+		assertEquals(2, BinaryProtocol.varintLength(128));
+		assertEquals(5, BinaryProtocol.varintLength(-1));
+	}
+
+	@Test
+	public void requestsTest() {
+		BinaryDecoder decoder = new BinaryDecoder();
+		// look, dig 3 1, flag -1 150, help
+		Command[] commands = decode(decoder, 0x01, 0x02, 6, 2, 0x03, 1, 0xac,
+				0x02, 0x06);
+		assertEquals(4, commands.length);
+		assertSame(Command.LOOK, commands[0]);
+		assertEquals(Command.Type.DIG, commands[1].type);
+		assertEquals(3, commands[1].x);
+		assertEquals(1, commands[1].y);
+		assertEquals(Command.Type.FLAG, commands[2].type);
+		assertEquals(-1, commands[2].x);
+		assertEquals(150, commands[2].y);
+		assertSame(Command.HELP, commands[3]);
+	}
+
+	@Test
+	public void batchTest() {
+		BinaryDecoder decoder = new BinaryDecoder();
+		// dig 0 0; deflag 2 1, fed a byte at a time
+		Command[] commands = decode(decoder, 0x0B, 2, 0x02, 0, 0, 0x04, 4, 2);
+		assertEquals(1, commands.length);
+		MoveList moves = commands[0].moves;
+		assertEquals(Command.Type.BATCH, commands[0].type);
+		assertEquals(2, moves.size());
+		assertEquals(MoveList.Kind.DIG, moves.getKind(0));
+		assertEquals(MoveList.Kind.DEFLAG, moves.getKind(1));
+		assertEquals(2, moves.getX(1));
+		assertEquals(1, moves.getY(1));
+
+		// the decoder goes on to the next request
+		assertSame(Command.BYE, decode(decoder, 0x05)[0]);
+	}
+
+	@Test
+	public void gameRequestsTest() {
+		BinaryDecoder decoder = new BinaryDecoder();
+		Command[] commands = decode(decoder, 0x0C, 0x0D, 3, 'r', 'e', 'd',
+				0x0E);
+		assertEquals(3, commands.length);
+		assertSame(Command.NEW, commands[0]);
+		assertEquals(Command.Type.JOIN, commands[1].type);
+		assertEquals("red", commands[1].name);
+		assertSame(Command.LIST, commands[2]);
+
+		assertNull(decode(new BinaryDecoder(), 0x0D, 0)[0]);
+		assertNull(decode(new BinaryDecoder(), 0x0D, 33)[0]);
+		assertNull(decode(new BinaryDecoder(), 0x0D, 2, 'a', ' ')[0]);
+
+		commands = decode(decoder, 0x0F, 2, 'g', '1', 0x10, 2, 'g', '1');
+		assertEquals(Command.Type.SAVE, commands[0].type);
+		assertEquals("g1", commands[0].name);
+		assertEquals(Command.Type.LOAD, commands[1].type);
+		assertEquals("g1", commands[1].name);
+		assertNull(decode(new BinaryDecoder(), 0x10, 1, '.')[0]);
+	}
+
+	@Test
+	public void windowRequestsTest() {
+		BinaryDecoder decoder = new BinaryDecoder();
+		// look -1 2 80 40, view 0 0 300 1, view all, status
+		Command[] commands = decode(decoder, 0x11, 1, 4, 0xa0, 0x01, 80,
+				0x12, 0, 0, 0xd8, 0x04, 2, 0x13, 0x14);
+		assertEquals(4, commands.length);
+		assertEquals(Command.Type.LOOK_WINDOW, commands[0].type);
+		assertEquals(-1, commands[0].x);
+		assertEquals(2, commands[0].y);
+		assertEquals(80, commands[0].width);
+		assertEquals(40, commands[0].height);
+		assertEquals(Command.Type.VIEW, commands[1].type);
+		assertEquals(300, commands[1].width);
+		assertEquals(1, commands[1].height);
+		assertSame(Command.VIEW_ALL, commands[2]);
+		assertSame(Command.STATUS, commands[3]);
+	}
+
+	@Test
+	public void invalidRequestsTest() {
+		BinaryDecoder decoder = new BinaryDecoder();
+		Command[] commands = decode(decoder, 0x01, 0x7f, 0x01);
+		// nothing after the bad opcode is decoded
+		assertEquals(2, commands.length);
+		assertSame(Command.LOOK, commands[0]);
+		assertNull(commands[1]);
+
+		assertNull(decode(new BinaryDecoder(), 0x0B, 0)[0]);
+		assertNull(decode(new BinaryDecoder(), 0x0B, 1, 0x01)[0]);
+		// six byte varint
+		assertNull(decode(new BinaryDecoder(), 0x02, 0x80, 0x80, 0x80, 0x80,
+				0x10)[0]);
+	}
+
+	@Test
+	public void boardsTest() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinarySink sink = new BinarySink(out);
+		// mixed cells pack two to a byte, the last one padded
+		sink.printBoard(Arrays.asList("- 1 F", "2   -", "- - -"));
+		sink.flush();
+		assertArrayEquals(bytes(0x01, 3, 0x00, 0x91, 0xa2, 0x09, 0x99, 0x90),
+				out.toByteArray());
+
+		out.reset();
+		// a uniform board is a single run
+		List<String> rows = Arrays.asList("- - - -", "- - - -", "- - - -",
+				"- - - -");
+		sink.printResync(rows);
+		sink.flush();
+		assertArrayEquals(bytes(0x04, 0x01, 4, 0x01, 9, 16), out.toByteArray());
+
+		out.reset();
+		// a window carries where it is and its width
+		sink.printWindow(130, 2, Arrays.asList("1 F", "- 2"));
+		sink.printResyncWindow(5, 5, Collections.<String> emptyList());
+		sink.flush();
+		assertArrayEquals(bytes(0x07, 0x82, 0x01, 2, 2, 2, 0x00, 0x1a, 0x92,
+				0x04, 0x07, 5, 5, 0, 0, 0x00), out.toByteArray());
+	}
+
+	@Test
+	public void changesAndMessagesTest() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinarySink sink = new BinarySink(out);
+		ChangeList changes = new ChangeList();
+		changes.clear(10);
+		changes.add(3, 200, '1');
+		changes.add(0, 0, 'F');
+		sink.printChanges("DELTA", changes);
+		sink.printChanges("UPDATE", new ChangeList());
+		sink.printBoom();
+		sink.println("Hi");
+		assertEquals("nothing is sent before flush", 0, out.size());
+		sink.flush();
+		assertArrayEquals(bytes(0x02, 2, 3, 0xc8, 0x01, 1, 0, 0, 10, 0x03, 0,
+				0x05, 0x06, 2, 'H', 'i'), out.toByteArray());
+	}
+}
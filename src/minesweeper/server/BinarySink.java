@@ -0,0 +1,262 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeperclass.ChangeList;
+
+/**
+ * A ResponseSink printing binary protocol frames (see BinaryProtocol) to an
+ * OutputStream. Boards are encoded straight from the row snapshot, a row at a
+ * time, through a small buffer. Nothing is sent until flush().
+ * 
+ * Threadsafe: each response is printed holding lock, so the thread answering
+ * commands and the thread pushing updates can share a sink. It is a
+ * ReentrantLock rather than a monitor because it is held while writing to a
+ * socket, which must not pin a virtual thread's carrier.
+ */
+class BinarySink implements ResponseSink {
+	private static final int BUFFER_BYTES = 8192;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final OutputStream out;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final byte[] buffer = new byte[BUFFER_BYTES];
+	private int buffered = 0;
+	/**
+	 * Set once writing to the stream fails, after which nothing more is
+	 * written. Like a PrintWriter, the sink never throws; the client's side
+	 * of the connection notices the stream closing.
+	 */
+	private IOException error = null;
+
+	BinarySink(OutputStream out) {
+		this.out = out;
+	}
+
+	public void println(String message) {
+		lock.lock();
+		try {
+			byte[] bytes = message.getBytes(UTF_8);
+			put(BinaryProtocol.MESSAGE);
+			putVarint(bytes.length);
+			for (byte b : bytes) {
+				put(b);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printBoom() {
+		lock.lock();
+		try {
+			put(BinaryProtocol.BOOM);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printBoard(List<String> rows) {
+		lock.lock();
+		try {
+			putBoard(rows);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printResync(List<String> rows) {
+		lock.lock();
+		try {
+			put(BinaryProtocol.RESYNC);
+			putBoard(rows);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printWindow(int left, int top, List<String> rows) {
+		lock.lock();
+		try {
+			putWindow(left, top, rows);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printResyncWindow(int left, int top, List<String> rows) {
+		lock.lock();
+		try {
+			put(BinaryProtocol.RESYNC);
+			putWindow(left, top, rows);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printChanges(String kind, ChangeList changes) {
+		lock.lock();
+		try {
+			put(kind.equals("UPDATE") ? BinaryProtocol.UPDATE
+					: BinaryProtocol.DELTA);
+			putVarint(changes.size());
+			for (int i = 0; i < changes.size(); i++) {
+				putVarint(changes.getX(i));
+				putVarint(changes.getY(i));
+				put(BinaryProtocol.cellOf(changes.getGlyph(i)));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void flush() {
+		lock.lock();
+		try {
+			drain();
+			if (error == null) {
+				out.flush();
+			}
+		} catch (IOException e) {
+			error = e;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Print a BOARD frame for rows.
+	 */
+	private void putBoard(List<String> rows) {
+		put(BinaryProtocol.BOARD);
+		putVarint(rows.size());
+		putCells(rows, rows.size());
+	}
+
+	/**
+	 * Print a WINDOW frame for the rows of a window.
+	 */
+	private void putWindow(int left, int top, List<String> rows) {
+		int width = rows.isEmpty() ? 0 : (rows.get(0).length() + 1) / 2;
+		put(BinaryProtocol.WINDOW);
+		putVarint(left);
+		putVarint(top);
+		putVarint(width);
+		putVarint(rows.size());
+		putCells(rows, width);
+	}
+
+	/**
+	 * Print the encoding and cells of rows, each width cells long,
+	 * run-length encoded if that is shorter than packing the cells.
+	 */
+	private void putCells(List<String> rows, int width) {
+		long cells = (long) rows.size() * width;
+		long packedLength = (cells + 1) / 2;
+		long runLength = 0;
+		int previous = -1;
+		int run = 0;
+		for (int y = 0; y < rows.size() && runLength < packedLength; y++) {
+			String row = rows.get(y);
+			for (int x = 0; x < width; x++) {
+				int cell = BinaryProtocol.cellOf(row.charAt(2 * x));
+				if (cell == previous) {
+					run++;
+				} else {
+					if (run > 0) {
+						runLength += 1 + BinaryProtocol.varintLength(run);
+					}
+					previous = cell;
+					run = 1;
+				}
+			}
+		}
+		if (run > 0) {
+			runLength += 1 + BinaryProtocol.varintLength(run);
+		}
+		if (runLength < packedLength) {
+			put(BinaryProtocol.RUN_LENGTH);
+			putRuns(rows, width);
+		} else {
+			put(BinaryProtocol.PACKED);
+			putPacked(rows, width);
+		}
+	}
+
+	private void putPacked(List<String> rows, int width) {
+		int high = -1;
+		for (int y = 0; y < rows.size(); y++) {
+			String row = rows.get(y);
+			for (int x = 0; x < width; x++) {
+				int cell = BinaryProtocol.cellOf(row.charAt(2 * x));
+				if (high < 0) {
+					high = cell;
+				} else {
+					put((high << 4) | cell);
+					high = -1;
+				}
+			}
+		}
+		if (high >= 0) {
+			put(high << 4);
+		}
+	}
+
+	private void putRuns(List<String> rows, int width) {
+		int previous = -1;
+		int run = 0;
+		for (int y = 0; y < rows.size(); y++) {
+			String row = rows.get(y);
+			for (int x = 0; x < width; x++) {
+				int cell = BinaryProtocol.cellOf(row.charAt(2 * x));
+				if (cell == previous) {
+					run++;
+				} else {
+					if (run > 0) {
+						put(previous);
+						putVarint(run);
+					}
+					previous = cell;
+					run = 1;
+				}
+			}
+		}
+		if (run > 0) {
+			put(previous);
+			putVarint(run);
+		}
+	}
+
+	private void putVarint(int n) {
+		while ((n & ~0x7f) != 0) {
+			put((n & 0x7f) | 0x80);
+			n >>>= 7;
+		}
+		put(n);
+	}
+
+	private void put(int b) {
+		if (buffered == buffer.length) {
+			drain();
+		}
+		buffer[buffered++] = (byte) b;
+	}
+
+	/**
+	 * Write the buffer to the stream, dropping it if the stream has failed.
+	 */
+	private void drain() {
+		if (error == null && buffered > 0) {
+			try {
+				out.write(buffer, 0, buffered);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		buffered = 0;
+	}
+}
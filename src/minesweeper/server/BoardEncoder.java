@@ -0,0 +1,77 @@
+package minesweeper.server;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encodes a board response into bytes a buffer at a time, so a board of any
+ * size can be sent through a fixed-size buffer without first being built into
+ * one string. The output is each row followed by "\r\n", then the line
+ * terminator, exactly as ResponseSink.printBoard() describes.
+ * 
+ * Board rows are ASCII, so each char is encoded as one byte.
+ * 
+ * An encoder is reusable: reset() starts it on another board.
+ */
+class BoardEncoder {
+	private static final byte[] ROW_END = { '\r', '\n' };
+
+	private final byte[] lineTerminator;
+	private List<String> rows;
+	private int row;
+	private int column;
+	/**
+	 * Bytes of ROW_END (or, after the last row, of lineTerminator) already
+	 * encoded for the current row.
+	 */
+	private int terminatorBytes;
+
+	/**
+	 * @param lineTerminator
+	 *            bytes that end the response
+	 */
+	BoardEncoder(byte[] lineTerminator) {
+		this.lineTerminator = lineTerminator.clone();
+	}
+
+	/**
+	 * Start encoding a new board, abandoning any board not finished.
+	 * 
+	 * @param rows
+	 *            immutable snapshot of the board rows
+	 */
+	void reset(List<String> rows) {
+		this.rows = rows;
+		row = 0;
+		column = 0;
+		terminatorBytes = 0;
+	}
+
+	/**
+	 * Encode as much of the board as fits in buffer.
+	 * 
+	 * @return true if the whole board has been encoded
+	 */
+	boolean encode(ByteBuffer buffer) {
+		while (row < rows.size()) {
+			String line = rows.get(row);
+			while (column < line.length() && buffer.hasRemaining()) {
+				buffer.put((byte) line.charAt(column++));
+			}
+			while (column == line.length() && terminatorBytes < ROW_END.length
+					&& buffer.hasRemaining()) {
+				buffer.put(ROW_END[terminatorBytes++]);
+			}
+			if (terminatorBytes < ROW_END.length) {
+				return false;
+			}
+			row++;
+			column = 0;
+			terminatorBytes = 0;
+		}
+		while (terminatorBytes < lineTerminator.length && buffer.hasRemaining()) {
+			buffer.put(lineTerminator[terminatorBytes++]);
+		}
+		return terminatorBytes == lineTerminator.length;
+	}
+}
@@ -0,0 +1,63 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BoardEncoderTest {
+
+	/*
+	 * Test BoardEncoder against the text a PrintWriter would print
+	 * 
+	 * Testing space: buffer sizes (1 byte, splitting rows and terminators,
+	 * larger than the board), empty board, reuse after reset
+	 */
+
+	private static final byte[] NEWLINE = { '\n' };
+
+	/**
+	 * Encodes rows through a buffer of the given size and returns the text.
+	 */
+	private static String encode(BoardEncoder encoder, List<String> rows,
+			int bufferBytes) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ByteBuffer buffer = ByteBuffer.allocate(bufferBytes);
+		encoder.reset(rows);
+		boolean done;
+		do {
+			buffer.clear();
+			done = encoder.encode(buffer);
+			buffer.flip();
+			bytes.write(buffer.array(), 0, buffer.limit());
+		} while (!done);
+		return new String(bytes.toByteArray());
+	}
+
+	@Test
+	public void bufferSizesTest() {
+		List<String> rows = Arrays.asList("- 1 F", "2   -", "- - -");
+		String expected = "- 1 F\r\n2   -\r\n- - -\r\n\n";
+		BoardEncoder encoder = new BoardEncoder(NEWLINE);
+		for (int bufferBytes = 1; bufferBytes <= 30; bufferBytes++) {
+			assertEquals(expected, encode(encoder, rows, bufferBytes));
+		}
+	}
+
+	@Test
+	public void resetTest() {
+		BoardEncoder encoder = new BoardEncoder(new byte[] { '\r', '\n' });
+		List<String> rows = Arrays.asList("- -", "- -");
+		// abandon a board halfway, then encode others with the same encoder
+		encoder.reset(rows);
+		encoder.encode(ByteBuffer.allocate(4));
+		assertEquals("\r\n",
+				encode(encoder, Collections.<String> emptyList(), 1));
+		assertEquals("- -\r\n- -\r\n\r\n", encode(encoder, rows, 3));
+	}
+}
@@ -0,0 +1,83 @@
+package minesweeper.server;
+
+import java.util.concurrent.Executor;
+
+import minesweeperclass.ChangeList;
+
+/**
+ * What the server remembers about one client between its commands: where
+ * responses go, the game it plays, which protocol mode and viewport the
+ * client chose, the change lists reused for its delta responses, and its
+ * subscription to board changes, if any.
+ * 
+ * Not threadsafe: a session is confined to the thread serving its client.
+ * Only the subscription and the sink are shared with a thread pushing
+ * updates, and both are threadsafe.
+ */
+class ClientSession {
+	final ResponseSink out;
+	/**
+	 * The game the client has joined, or null before it is connected.
+	 */
+	Game game = null;
+	/**
+	 * True if dig, flag and deflag should answer with the squares they
+	 * changed rather than the whole board.
+	 */
+	boolean delta = false;
+	/**
+	 * The window of the board the client sees, or null if it sees the whole
+	 * board.
+	 */
+	Viewport viewport = null;
+	final ChangeList changes = new ChangeList();
+	/** The changes inside the viewport, when the client has one. */
+	final ChangeList viewChanges = new ChangeList();
+	/**
+	 * Board changes waiting to be pushed to the client, or null if the client
+	 * has not subscribed.
+	 */
+	Subscription subscription = null;
+	/**
+	 * Runs a task pushing the subscription's updates to out, or null if the
+	 * serving mode delivers them itself when told by updatesReady.
+	 */
+	final Executor pushers;
+	/**
+	 * Called when the subscription has updates ready, or null.
+	 */
+	final Runnable updatesReady;
+
+	/**
+	 * Make a session for a client served by a blocking thread, whose updates
+	 * are pushed by a task run on pushers.
+	 */
+	ClientSession(ResponseSink out, Executor pushers) {
+		this(out, pushers, null);
+	}
+
+	/**
+	 * Make a session for a client whose serving mode delivers updates itself
+	 * once updatesReady is called. updatesReady must not block.
+	 */
+	ClientSession(ResponseSink out, Runnable updatesReady) {
+		this(out, null, updatesReady);
+	}
+
+	private ClientSession(ResponseSink out, Executor pushers,
+			Runnable updatesReady) {
+		this.out = out;
+		this.pushers = pushers;
+		this.updatesReady = updatesReady;
+	}
+
+	/**
+	 * Take over the game and viewport that connecting gave another session
+	 * of the same client, made before it was known which protocol the client
+	 * speaks.
+	 */
+	void takeOver(ClientSession connected) {
+		game = connected.game;
+		viewport = connected.viewport;
+	}
+}
@@ -0,0 +1,360 @@
+package minesweeper.server;
+
+import minesweeperclass.MoveList;
+
+/**
+ * A parsed line of the client protocol. Command.parse() scans a line once,
+ * without regular expressions or intermediate strings, and accepts exactly
+ * the lines matched by the protocol grammar
+ * 
+ * (look)|(dig -?\d+ -?\d+)|(flag -?\d+ -?\d+)|(deflag -?\d+ -?\d+)|(help)|(bye)|
+ * (mode delta)|(mode board)|(subscribe)|(unsubscribe)|(MOVE(; ?MOVE)+)|
+ * (new)|(join [A-Za-z0-9_-]{1,32})|(list)|(save [A-Za-z0-9_-]{1,32})|
+ * (load [A-Za-z0-9_-]{1,32})|(look WINDOW)|(view WINDOW)|(view all)|
+ * (status)
+ * 
+ * where MOVE is (dig|flag|deflag) -?\d+ -?\d+ and WINDOW is -?\d+ -?\d+ -?\d+
+ * -?\d+, the left column, top row, width and height of a window of the
+ * board. A line of several moves is a batch, made as one command.
+ * 
+ * Coordinates too large for an int are clamped to Integer.MIN_VALUE or
+ * Integer.MAX_VALUE; either way they are off the board, so the command has
+ * the same effect as any other off-board coordinate.
+ * 
+ * Commands are immutable. Commands without coordinates are shared constants.
+ */
+final class Command {
+	enum Type {
+		LOOK, DIG, FLAG, DEFLAG, HELP, BYE, DELTA_MODE, BOARD_MODE, SUBSCRIBE,
+		UNSUBSCRIBE, BATCH, NEW, JOIN, LIST, SAVE, LOAD, LOOK_WINDOW, VIEW,
+		VIEW_ALL, STATUS
+	}
+
+	static final Command LOOK = new Command(Type.LOOK, 0, 0);
+	static final Command HELP = new Command(Type.HELP, 0, 0);
+	static final Command BYE = new Command(Type.BYE, 0, 0);
+	static final Command DELTA_MODE = new Command(Type.DELTA_MODE, 0, 0);
+	static final Command BOARD_MODE = new Command(Type.BOARD_MODE, 0, 0);
+	static final Command SUBSCRIBE = new Command(Type.SUBSCRIBE, 0, 0);
+	static final Command UNSUBSCRIBE = new Command(Type.UNSUBSCRIBE, 0, 0);
+	static final Command NEW = new Command(Type.NEW, 0, 0);
+	static final Command LIST = new Command(Type.LIST, 0, 0);
+	static final Command VIEW_ALL = new Command(Type.VIEW_ALL, 0, 0);
+	static final Command STATUS = new Command(Type.STATUS, 0, 0);
+
+	final Type type;
+	/**
+	 * The square of a move, or the top left square of the window of a
+	 * LOOK_WINDOW or VIEW command.
+	 */
+	final int x;
+	final int y;
+	/**
+	 * The size of the window of a LOOK_WINDOW or VIEW command, 0 for other
+	 * commands.
+	 */
+	final int width;
+	final int height;
+	/**
+	 * The moves of a BATCH command, null for other commands. Never modified.
+	 */
+	final MoveList moves;
+	/**
+	 * The game name of a JOIN command, or the saved game name of a SAVE or
+	 * LOAD command, null for other commands.
+	 */
+	final String name;
+
+	Command(Type type, int x, int y) {
+		this(type, x, y, 0, 0, null, null);
+	}
+
+	private Command(Type type, int x, int y, int width, int height,
+			MoveList moves, String name) {
+		this.type = type;
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+		this.moves = moves;
+		this.name = name;
+	}
+
+	/**
+	 * Parse one line of client input.
+	 * 
+	 * @param line
+	 *            line from the client, without the line terminator
+	 * @return the command, or null if the line is not a valid command
+	 */
+	static Command parse(CharSequence line) {
+		int length = line.length();
+		if (length == 0) {
+			return null;
+		}
+		switch (line.charAt(0)) {
+		case 'l':
+			if (isExactly(line, "look")) {
+				return LOOK;
+			} else if (startsWith(line, "look ")) {
+				return parseWindow(Type.LOOK_WINDOW, line, 5);
+			} else if (isExactly(line, "list")) {
+				return LIST;
+			} else if (startsWith(line, "load ")) {
+				CharSequence name = line.subSequence(5, length);
+				if (GameRegistry.isGameName(name)) {
+					return load(name.toString());
+				}
+			}
+			return null;
+		case 'n':
+			return isExactly(line, "new") ? NEW : null;
+		case 'j':
+			if (startsWith(line, "join ")) {
+				CharSequence name = line.subSequence(5, length);
+				if (GameRegistry.isGameName(name)) {
+					return join(name.toString());
+				}
+			}
+			return null;
+		case 'h':
+			return isExactly(line, "help") ? HELP : null;
+		case 'b':
+			return isExactly(line, "bye") ? BYE : null;
+		case 'd':
+		case 'f':
+			return parseMoves(line);
+		case 's':
+			if (isExactly(line, "subscribe")) {
+				return SUBSCRIBE;
+			} else if (isExactly(line, "status")) {
+				return STATUS;
+			} else if (startsWith(line, "save ")) {
+				CharSequence name = line.subSequence(5, length);
+				if (GameRegistry.isGameName(name)) {
+					return save(name.toString());
+				}
+			}
+			return null;
+		case 'u':
+			return isExactly(line, "unsubscribe") ? UNSUBSCRIBE : null;
+		case 'v':
+			if (isExactly(line, "view all")) {
+				return VIEW_ALL;
+			} else if (startsWith(line, "view ")) {
+				return parseWindow(Type.VIEW, line, 5);
+			}
+			return null;
+		case 'm':
+			if (isExactly(line, "mode delta")) {
+				return DELTA_MODE;
+			} else if (isExactly(line, "mode board")) {
+				return BOARD_MODE;
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	private static boolean startsWith(CharSequence line, String prefix) {
+		return startsWith(line, 0, prefix);
+	}
+
+	private static boolean startsWith(CharSequence line, int start,
+			String prefix) {
+		if (line.length() - start < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (line.charAt(start + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isExactly(CharSequence line, String keyword) {
+		return line.length() == keyword.length() && startsWith(line, keyword);
+	}
+
+	/**
+	 * Parse one move, or several separated by "; " or ";". A single move is
+	 * returned as a DIG, FLAG or DEFLAG command, so that it allocates no
+	 * MoveList.
+	 */
+	private static Command parseMoves(CharSequence line) {
+		Type firstType = null;
+		int firstX = 0;
+		int firstY = 0;
+		MoveList moves = null;
+		int start = 0;
+		while (true) {
+			Type type;
+			if (startsWith(line, start, "dig ")) {
+				type = Type.DIG;
+				start += 4;
+			} else if (startsWith(line, start, "flag ")) {
+				type = Type.FLAG;
+				start += 5;
+			} else if (startsWith(line, start, "deflag ")) {
+				type = Type.DEFLAG;
+				start += 7;
+			} else {
+				return null;
+			}
+			int xEnd = numberEnd(line, start);
+			if (xEnd < 0 || xEnd == line.length() || line.charAt(xEnd) != ' ') {
+				return null;
+			}
+			int yEnd = numberEnd(line, xEnd + 1);
+			if (yEnd < 0) {
+				return null;
+			}
+			int x = numberValue(line, start, xEnd);
+			int y = numberValue(line, xEnd + 1, yEnd);
+			if (firstType == null) {
+				firstType = type;
+				firstX = x;
+				firstY = y;
+			} else {
+				if (moves == null) {
+					moves = new MoveList();
+					moves.add(kindOf(firstType), firstX, firstY);
+				}
+				moves.add(kindOf(type), x, y);
+			}
+			if (yEnd == line.length()) {
+				break;
+			}
+			if (line.charAt(yEnd) != ';') {
+				return null;
+			}
+			start = yEnd + 1;
+			if (start < line.length() && line.charAt(start) == ' ') {
+				start++;
+			}
+		}
+		if (moves == null) {
+			return new Command(firstType, firstX, firstY);
+		}
+		return batch(moves);
+	}
+
+	/**
+	 * Parse the four numbers of a window, starting at start and ending the
+	 * line.
+	 */
+	private static Command parseWindow(Type type, CharSequence line, int start) {
+		int[] values = new int[4];
+		for (int i = 0; i < values.length; i++) {
+			int end = numberEnd(line, start);
+			if (end < 0) {
+				return null;
+			}
+			boolean last = i == values.length - 1;
+			if (last != (end == line.length()) || !last
+					&& line.charAt(end) != ' ') {
+				return null;
+			}
+			values[i] = numberValue(line, start, end);
+			start = end + 1;
+		}
+		return window(type, values[0], values[1], values[2], values[3]);
+	}
+
+	/**
+	 * @return a BATCH command making moves, which must not be modified
+	 *         afterwards
+	 */
+	static Command batch(MoveList moves) {
+		return new Command(Type.BATCH, 0, 0, 0, 0, moves, null);
+	}
+
+	/**
+	 * @return a LOOK_WINDOW or VIEW command for the window of width by height
+	 *         squares whose top left square is (x, y)
+	 */
+	static Command window(Type type, int x, int y, int width, int height) {
+		return new Command(type, x, y, width, height, null, null);
+	}
+
+	/**
+	 * @param name
+	 *            requires GameRegistry.isGameName(name)
+	 * @return a JOIN command for the game called name
+	 */
+	static Command join(String name) {
+		return new Command(Type.JOIN, 0, 0, 0, 0, null, name);
+	}
+
+	/**
+	 * @param name
+	 *            requires GameRegistry.isGameName(name)
+	 * @return a SAVE command saving the current game as name
+	 */
+	static Command save(String name) {
+		return new Command(Type.SAVE, 0, 0, 0, 0, null, name);
+	}
+
+	/**
+	 * @param name
+	 *            requires GameRegistry.isGameName(name)
+	 * @return a LOAD command starting a game from the one saved as name
+	 */
+	static Command load(String name) {
+		return new Command(Type.LOAD, 0, 0, 0, 0, null, name);
+	}
+
+	private static MoveList.Kind kindOf(Type type) {
+		switch (type) {
+		case DIG:
+			return MoveList.Kind.DIG;
+		case FLAG:
+			return MoveList.Kind.FLAG;
+		default:
+			return MoveList.Kind.DEFLAG;
+		}
+	}
+
+	/**
+	 * @return the index just past the number matching -?\d+ that starts at
+	 *         start, or -1 if no number starts there
+	 */
+	private static int numberEnd(CharSequence line, int start) {
+		int i = start;
+		if (i < line.length() && line.charAt(i) == '-') {
+			i++;
+		}
+		int digitsStart = i;
+		while (i < line.length() && isDigit(line.charAt(i))) {
+			i++;
+		}
+		return i == digitsStart ? -1 : i;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return the value of the number from start to end, which must match
+	 *         -?\d+, clamped to the int range
+	 */
+	private static int numberValue(CharSequence line, int start, int end) {
+		boolean negative = line.charAt(start) == '-';
+		long value = 0;
+		for (int i = negative ? start + 1 : start; i < end; i++) {
+			value = value * 10 + (line.charAt(i) - '0');
+			if (value > Integer.MAX_VALUE + 1L) {
+				// already off the board; stop before the long overflows
+				break;
+			}
+		}
+		if (negative) {
+			value = -value;
+		}
+		return (int) Math.max(Integer.MIN_VALUE,
+				Math.min(Integer.MAX_VALUE, value));
+	}
+}
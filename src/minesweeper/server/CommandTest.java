@@ -0,0 +1,201 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import minesweeperclass.MoveList;
+
+import org.junit.Test;
+
+public class CommandTest {
+
+	/*
+	 * Test Command.parse against the protocol grammar
+	 * 
+	 * Testing space: every command, coordinates (negative, zero, leading
+	 * zeros, out of int range), extra or missing spaces, wrong case, trailing
+	 * text, empty line, non-ASCII input, parsing from an AsciiLine, batches,
+	 * game and saved game names, windows
+	 */
+
+	private static final String MOVE = "(dig|flag|deflag) -?\\d+ -?\\d+";
+	private static final String WINDOW = "-?\\d+ -?\\d+ -?\\d+ -?\\d+";
+	private static final String GRAMMAR = "(look)|(help)|(bye)|(mode delta)|(mode board)|"
+			+ "(subscribe)|(unsubscribe)|(" + MOVE + "(; ?" + MOVE + ")*)|"
+			+ "(new)|(join [A-Za-z0-9_-]{1,32})|(list)|"
+			+ "(save [A-Za-z0-9_-]{1,32})|(load [A-Za-z0-9_-]{1,32})|"
+			+ "(look " + WINDOW + ")|(view " + WINDOW + ")|(view all)|"
+			+ "(status)";
+
+	/**
+	 * Asserts that parse accepts exactly the lines the protocol grammar
+	 * matches.
+	 */
+	private static void assertAgreesWithGrammar(String line) {
+		assertEquals(line, line.matches(GRAMMAR), Command.parse(line) != null);
+	}
+
+	@Test
+	public void keywordsTest() {
+		assertSame(Command.LOOK, Command.parse("look"));
+		assertSame(Command.HELP, Command.parse("help"));
+		assertSame(Command.BYE, Command.parse("bye"));
+		assertSame(Command.DELTA_MODE, Command.parse("mode delta"));
+		assertSame(Command.BOARD_MODE, Command.parse("mode board"));
+		assertSame(Command.SUBSCRIBE, Command.parse("subscribe"));
+		assertSame(Command.UNSUBSCRIBE, Command.parse("unsubscribe"));
+		assertSame(Command.NEW, Command.parse("new"));
+		assertSame(Command.LIST, Command.parse("list"));
+		assertSame(Command.STATUS, Command.parse("status"));
+	}
+
+	@Test
+	public void joinTest() {
+		Command join = Command.parse("join Room_7-b");
+		assertEquals(Command.Type.JOIN, join.type);
+		assertEquals("Room_7-b", join.name);
+		String longest = "abcdefghijklmnopqrstuvwxyz012345";
+		assertEquals(longest, Command.parse("join " + longest).name);
+
+		String[] lines = { "join", "join ", "join  a", "join a ", "join a b",
+				"join a.b", "join " + longest + "6", "join \u00e9", "Join a",
+				"new ", "new a", "list ", "lis", "n", "j" };
+		for (String line : lines) {
+			assertNull(line, Command.parse(line));
+			assertAgreesWithGrammar(line);
+		}
+	}
+
+	@Test
+	public void saveLoadTest() {
+		Command save = Command.parse("save my-game_2");
+		assertEquals(Command.Type.SAVE, save.type);
+		assertEquals("my-game_2", save.name);
+		Command load = Command.parse("load my-game_2");
+		assertEquals(Command.Type.LOAD, load.type);
+		assertEquals("my-game_2", load.name);
+
+		String[] lines = { "save", "save ", "load ", "save a b", "load a.b",
+				"load ../a", "Save a", "saves a", "loads a", "lo", "s" };
+		for (String line : lines) {
+			assertNull(line, Command.parse(line));
+			assertAgreesWithGrammar(line);
+		}
+	}
+
+	@Test
+	public void windowTest() {
+		Command look = Command.parse("look -3 4 80 040");
+		assertEquals(Command.Type.LOOK_WINDOW, look.type);
+		assertEquals(-3, look.x);
+		assertEquals(4, look.y);
+		assertEquals(80, look.width);
+		assertEquals(40, look.height);
+		Command view = Command.parse("view 0 0 1 2");
+		assertEquals(Command.Type.VIEW, view.type);
+		assertEquals(1, view.width);
+		assertEquals(2, view.height);
+		assertSame(Command.VIEW_ALL, Command.parse("view all"));
+
+		String[] lines = { "look ", "look 1 2 3", "look 1 2 3 4 5",
+				"look 1 2 3 4 ", "look  1 2 3 4", "view", "view all ",
+				"view 1 2 3 a", "View all", "look all", "v" };
+		for (String line : lines) {
+			assertNull(line, Command.parse(line));
+			assertAgreesWithGrammar(line);
+		}
+	}
+
+	@Test
+	public void coordinatesTest() {
+		Command dig = Command.parse("dig 3 -12");
+		assertEquals(Command.Type.DIG, dig.type);
+		assertEquals(3, dig.x);
+		assertEquals(-12, dig.y);
+		Command flag = Command.parse("flag 007 0");
+		assertEquals(Command.Type.FLAG, flag.type);
+		assertEquals(7, flag.x);
+		assertEquals(0, flag.y);
+		Command deflag = Command.parse("deflag -0 2147483647");
+		assertEquals(Command.Type.DEFLAG, deflag.type);
+		assertEquals(0, deflag.x);
+		assertEquals(Integer.MAX_VALUE, deflag.y);
+	}
+
+	@Test
+	public void outOfRangeTest() {
+		Command dig = Command.parse("dig 99999999999999999999999 -2147483649");
+		assertEquals(Integer.MAX_VALUE, dig.x);
+		assertEquals(Integer.MIN_VALUE, dig.y);
+	}
+
+	@Test
+	public void malformedTest() {
+		String[] lines = { "", " ", "look ", " look", "Look", "LOOK", "lookk",
+				"loo", "help me", "bye!", "dig", "dig ", "dig 1", "dig 1 ",
+				"dig  1 2", "dig 1  2", "dig 1 2 ", "dig 1 2 3", "dig -1 -",
+				"dig - 1", "dig --1 2", "dig +1 2", "dig 1.5 2", "dig x y",
+				"dig\t1 2", "flag1 2", "flag 1 2x", "deflag", "deflag 1",
+				"defla 1 2", "dog 1 2", "d", "f", "dig \u0661 2",
+				"dig 1 \uff12", "h\u00e9lp", "mode", "mode ", "mode full",
+				"mode delta ", "mode  delta", "m", "subscribe ", "sub",
+				"unsubscribed", "u" };
+		for (String line : lines) {
+			assertNull(line, Command.parse(line));
+			assertAgreesWithGrammar(line);
+		}
+	}
+
+	@Test
+	public void grammarTest() {
+		String[] commands = { "look", "help", "bye", "dig", "flag", "deflag",
+				"view", "status" };
+		String[] arguments = { "", " 0 0", " -1 5", " 12 -34", " 00 01",
+				" 1", " 1 2 3", " a b", " -", "  1 1", " 1 -2 3 4",
+				" 1 2 3 4 5", " all" };
+		for (String command : commands) {
+			for (String argument : arguments) {
+				assertAgreesWithGrammar(command + argument);
+			}
+		}
+	}
+
+	@Test
+	public void batchTest() {
+		Command batch = Command.parse("dig 1 2; flag 3 4;deflag -5 6");
+		assertEquals(Command.Type.BATCH, batch.type);
+		assertEquals(3, batch.moves.size());
+		assertEquals(MoveList.Kind.DIG, batch.moves.getKind(0));
+		assertEquals(1, batch.moves.getX(0));
+		assertEquals(2, batch.moves.getY(0));
+		assertEquals(MoveList.Kind.FLAG, batch.moves.getKind(1));
+		assertEquals(MoveList.Kind.DEFLAG, batch.moves.getKind(2));
+		assertEquals(-5, batch.moves.getX(2));
+		assertEquals(6, batch.moves.getY(2));
+
+		String[] lines = { "dig 1 2;", "dig 1 2; ", "dig 1 2 ; flag 3 4",
+				"dig 1 2;  flag 3 4", "dig 1 2; look", "look; dig 1 2",
+				"dig 1 2;;flag 3 4", "; dig 1 2", "dig 1 2, flag 3 4",
+				"dig 1 2;flag 3" };
+		for (String line : lines) {
+			assertNull(line, Command.parse(line));
+			assertAgreesWithGrammar(line);
+		}
+		assertAgreesWithGrammar("flag 0 0;flag 1 1; dig 2 2");
+	}
+
+	@Test
+	public void asciiLineTest() {
+		byte[] bytes = "flag 4 5 and the rest of the buffer".getBytes();
+		AsciiLine line = new AsciiLine(bytes);
+		line.setLength(8);
+		assertEquals("flag 4 5", line.toString());
+		Command flag = Command.parse(line);
+		assertEquals(Command.Type.FLAG, flag.type);
+		assertEquals(4, flag.x);
+		assertEquals(5, flag.y);
+		line.setLength(9);
+		assertNull(Command.parse(line));
+		line.setLength(0);
+		assertNull(Command.parse(line));
+	}
+}
@@ -0,0 +1,145 @@
+package minesweeper.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeperclass.MinesweeperBoard;
+
+/**
+ * One game hosted by the server: a named board and the number of clients
+ * playing on it. The board of a new game is only made when it is first
+ * played or looked at, so a game that is joined and left again costs little
+ * more than this object.
+ *
+ * A game with no players can be evicted by the GameRegistry hosting it.
+ * Eviction and joining race on the player count: once evict() has succeeded
+ * join() fails, and once join() has succeeded evict() fails until every
+ * player has left again.
+ *
+ * Threadsafe argument: the player count is only changed by compare and set,
+ * idleSince is volatile, and the board is made at most once, under the
+ * game's lock, and then published through a volatile field. The lock is a
+ * ReentrantLock rather than the monitor, so a virtual thread waiting while
+ * a large board is made does not pin its carrier thread. The board itself
+ * is threadsafe.
+ */
+final class Game {
+	/** Value of players once the game has been evicted. */
+	private static final int EVICTED = -1;
+
+	final String name;
+	private final int size;
+	/** True if the board to be made is procedural. */
+	private final boolean procedural;
+	/** Seed of the board to be made. */
+	private final long seed;
+	/** Held while the board is made. */
+	private final ReentrantLock making = new ReentrantLock();
+	private volatile MinesweeperBoard board;
+	private final AtomicInteger players = new AtomicInteger();
+	/** System.nanoTime() when the game last had no players. */
+	private volatile long idleSince = System.nanoTime();
+
+	/**
+	 * Make a game whose random board of size * size squares is made from
+	 * seed when first needed, procedural (see MinesweeperBoard.procedural())
+	 * if procedural is true.
+	 */
+	Game(String name, int size, boolean procedural, long seed) {
+		this.name = name;
+		this.size = size;
+		this.procedural = procedural;
+		this.seed = seed;
+	}
+
+	/**
+	 * Make a game played on an existing board.
+	 */
+	Game(String name, MinesweeperBoard board) {
+		this.name = name;
+		this.size = board.getSize();
+		this.procedural = board.isProcedural();
+		// never used, since the board is already made
+		this.seed = 0;
+		this.board = board;
+	}
+
+	/**
+	 * @return the game's board, made by the first call
+	 */
+	MinesweeperBoard board() {
+		MinesweeperBoard made = board;
+		if (made == null) {
+			making.lock();
+			try {
+				made = board;
+				if (made == null) {
+					made = procedural ? MinesweeperBoard.procedural(size,
+							MinesweeperBoard.DEFAULT_DENSITY, seed)
+							: MinesweeperBoard.randomWithDensity(size,
+									MinesweeperBoard.DEFAULT_DENSITY, seed);
+					board = made;
+				}
+			} finally {
+				making.unlock();
+			}
+		}
+		return made;
+	}
+
+	/**
+	 * @return most changes sent as a delta response, and most squares kept
+	 *         for a subscriber before it is resynced, up to
+	 *         Subscription.MAX_CAPACITY. A change that touches
+	 *         more squares than this is answered with the whole board, which
+	 *         is then no bigger than the delta would be.
+	 */
+	int maxDeltaChanges() {
+		return MinesweeperBoard.maxListedChanges(size);
+	}
+
+	/**
+	 * Count a new player.
+	 *
+	 * @return false if the game has been evicted, so the player must find or
+	 *         make another game
+	 */
+	boolean join() {
+		while (true) {
+			int count = players.get();
+			if (count == EVICTED) {
+				return false;
+			}
+			if (players.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Stop counting a player that joined.
+	 */
+	void leave() {
+		// set first, so a sweep that sees the game empty sees it idle from now
+		idleSince = System.nanoTime();
+		players.decrementAndGet();
+	}
+
+	/**
+	 * Mark the game evicted if it has had no players since idleNanos before
+	 * now.
+	 *
+	 * @return true if the game is now evicted and can never be joined
+	 */
+	boolean evict(long now, long idleNanos) {
+		return players.get() == 0 && now - idleSince >= idleNanos
+				&& players.compareAndSet(0, EVICTED);
+	}
+
+	/**
+	 * @return number of players in the game
+	 */
+	int getNumberOfPlayers() {
+		return Math.max(0, players.get());
+	}
+}
@@ -0,0 +1,214 @@
+package minesweeper.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import minesweeperclass.BoardGenerator;
+import minesweeperclass.MinesweeperBoard;
+
+/**
+ * The games hosted by one server, by name. Joining a game that does not
+ * exist yet makes it, with a random board the size of the default game's,
+ * procedural if the default game's is. The board's seed is worked out from
+ * the registry's seed and the game's name, so a server started with the
+ * same seed makes the same board for a game of the same name, and any game
+ * can be played again.
+ * The default game, played on the board the server was started with, is
+ * where every client starts and is never evicted; any other game is evicted
+ * once it has had no players for the idle timeout, and its board is
+ * dropped.
+ *
+ * Evictions are done by a sweep over the games, run at most once per half
+ * idle timeout by whichever client happens to join a game when one is due,
+ * so an idle server does no work and a game is evicted at most one and a
+ * half idle timeouts after its last player left.
+ *
+ * Threadsafe argument: games are looked up in a ConcurrentHashMap and
+ * joined with compare and set (see Game), so routing a client to its game
+ * takes no lock. A game is only removed from the map once it is evicted,
+ * and a client that finds an evicted game still in the map removes it and
+ * tries again, so every successful join is to a game in the map.
+ */
+final class GameRegistry {
+	static final String DEFAULT_GAME = "default";
+	/** Most characters in a game name. */
+	static final int MAX_NAME_LENGTH = 32;
+
+	private final ConcurrentMap<String, Game> games = new ConcurrentHashMap<String, Game>();
+	private final Game defaultGame;
+	private final int newGameSize;
+	private final boolean newGameProcedural;
+	/** Seed the seeds of new games' boards are worked out from. */
+	private final long seed;
+	private final long idleNanos;
+	/** System.nanoTime() when the next sweep is due. */
+	private final AtomicLong nextSweep;
+	/** Number in the name of the last game made by create(). */
+	private final AtomicInteger lastNumber = new AtomicInteger();
+
+	/**
+	 * Make a registry holding just the default game.
+	 *
+	 * @param defaultBoard
+	 *            board of the default game
+	 * @param idleMillis
+	 *            how long a game other than the default one is kept with no
+	 *            players, requires idleMillis >= 0
+	 * @param seed
+	 *            seed the boards of new games are made from
+	 */
+	GameRegistry(MinesweeperBoard defaultBoard, long idleMillis, long seed) {
+		defaultGame = new Game(DEFAULT_GAME, defaultBoard);
+		games.put(DEFAULT_GAME, defaultGame);
+		newGameSize = defaultBoard.getSize();
+		newGameProcedural = defaultBoard.isProcedural();
+		this.seed = seed;
+		idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+		nextSweep = new AtomicLong(System.nanoTime() + idleNanos / 2);
+	}
+
+	/**
+	 * @return true if name is a valid game name: 1 to MAX_NAME_LENGTH
+	 *         letters, digits, '-' or '_'
+	 */
+	static boolean isGameName(CharSequence name) {
+		if (name.length() < 1 || name.length() > MAX_NAME_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0'
+					&& c <= '9' || c == '-' || c == '_')) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Join the default game.
+	 */
+	Game joinDefault() {
+		// never evicted
+		defaultGame.join();
+		return defaultGame;
+	}
+
+	/**
+	 * Join the game called name, making it if there is none.
+	 *
+	 * @param name
+	 *            requires isGameName(name)
+	 * @return the game joined
+	 */
+	Game join(String name) {
+		sweepIfDue();
+		while (true) {
+			Game game = games.get(name);
+			if (game == null) {
+				Game made = newGame(name);
+				made.join();
+				game = games.putIfAbsent(name, made);
+				if (game == null) {
+					return made;
+				}
+			}
+			if (game.join()) {
+				return game;
+			}
+			// evicted, but not removed yet
+			games.remove(name, game);
+		}
+	}
+
+	/**
+	 * Make a new game with a name no other game has, and join it.
+	 *
+	 * @return the game joined
+	 */
+	Game create() {
+		return create(null);
+	}
+
+	/**
+	 * Make a new game like create(), played on board.
+	 *
+	 * @param board
+	 *            board of the new game, or null for a random board the size
+	 *            of the default game's
+	 * @return the game joined
+	 */
+	Game create(MinesweeperBoard board) {
+		sweepIfDue();
+		while (true) {
+			String name = "game" + lastNumber.incrementAndGet();
+			Game made = board == null ? newGame(name) : new Game(name, board);
+			made.join();
+			if (games.putIfAbsent(made.name, made) == null) {
+				return made;
+			}
+		}
+	}
+
+	/**
+	 * @return a game called name with a random board, not yet in the
+	 *         registry
+	 */
+	private Game newGame(String name) {
+		long gameSeed = seed;
+		for (int i = 0; i < name.length(); i++) {
+			gameSeed = BoardGenerator.mix(gameSeed + name.charAt(i));
+		}
+		return new Game(name, newGameSize, newGameProcedural, gameSeed);
+	}
+
+	/**
+	 * Leave a game joined earlier.
+	 */
+	void leave(Game game) {
+		game.leave();
+	}
+
+	/**
+	 * @return the games, sorted by name. Games made or evicted while this
+	 *         runs may or may not be included.
+	 */
+	List<Game> list() {
+		List<Game> list = new ArrayList<Game>(games.values());
+		Collections.sort(list, new Comparator<Game>() {
+			public int compare(Game a, Game b) {
+				return a.name.compareTo(b.name);
+			}
+		});
+		return list;
+	}
+
+	private void sweepIfDue() {
+		long now = System.nanoTime();
+		long due = nextSweep.get();
+		// one client sweeps; the others go straight on
+		if (now - due >= 0
+				&& nextSweep.compareAndSet(due, now + idleNanos / 2)) {
+			sweep(now);
+		}
+	}
+
+	/**
+	 * Evict and remove every game but the default one that has had no
+	 * players for the idle timeout.
+	 */
+	void sweep(long now) {
+		for (Game game : games.values()) {
+			if (game != defaultGame && game.evict(now, idleNanos)) {
+				games.remove(game.name, game);
+			}
+		}
+	}
+}
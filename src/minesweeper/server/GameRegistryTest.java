@@ -0,0 +1,140 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeperclass.MinesweeperBoard;
+
+import org.junit.Test;
+
+public class GameRegistryTest {
+
+	/*
+	 * Test GameRegistry joining, listing and evicting games
+	 *
+	 * Testing space: default game, joining a new and an existing game, new
+	 * games, player counts, lazy boards, boards made again from the seed,
+	 * eviction of idle games with and without players, the default game is
+	 * never evicted, joining after eviction, concurrent joins and leaves
+	 */
+
+	@Test
+	public void joinTest() {
+		MinesweeperBoard board = new MinesweeperBoard(5);
+		GameRegistry registry = new GameRegistry(board, 60000, 1);
+		Game home = registry.joinDefault();
+		assertEquals(GameRegistry.DEFAULT_GAME, home.name);
+		assertSame(board, home.board());
+
+		Game red = registry.join("red");
+		assertEquals(1, red.getNumberOfPlayers());
+		assertSame(red, registry.join("red"));
+		assertEquals(2, red.getNumberOfPlayers());
+		// new boards are the size of the default one, and made once
+		assertEquals(5, red.board().getSize());
+		assertSame(red.board(), red.board());
+
+		Game made = registry.create();
+		assertNotSame(red, made);
+		assertEquals(1, made.getNumberOfPlayers());
+		assertSame(made, registry.join(made.name));
+
+		List<Game> list = registry.list();
+		assertEquals(3, list.size());
+		assertSame(home, list.get(0));
+		assertSame(made, list.get(1));
+		assertSame(red, list.get(2));
+	}
+
+	@Test
+	public void seedTest() {
+		// the same seed and name make the same board on another server
+		MinesweeperBoard board = new MinesweeperBoard(30);
+		GameRegistry first = new GameRegistry(board, 60000, 7);
+		GameRegistry second = new GameRegistry(board, 60000, 7);
+		GameRegistry other = new GameRegistry(board, 60000, 8);
+		String red = bombs(first.join("red").board());
+		assertEquals(red, bombs(second.join("red").board()));
+		assertEquals(bombs(first.create().board()), bombs(second.create()
+				.board()));
+		assertFalse(red.equals(bombs(first.join("blue").board())));
+		assertFalse(red.equals(bombs(other.join("red").board())));
+	}
+
+	/**
+	 * @return the squares of board that held a bomb when dug, digging every
+	 *         square in turn
+	 */
+	private static String bombs(MinesweeperBoard board) {
+		StringBuilder bombs = new StringBuilder();
+		for (int y = 0; y < board.getSize(); y++) {
+			for (int x = 0; x < board.getSize(); x++) {
+				bombs.append(board.dig(x, y, null) ? '*' : '-');
+			}
+		}
+		return bombs.toString();
+	}
+
+	@Test
+	public void evictionTest() {
+		GameRegistry registry = new GameRegistry(new MinesweeperBoard(3), 0, 1);
+		Game home = registry.joinDefault();
+		Game left = registry.join("left");
+		Game kept = registry.join("kept");
+		registry.leave(home);
+		registry.leave(left);
+		registry.sweep(System.nanoTime());
+
+		List<Game> list = registry.list();
+		assertEquals(2, list.size());
+		assertSame(home, list.get(0));
+		assertSame(kept, list.get(1));
+		// an evicted game cannot be joined; its name makes a fresh game
+		assertFalse(left.join());
+		Game again = registry.join("left");
+		assertNotSame(left, again);
+		assertEquals(1, again.getNumberOfPlayers());
+	}
+
+	@Test
+	public void idleTimeoutTest() {
+		GameRegistry registry = new GameRegistry(new MinesweeperBoard(3), 60000,
+				1);
+		Game game = registry.join("idle");
+		registry.leave(game);
+		registry.sweep(System.nanoTime());
+		assertEquals(2, registry.list().size());
+		assertSame(game, registry.join("idle"));
+	}
+
+	@Test(timeout = 20000)
+	public void concurrentJoinTest() throws InterruptedException {
+		// every join must land in a game still in the registry, while games
+		// are evicted as soon as they empty
+		final GameRegistry registry = new GameRegistry(new MinesweeperBoard(3),
+				0, 1);
+		final int threads = 8;
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger lost = new AtomicInteger();
+		for (int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						Game game = registry.join("g" + (i % 3));
+						if (!registry.list().contains(game)) {
+							lost.incrementAndGet();
+						}
+						registry.leave(game);
+						registry.sweep(System.nanoTime());
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+		assertEquals(0, lost.get());
+	}
+}
@@ -0,0 +1,91 @@
+package minesweeper.server;
+
+/**
+ * Puts lines together from bytes fed one at a time, with the same line rules
+ * as BufferedReader.readLine() (lines end with \n, \r or \r\n), keeping at
+ * most LineReader.MAX_LINE_BYTES of a line. LineReader feeds one from a
+ * blocking stream, and NioEventLoop feeds one whatever bytes have arrived.
+ *
+ * Not threadsafe: an assembler is confined to the thread serving its client.
+ */
+class LineAssembler {
+	private final byte[] bytes = new byte[LineReader.MAX_LINE_BYTES];
+	private final AsciiLine line = new AsciiLine(bytes);
+	private int length = 0;
+	private boolean tooLong = false;
+	private boolean lastWasCarriageReturn = false;
+	/** True if the last byte fed ended a line. */
+	private boolean ended = false;
+
+	/**
+	 * Add the next byte of the stream.
+	 *
+	 * @return true if b ended a line, which line() and lineTooLong() show
+	 *         until the next byte is fed
+	 */
+	boolean feed(byte b) {
+		if (ended) {
+			startLine();
+		}
+		if (b == '\n' && lastWasCarriageReturn) {
+			lastWasCarriageReturn = false;
+		} else if (b == '\n' || b == '\r') {
+			lastWasCarriageReturn = b == '\r';
+			ended = true;
+		} else {
+			lastWasCarriageReturn = false;
+			if (length < bytes.length) {
+				bytes[length++] = b;
+			} else {
+				tooLong = true;
+			}
+		}
+		return ended;
+	}
+
+	/**
+	 * End the last line at the end of the stream; like readLine(), it needs
+	 * no terminator.
+	 *
+	 * @return true if a line had been started, which line() and
+	 *         lineTooLong() now show
+	 */
+	boolean finish() {
+		if (ended) {
+			startLine();
+		}
+		ended = length > 0 || tooLong;
+		return ended;
+	}
+
+	private void startLine() {
+		length = 0;
+		tooLong = false;
+		ended = false;
+	}
+
+	/**
+	 * @return the line just ended without its terminator, as a view that is
+	 *         only valid until the next byte is fed
+	 */
+	AsciiLine line() {
+		line.setLength(length);
+		return line;
+	}
+
+	/**
+	 * @return true if the line just ended was longer than
+	 *         LineReader.MAX_LINE_BYTES and has been cut short
+	 */
+	boolean lineTooLong() {
+		return tooLong;
+	}
+
+	/**
+	 * @return true if the last byte fed was a \r, so a \n fed next ends no
+	 *         line of its own
+	 */
+	boolean afterCarriageReturn() {
+		return lastWasCarriageReturn;
+	}
+}
@@ -0,0 +1,80 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads lines from a blocking stream as bytes, with the same line rules as
+ * BufferedReader.readLine() (see LineAssembler), but without decoding them
+ * into Strings, keeping at most MAX_LINE_BYTES of a line, and able to tell
+ * whether another whole line has already arrived, so a server knows when it
+ * has answered everything sent so far.
+ * 
+ * Not threadsafe: a reader is confined to the thread serving its client.
+ */
+class LineReader {
+	private static final int BUFFER_BYTES = 8192;
+	/**
+	 * Longest line kept. Longer lines cannot be valid commands; the rest of
+	 * the line is skipped and lineTooLong() reports it.
+	 */
+	static final int MAX_LINE_BYTES = 4096;
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_BYTES];
+	private int position = 0;
+	private int limit = 0;
+	private final LineAssembler lines = new LineAssembler();
+
+	LineReader(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read the next line, blocking until it has all arrived.
+	 * 
+	 * @return the line without its terminator, as a view that is only valid
+	 *         until the next call, or null at the end of the stream
+	 */
+	AsciiLine readLine() throws IOException {
+		while (true) {
+			if (position == limit) {
+				limit = in.read(buffer);
+				position = 0;
+				if (limit < 0) {
+					limit = 0;
+					return lines.finish() ? lines.line() : null;
+				}
+			}
+			if (lines.feed(buffer[position++])) {
+				return lines.line();
+			}
+		}
+	}
+
+	/**
+	 * @return true if the line last read was longer than MAX_LINE_BYTES and
+	 *         has been cut short
+	 */
+	boolean lineTooLong() {
+		return lines.lineTooLong();
+	}
+
+	/**
+	 * @return true if a whole line has already arrived, so readLine() will
+	 *         not block
+	 */
+	boolean hasLine() {
+		for (int i = position; i < limit; i++) {
+			byte b = buffer[i];
+			// a \n just after a \r ends no line of its own
+			boolean endsLine = b == '\r'
+					|| (b == '\n' && !(i == position && lines
+							.afterCarriageReturn()));
+			if (endsLine) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,86 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class LineReaderTest {
+
+	/*
+	 * Test LineReader against the line rules of BufferedReader.readLine
+	 * 
+	 * Testing space: \n, \r and \r\n terminators, empty lines, last line
+	 * without terminator, lines longer than MAX_LINE_BYTES, hasLine() with
+	 * whole and partial lines buffered, \r\n split across reads
+	 */
+
+	private static LineReader reader(String text) {
+		return new LineReader(new ByteArrayInputStream(text.getBytes()));
+	}
+
+	@Test
+	public void terminatorsTest() throws IOException {
+		LineReader in = reader("look\r\ndig 1 2\rflag 0 0\n\nbye");
+		assertEquals("look", in.readLine().toString());
+		assertEquals("dig 1 2", in.readLine().toString());
+		assertEquals("flag 0 0", in.readLine().toString());
+		assertEquals("", in.readLine().toString());
+		assertEquals("bye", in.readLine().toString());
+		assertNull(in.readLine());
+	}
+
+	@Test
+	public void tooLongTest() throws IOException {
+		String longLine = "";
+		while (longLine.length() <= LineReader.MAX_LINE_BYTES) {
+			longLine += "dig 1 2;";
+		}
+		LineReader in = reader(longLine + "\nlook\n");
+		assertEquals(LineReader.MAX_LINE_BYTES, in.readLine().length());
+		assertTrue(in.lineTooLong());
+		assertEquals("look", in.readLine().toString());
+		assertFalse(in.lineTooLong());
+	}
+
+	@Test
+	public void hasLineTest() throws IOException {
+		LineReader in = reader("look\r\nlook\r\nlo");
+		assertFalse(in.hasLine());
+		in.readLine();
+		assertTrue(in.hasLine());
+		in.readLine();
+		// only part of a line is left
+		assertFalse(in.hasLine());
+		assertEquals("lo", in.readLine().toString());
+	}
+
+	@Test
+	public void splitCarriageReturnTest() throws IOException {
+		// the \n of a \r\n arrives in a later read
+		final byte[][] reads = { "look\r".getBytes(), "\nhelp\n".getBytes() };
+		LineReader in = new LineReader(new InputStream() {
+			private int next = 0;
+
+			public int read() {
+				throw new UnsupportedOperationException();
+			}
+
+			public int read(byte[] buffer) {
+				if (next == reads.length) {
+					return -1;
+				}
+				byte[] bytes = reads[next++];
+				System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+				return bytes.length;
+			}
+		});
+		assertEquals("look", in.readLine().toString());
+		assertEquals("help", in.readLine().toString());
+		assertFalse(in.hasLine());
+		assertNull(in.readLine());
+	}
+}
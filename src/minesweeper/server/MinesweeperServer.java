@@ -1,18 +1,49 @@
 package minesweeper.server;
 
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import minesweeperclass.BoardLog;
+import minesweeperclass.BoardStatus;
+import minesweeperclass.ChangeList;
 import minesweeperclass.MinesweeperBoard;
 
 public class MinesweeperServer {
+	private final ServerSocketChannel serverChannel;
 	private final ServerSocket serverSocket;
 	/**
 	 * True if the server should _not_ disconnect a client after a BOOM message.
 	 */
 	private final boolean debug;
-	private final MinesweeperBoard board;
+	private final GameRegistry games;
+	/**
+	 * Directory where "save" and "load" keep saved games, or null if they
+	 * are not enabled.
+	 */
+	private final File saves;
+	/**
+	 * How long a game other than the default one is kept after its last
+	 * player leaves.
+	 */
+	private static final long GAME_IDLE_MILLIS = 10 * 60 * 1000;
+	private static final String SAVED_GAME_SUFFIX = ".board";
+	private static final String SAVES_DISABLED = "Saving is not enabled on this server.";
+	/**
+	 * Runs each task on a new platform thread.
+	 */
+	private static final Executor NEW_THREADS = new Executor() {
+		public void execute(Runnable task) {
+			new Thread(task).start();
+		}
+	};
 
 	/**
 	 * Make a MinesweeperServer that listens for connections on port.
@@ -23,15 +54,51 @@ public class MinesweeperServer {
 
 	/**
 	 * Threadsafe argument: Because every client will be kept in their own
-	 * thread while sending requests to a single board, if the board is
-	 * threadsafe then the server is threadsafe. The board is threadsafe,
-	 * therefore the server is also threadsafe.
+	 * thread while sending requests to the board of its game, if the boards
+	 * and the game registry are threadsafe then the server is threadsafe. They
+	 * are, therefore the server is also threadsafe. In NIO mode each client is
+	 * confined to one event loop thread instead, and the same argument holds.
+	 * 
+	 * @param board
+	 *            board of the default game, where every client starts
 	 */
 	public MinesweeperServer(int port, boolean debug, MinesweeperBoard board)
 			throws IOException {
-		serverSocket = new ServerSocket(port);
-		this.debug = debug;
-		this.board = board;
+		this(port, debug, board, null);
+	}
+
+	/**
+	 * Make a MinesweeperServer as above whose clients can save and load games.
+	 * 
+	 * @param saves
+	 *            directory where saved games are kept, or null to turn the
+	 *            "save" and "load" commands off
+	 */
+	public MinesweeperServer(int port, boolean debug, MinesweeperBoard board,
+			File saves) throws IOException {
+		this(new ServerOptions().port(port).debug(debug).saves(saves), board);
+	}
+
+	/**
+	 * Make a MinesweeperServer as above, listening on the port of options,
+	 * with its debug flag and saves directory. The boards of new games are
+	 * made from seeds worked out from the seed of options, if it has one,
+	 * so they are the same every time the server is started with that seed.
+	 * 
+	 * @param board
+	 *            board of the default game, where every client starts
+	 */
+	MinesweeperServer(ServerOptions options, MinesweeperBoard board)
+			throws IOException {
+		// a channel-backed socket can serve both blocking and NIO clients
+		serverChannel = ServerSocketChannel.open();
+		serverSocket = serverChannel.socket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(options.port));
+		this.debug = options.debug;
+		this.games = new GameRegistry(board, GAME_IDLE_MILLIS,
+				options.seed != null ? options.seed : new Random().nextLong());
+		this.saves = options.saves;
 	}
 
 	/**
@@ -49,146 +116,621 @@ public class MinesweeperServer {
 
 			// handle the client
 
-			Thread thread = new Thread(new Runnable() {
-				public void run() {
+			Thread thread = new Thread(connectionHandler(socket, NEW_THREADS));
+			thread.start();
+		}
+	}
+
+	/**
+	 * Run the server like serve(), but handle each client on a virtual thread
+	 * rather than a platform thread, so hundreds of thousands of idle clients
+	 * cost little more than their sockets. Nothing on a client's path blocks
+	 * inside a synchronized block, so clients never pin the carrier threads.
+	 * Never returns unless an exception is thrown.
+	 * 
+	 * @throws IOException
+	 *             if the main server socket is broken (IOExceptions from
+	 *             individual clients do *not* terminate serveVirtual())
+	 * @throws UnsupportedOperationException
+	 *             if the running Java has no virtual threads
+	 */
+	public void serveVirtual() throws IOException {
+		ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		while (true) {
+			// block until a client connects
+			final Socket socket = serverSocket.accept();
+			executor.execute(connectionHandler(socket, executor));
+		}
+	}
+
+	/**
+	 * @return true if the running Java supports virtual threads
+	 */
+	static boolean supportsVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Looked up reflectively so the server still builds and runs in its other
+	 * modes on Java versions without virtual threads.
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException(
+					"virtual threads need Java 21 or later");
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		} catch (InvocationTargetException e) {
+			throw new UnsupportedOperationException(e.getCause());
+		}
+	}
+
+	/**
+	 * @param pushers
+	 *            runs the task pushing board changes to the client if it
+	 *            subscribes
+	 * @return a task that handles the client connected on socket and closes
+	 *         the socket when done
+	 */
+	private Runnable connectionHandler(final Socket socket,
+			final Executor pushers) {
+		return new Runnable() {
+			public void run() {
+				try {
+					handleConnection(socket, pushers);
+				} catch (IOException e) {
+					// print exception, don't terminate client
+					e.printStackTrace();
+				} finally {
 					try {
-						handleConnection(socket);
+						socket.close();
 					} catch (IOException e) {
-						// print exception, don't terminate client
 						e.printStackTrace();
-					} finally {
-						try {
-							socket.close();
-						} catch (IOException e) {
-							e.printStackTrace();
-						}
 					}
 				}
-			});
+			}
+		};
+	}
+
+	/**
+	 * Run the server in NIO mode: clients are spread over a fixed number of
+	 * event loop threads, each multiplexing its non-blocking connections with
+	 * a Selector, so idle clients cost a few buffers rather than a thread.
+	 * Clients see the same line protocol as with serve(). Never returns
+	 * unless an exception is thrown.
+	 * 
+	 * @param eventLoops
+	 *            number of event loop threads, requires eventLoops >= 1
+	 * @throws IOException
+	 *             if the main server socket is broken (IOExceptions from
+	 *             individual clients do *not* terminate serveNio())
+	 */
+	public void serveNio(int eventLoops) throws IOException {
+		NioEventLoop[] loops = new NioEventLoop[eventLoops];
+		for (int i = 0; i < eventLoops; i++) {
+			loops[i] = new NioEventLoop(this);
+			Thread thread = new Thread(loops[i], "minesweeper-event-loop-" + i);
 			thread.start();
 		}
+		for (int next = 0;; next = (next + 1) % eventLoops) {
+			// block until a client connects, then hand it to the next loop
+			SocketChannel channel = serverChannel.accept();
+			channel.configureBlocking(false);
+			loops[next].add(channel);
+		}
 	}
 
 	/**
-	 * Handle a single client connection. Returns when client disconnects.
+	 * Handle a single client connection. Returns when client disconnects. The
+	 * client speaks the binary protocol if its first byte is
+	 * BinaryProtocol.MAGIC, otherwise the text protocol.
 	 * 
 	 * @param socket
 	 *            socket where the client is connected
+	 * @param pushers
+	 *            runs the task pushing board changes to the client if it
+	 *            subscribes
 	 * @throws IOException
 	 *             if connection has an error or terminates unexpectedly
 	 */
-	private void handleConnection(Socket socket) throws IOException {
-		BufferedReader in = new BufferedReader(new InputStreamReader(
-				socket.getInputStream()));
-		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-		board.addPlayer();
-		out.println("Welcome to Minesweeper. " + board.getNumberOfPlayers()
-				+ " people are playing including you. Type 'help' for help.");
+	private void handleConnection(Socket socket, Executor pushers)
+			throws IOException {
+		PushbackInputStream input = new PushbackInputStream(
+				socket.getInputStream());
+		// no autoflush: responses to pipelined commands go out together
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), false);
+		ClientSession session = new ClientSession(new PrintWriterSink(out),
+				pushers);
+		out.println(connect(session));
+		out.flush();
 		try {
-			for (String line = in.readLine(); line != null; line = in
+			int first = input.read();
+			if (first == BinaryProtocol.MAGIC) {
+				ClientSession text = session;
+				session = new ClientSession(new BinarySink(
+						new BufferedOutputStream(socket.getOutputStream())),
+						pushers);
+				session.takeOver(text);
+				handleBinary(input, session);
+				return;
+			}
+			if (first < 0) {
+				return;
+			}
+			input.unread(first);
+			LineReader in = new LineReader(input);
+			for (AsciiLine line = in.readLine(); line != null; line = in
 					.readLine()) {
-				String output = handleRequest(line);
-				if (output == "bye") {
+				// no command is this long; answer like any other invalid line
+				Command command = in.lineTooLong() ? null : Command
+						.parse(line);
+				if (!handleCommand(command, session)) {
 					break;
-				} else if (output == "boom!") {
-					out.println("BOOM!\r\n");
-					if (!debug) {
-						break;
-					}
-				} else if (output != null) {
-					out.println(output);
-				} else {
-					out.println("That wasn't a correct command! Type 'help' for a list of commands.");
+				}
+				if (!in.hasLine()) {
+					// answered every command received so far
+					session.out.flush();
 				}
 			}
 		} finally {
-			board.removePlayer();
+			session.out.flush();
+			disconnect(session);
 			out.close();
-			in.close();
 			socket.close();
 		}
 	}
 
-	private String createPrintableBoard(List<String> lines) {
-		if (lines == null) {
-			return null;
+	/**
+	 * Answer binary requests from in until the client leaves or sends an
+	 * invalid request, flushing the responses each time the client's input is
+	 * used up.
+	 */
+	private void handleBinary(InputStream in, ClientSession session)
+			throws IOException {
+		BinaryDecoder decoder = new BinaryDecoder();
+		byte[] bytes = new byte[8192];
+		for (int count = in.read(bytes); count >= 0; count = in.read(bytes)) {
+			for (int i = 0; i < count; i++) {
+				if (decoder.feed(bytes[i])) {
+					Command command = decoder.command();
+					// after a bad request the stream cannot be framed any more
+					if (!handleCommand(command, session) || command == null) {
+						return;
+					}
+				}
+			}
+			session.out.flush();
 		}
-		String str = "";
-		for (int i = 0; i < lines.size(); i++) {
-			str += lines.get(i);
-			str += "\r\n";
+	}
+
+	/**
+	 * Count a newly connected client as a player of the default game.
+	 * 
+	 * @return the welcome message to send to the client
+	 */
+	String connect(ClientSession session) {
+		session.game = games.joinDefault();
+		defaultViewport(session);
+		return "Welcome to Minesweeper. "
+				+ session.game.getNumberOfPlayers()
+				+ " people are playing including you. Type 'help' for help.";
+	}
+
+	/**
+	 * Stop counting a client that disconnected as a player of its game, and
+	 * stop collecting board changes for it.
+	 */
+	void disconnect(ClientSession session) {
+		unsubscribe(session);
+		if (session.game != null) {
+			games.leave(session.game);
+			session.game = null;
 		}
-		return str;
 	}
 
-	private String handleRequestHelper(String request, int x, int y) {
-		if (request.equals("look")) {
-			return createPrintableBoard(board.look());
-		} else if (request.equals("dig")) {
-			String output = createPrintableBoard(board.dig(x, y));
-			if (output != null) {
-				return output;
-			}
-			return "boom!";
-		} else if (request.equals("flag")) {
-			return createPrintableBoard(board.flag(x, y));
-		} else if (request.equals("deflag")) {
-			return createPrintableBoard(board.deFlag(x, y));
-		} else if (request.equals("bye")) {
-			return "bye";
-		} else {
-			return "Valid commands: 'look', 'dig x y', 'flag x y', 'deflag x y', 'bye', 'help'";
+	/**
+	 * Move the client to another game, answering with the number of players
+	 * there. The client's subscription, if any, does not follow it.
+	 */
+	private void switchGame(ClientSession session, Game game) {
+		unsubscribe(session);
+		games.leave(session.game);
+		session.game = game;
+		defaultViewport(session);
+		session.out.println("Joined game " + game.name + ". "
+				+ game.getNumberOfPlayers()
+				+ " people are playing including you.");
+	}
+
+	/**
+	 * Give a client of a procedural board the default viewport if it has
+	 * none, since the whole board is far too large to show.
+	 */
+	private static void defaultViewport(ClientSession session) {
+		if (session.viewport == null && session.game.board().isProcedural()) {
+			session.viewport = Viewport.PROCEDURAL_DEFAULT;
 		}
 	}
 
-	private String handleRequestHelper(String request) {
-		return handleRequestHelper(request, 0, 0);
+	/**
+	 * Start pushing every later board change to the client. The session's
+	 * serving mode either delivers the updates itself with deliverUpdates()
+	 * when told they are ready, or has a pusher task started here.
+	 */
+	private void subscribe(final ClientSession session) {
+		final MinesweeperBoard board = session.game.board();
+		final Subscription subscription = new Subscription(Math.min(
+				session.game.maxDeltaChanges(), Subscription.MAX_CAPACITY),
+				session.updatesReady);
+		subscription.setViewport(session.viewport);
+		session.subscription = subscription;
+		board.addListener(subscription);
+		if (session.pushers != null) {
+			session.pushers.execute(new Runnable() {
+				public void run() {
+					try {
+						while (subscription.awaitUpdates()) {
+							subscription.deliverTo(session.out, board);
+							session.out.flush();
+						}
+					} catch (InterruptedException e) {
+						// stop pushing; the client can still look
+					}
+				}
+			});
+		}
+	}
+
+	private void unsubscribe(ClientSession session) {
+		Subscription subscription = session.subscription;
+		if (subscription != null) {
+			session.game.board().removeListener(subscription);
+			subscription.close();
+			session.subscription = null;
+		}
 	}
 
 	/**
-	 * Handler for client input, performing requested operations and returning
-	 * an output message.
-	 * 
-	 * @param input
-	 *            message from client
-	 * @return message to client
+	 * Print the updates waiting for the client, if it subscribed. For serving
+	 * modes that deliver updates themselves; must only be called by the thread
+	 * serving the client.
 	 */
-	private String handleRequest(String input) {
-		String regex = "(look)|(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|"
-				+ "(deflag -?\\d+ -?\\d+)|(help)|(bye)";
-		if (!input.matches(regex)) {
-			// invalid input
-			return null;
+	void deliverUpdates(ClientSession session) {
+		if (session.subscription != null) {
+			session.subscription.deliverTo(session.out, session.game.board());
 		}
-		String[] tokens = input.split(" ");
-		if (tokens[0].equals("look")) {
-			return handleRequestHelper("look");
-		} else if (tokens[0].equals("help")) {
-			return handleRequestHelper("help");
-		} else if (tokens[0].equals("bye")) {
-			return handleRequestHelper("bye");
-		} else {
-			int x = Integer.parseInt(tokens[1]);
-			int y = Integer.parseInt(tokens[2]);
-			if (tokens[0].equals("dig")) {
-				return handleRequestHelper("dig", x, y);
-			} else if (tokens[0].equals("flag")) {
-				return handleRequestHelper("flag", x, y);
-			} else if (tokens[0].equals("deflag")) {
-				return handleRequestHelper("deflag", x, y);
+	}
 
+	/**
+	 * Perform a parsed command, printing the response to the client.
+	 * 
+	 * In board mode, the default, dig, flag and deflag answer with the whole
+	 * board. After "mode delta" they answer with just the squares they
+	 * changed (see ResponseSink.printChanges()), or with the whole board if
+	 * that is smaller; look always answers with the whole board (or the
+	 * client's viewport of it, see below). "mode board"
+	 * switches back.
+	 * 
+	 * "look X Y W H" answers with just the window of W by H squares whose
+	 * top left square is (X, Y), cut down to the part on the board. "view X
+	 * Y W H" sets the client's viewport to that window: from then on every
+	 * response that would show the whole board shows just the window, and
+	 * delta responses and pushed updates hold just the changes inside it.
+	 * "view all" clears the viewport. A procedural board is far too large to
+	 * show whole, so its clients start with a viewport of
+	 * Viewport.PROCEDURAL_DEFAULT, cannot clear it, and cannot see a window
+	 * more than Viewport.MAX_PROCEDURAL_SIDE squares on a side.
+	 * 
+	 * "status" answers with the line "STATUS STATE SAFE BOMBS FLAGS CORRECT
+	 * DUG", where STATE is "won" once every safe square has been dug and
+	 * "playing" before, SAFE is the number of safe squares left to dig, BOMBS
+	 * the number of bombs on the board, FLAGS the number of flags, CORRECT
+	 * the number of those on bombs and DUG the number of bombs dug so far
+	 * (see MinesweeperBoard.status()). A count a procedural board does not
+	 * know is "?". It takes constant time however large the board.
+	 * 
+	 * "subscribe" answers with the whole board, and from then on every change
+	 * anyone makes to the board is pushed to the client as it happens, as
+	 * described by Subscription, until "unsubscribe".
+	 * 
+	 * A batch of moves is made as one command (see MinesweeperBoard.play())
+	 * and answered once, like a single move; a bomb ends the batch.
+	 * 
+	 * Every client starts in the default game. "join NAME" moves it to the
+	 * game called NAME, which is made if there is none, and "new" to a new
+	 * game with a new name; either way the client leaves its old game and
+	 * loses its subscription. "list" answers with "GAMES n" followed by one
+	 * line "NAME PLAYERS" per game.
+	 * 
+	 * "save NAME" saves the board of the client's game, while play goes on,
+	 * to a binary board file called NAME.board in the saves directory (see
+	 * MinesweeperBoard.save()), replacing any earlier save of that name.
+	 * "load NAME" moves the client to a new game played on a copy
+	 * of the board saved as NAME, like "new". Both are answered with an
+	 * error message if the server has no saves directory, and procedural
+	 * games cannot be saved.
+	 * 
+	 * @param command
+	 *            command from the client, or null if the client sent an
+	 *            invalid line
+	 * @param session
+	 *            the client's session
+	 * @return false if the client should be disconnected after the response
+	 */
+	boolean handleCommand(Command command, ClientSession session) {
+		ResponseSink out = session.out;
+		MinesweeperBoard board = session.game.board();
+		if (command == null) {
+			out.println("That wasn't a correct command! Type 'help' for a list of commands.");
+			return true;
+		}
+		switch (command.type) {
+		case LOOK:
+			printView(session);
+			return true;
+		case DIG:
+			if (session.delta || session.viewport != null) {
+				ChangeList changes = session.delta ? startChanges(session)
+						: null;
+				if (board.dig(command.x, command.y, changes)) {
+					return boom(out);
+				}
+				printChanges(changes, session);
+				return true;
+			}
+			List<String> rows = board.dig(command.x, command.y);
+			if (rows == null) {
+				return boom(out);
+			}
+			out.printBoard(rows);
+			return true;
+		case FLAG:
+			if (session.delta || session.viewport != null) {
+				ChangeList changes = session.delta ? startChanges(session)
+						: null;
+				board.flag(command.x, command.y, changes);
+				printChanges(changes, session);
+			} else {
+				out.printBoard(board.flag(command.x, command.y));
+			}
+			return true;
+		case DEFLAG:
+			if (session.delta || session.viewport != null) {
+				ChangeList changes = session.delta ? startChanges(session)
+						: null;
+				board.deFlag(command.x, command.y, changes);
+				printChanges(changes, session);
+			} else {
+				out.printBoard(board.deFlag(command.x, command.y));
+			}
+			return true;
+		case BYE:
+			return false;
+		case HELP:
+			out.println("Valid commands: 'look', 'dig x y', 'flag x y', 'deflag x y', 'mode delta', 'mode board', 'subscribe', 'unsubscribe', 'new', 'join NAME', 'list', 'save NAME', 'load NAME', 'look x y w h', 'view x y w h', 'view all', 'status', 'bye', 'help'. Moves can be batched: 'dig x y; flag x y'");
+			return true;
+		case DELTA_MODE:
+			session.delta = true;
+			out.println("Mode set to delta.");
+			return true;
+		case BOARD_MODE:
+			session.delta = false;
+			out.println("Mode set to board.");
+			return true;
+		case SUBSCRIBE:
+			if (session.subscription == null) {
+				subscribe(session);
+			}
+			// every change not shown here will be pushed
+			printView(session);
+			return true;
+		case UNSUBSCRIBE:
+			unsubscribe(session);
+			out.println("Unsubscribed.");
+			return true;
+		case BATCH:
+			ChangeList changes = session.delta ? startChanges(session) : null;
+			if (board.play(command.moves, changes) >= 0) {
+				return boom(out);
+			}
+			if (session.delta) {
+				printChanges(changes, session);
+			} else {
+				printView(session);
+			}
+			return true;
+		case NEW:
+			switchGame(session, games.create());
+			return true;
+		case JOIN:
+			if (command.name.equals(session.game.name)) {
+				out.println("Already in game " + command.name + ".");
+			} else {
+				switchGame(session, games.join(command.name));
+			}
+			return true;
+		case LIST:
+			List<Game> list = games.list();
+			out.println("GAMES " + list.size());
+			for (Game game : list) {
+				out.println(game.name + " " + game.getNumberOfPlayers());
+			}
+			return true;
+		case SAVE:
+			if (saves == null) {
+				out.println(SAVES_DISABLED);
+				return true;
+			}
+			if (board.isProcedural()) {
+				out.println("Cannot save a procedural game.");
+				return true;
+			}
+			try {
+				board.save(savedGame(command.name), true);
+				out.println("Saved game as " + command.name + ".");
+			} catch (IOException e) {
+				out.println("Could not save game as " + command.name + ": "
+						+ e.getMessage());
+			}
+			return true;
+		case LOAD:
+			if (saves == null) {
+				out.println(SAVES_DISABLED);
+				return true;
+			}
+			File saved = savedGame(command.name);
+			if (!saved.isFile()) {
+				out.println("No saved game " + command.name + ".");
+				return true;
 			}
+			MinesweeperBoard loaded;
+			try {
+				loaded = MinesweeperBoard.loadFile(saved);
+			} catch (IOException e) {
+				out.println("Could not load game " + command.name + ": "
+						+ e.getMessage());
+				return true;
+			}
+			switchGame(session, games.create(loaded));
+			return true;
+		case LOOK_WINDOW:
+		case VIEW:
+			Viewport window;
+			try {
+				window = new Viewport(command.x, command.y, command.width,
+						command.height);
+			} catch (IllegalArgumentException e) {
+				out.println("A window must be at least 1x1.");
+				return true;
+			}
+			if (window.tooLargeFor(board)) {
+				out.println("A window of a procedural board can be at most "
+						+ Viewport.MAX_PROCEDURAL_SIDE + " squares on a side.");
+			} else if (command.type == Command.Type.LOOK_WINDOW) {
+				window.print(out, board);
+			} else {
+				setViewport(session, window);
+				out.println("Viewport set to " + window + ".");
+			}
+			return true;
+		case STATUS:
+			out.println(statusLine(board.status()));
+			return true;
+		case VIEW_ALL:
+			if (board.isProcedural()) {
+				out.println("A procedural board is too large to view all of.");
+			} else {
+				setViewport(session, null);
+				out.println("Viewport cleared.");
+			}
+			return true;
 		}
 		// Should never get here--make sure to return in each of the valid cases
 		// above.
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * @return the file where the game saved as name is kept
+	 */
+	private File savedGame(String name) {
+		// game names cannot hold a path separator or "."
+		return new File(saves, name + SAVED_GAME_SUFFIX);
+	}
+
+	/**
+	 * Print the response to digging a bomb.
+	 * 
+	 * @return false if the client should be disconnected
+	 */
+	private boolean boom(ResponseSink out) {
+		out.printBoom();
+		return debug;
+	}
+
+	private static void setViewport(ClientSession session, Viewport viewport) {
+		session.viewport = viewport;
+		if (session.subscription != null) {
+			session.subscription.setViewport(viewport);
+		}
+	}
+
+	private static String statusLine(BoardStatus status) {
+		return "STATUS " + (status.isWon() ? "won" : "playing") + " "
+				+ count(status.getSafeSquaresLeft()) + " "
+				+ count(status.getBombs()) + " " + status.getFlags() + " "
+				+ status.getCorrectFlags() + " " + status.getBombsDug();
+	}
+
+	/**
+	 * @return count as text, "?" if unknown
+	 */
+	private static String count(long count) {
+		return count < 0 ? "?" : Long.toString(count);
+	}
+
+	/**
+	 * Print the board, or the client's viewport of it if it has one.
+	 */
+	private static void printView(ClientSession session) {
+		MinesweeperBoard board = session.game.board();
+		if (session.viewport != null) {
+			session.viewport.print(session.out, board);
+		} else {
+			session.out.printBoard(board.look());
+		}
+	}
+
+	private ChangeList startChanges(ClientSession session) {
+		session.changes.clear(session.game.maxDeltaChanges());
+		return session.changes;
+	}
+
+	/**
+	 * Print the response to a move that made changes: in delta mode the
+	 * changes inside the client's viewport, in board mode or if there were
+	 * too many changes to list the board or the viewport of it.
+	 * 
+	 * @param changes
+	 *            the changes the move made, null in board mode
+	 */
+	private void printChanges(ChangeList changes, ClientSession session) {
+		ResponseSink out = session.out;
+		Viewport viewport = session.viewport;
+		if (!session.delta || changes.overflowed()) {
+			printView(session);
+		} else if (viewport == null) {
+			out.printChanges("DELTA", changes);
+		} else {
+			ChangeList inside = session.viewChanges;
+			inside.clear();
+			for (int i = 0; i < changes.size(); i++) {
+				int x = changes.getX(i);
+				int y = changes.getY(i);
+				if (viewport.contains(x, y)) {
+					inside.add(x, y, changes.getGlyph(i));
+				}
+			}
+			out.printChanges("DELTA", inside);
+		}
+	}
+
 	/**
 	 * Start a MinesweeperServer using the given arguments.
 	 * 
 	 * Usage: MinesweeperServer [--debug] [--port PORT] [--size SIZE | --file
-	 * FILE]
+	 * FILE] [--mines MINES] [--seed SEED] [--snapshot SNAPSHOT | --log LOG]
+	 * [--saves SAVES] [--procedural] [--nio | --nio-threads THREADS |
+	 * --virtual-threads]
 	 * 
 	 * The --debug argument means the server should run in debug mode. The
 	 * server should disconnect a client after a BOOM message if and only if the
@@ -208,24 +750,78 @@ public class MinesweeperServer {
 	 * as the starting board. E.g. "MinesweeperServer --file boardfile.txt"
 	 * starts the server initialized with the board stored in boardfile.txt,
 	 * however large it happens to be (but the board may be assumed to be
-	 * square).
+	 * square). FILE may also be a binary board file written by the "save"
+	 * command, told apart by its first bytes, in which case the game starts
+	 * as it was saved.
 	 * 
 	 * The board file format, for use with the "--file" option, is specified by
 	 * the following grammar:
 	 * 
 	 * FILE :== LINE+ LINE :== (VAL SPACE)* VAL NEWLINE VAL :== 0 | 1 SPACE :==
-	 * " " NEWLINE :== "\r?\r\n"
+	 * " " NEWLINE :== "\r?\n"
 	 * 
 	 * If neither FILE nor SIZE is given, generate a random board of size 10x10.
 	 * 
 	 * Note that FILE and SIZE may not be specified simultaneously.
+	 * 
+	 * MINES is an optional integer giving the exact number of bombs on a
+	 * random board; without it each square is a bomb with probability
+	 * MinesweeperBoard.DEFAULT_DENSITY. SEED is an optional integer picking
+	 * the random board: the same SIZE, MINES and SEED always give the same
+	 * board. It also picks the boards of the games clients start (see
+	 * GameRegistry). Without it the server picks a seed and prints it, so a
+	 * game can be replayed exactly. E.g. "MinesweeperServer --size 30
+	 * --mines 200 --seed 12345". MINES is ignored if FILE is given, and so
+	 * is SEED, but for new games.
+	 * 
+	 * The --procedural argument means the random board, and the board of
+	 * every new game, is procedural (see MinesweeperBoard.procedural()): only
+	 * the squares that have been played are stored, so SIZE can be up to
+	 * MinesweeperBoard.MAX_PROCEDURAL_SIZE. Clients see it through a viewport
+	 * (see handleCommand()). It needs SIZE, and may not be given with MINES,
+	 * SNAPSHOT or LOG. E.g. "MinesweeperServer --size 1000000 --procedural
+	 * --seed 12345".
+	 * 
+	 * SNAPSHOT is an optional file pathname where the board is kept in a
+	 * memory-mapped file while the server runs. If the file already exists the
+	 * game stored in it is resumed and SIZE and FILE are ignored; otherwise it
+	 * is created from the starting board. E.g. "MinesweeperServer --snapshot
+	 * game.board" picks the game up where it stopped after a restart.
+	 * 
+	 * LOG is an optional directory where a write-ahead log of the board is
+	 * kept: every change is appended to the log and committed to the disk in
+	 * batches, off the path of the commands, with a snapshot of the board now
+	 * and then (see BoardLog). If the directory already holds a log the board
+	 * is recovered from it and SIZE and FILE are ignored; otherwise the log is
+	 * started from the starting board. E.g. "MinesweeperServer --log
+	 * game.log" survives the server being killed at any point, losing at most
+	 * the last few milliseconds of moves. Only the board of the default game
+	 * is logged.
+	 * 
+	 * Note that SNAPSHOT and LOG may not be specified simultaneously; the
+	 * last one given wins.
+	 * 
+	 * SAVES is an optional directory where the "save" and "load" commands
+	 * keep saved games; without it they are turned off. E.g.
+	 * "MinesweeperServer --saves saved" lets clients save games to and load
+	 * them from the directory saved, which is made if need be.
+	 * 
+	 * The --nio argument means the server should serve clients from a small
+	 * set of non-blocking event loop threads instead of starting a thread per
+	 * client, one loop per processor by default. THREADS is an optional
+	 * positive integer giving the number of event loop threads and implies
+	 * --nio. E.g. "MinesweeperServer --nio-threads 2" serves every client
+	 * from two threads.
+	 * 
+	 * The --virtual-threads argument means the server should handle each
+	 * client on its own virtual thread instead of a platform thread. It needs
+	 * Java 21 or later.
+	 * 
+	 * Note that --nio, --nio-threads and --virtual-threads may not be
+	 * specified simultaneously; the last one given wins.
 	 */
 	public static void main(String[] args) {
-		// Command-line argument parsing is provided. Do not change this method.
-		boolean debug = false;
-		int port = 4444; // default port
-		Integer size = 10; // default size
-		File file = null;
+		ServerOptions options = new ServerOptions();
 
 		Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
 		try {
@@ -233,25 +829,40 @@ public class MinesweeperServer {
 				String flag = arguments.remove();
 				try {
 					if (flag.equals("--debug")) {
-						debug = true;
+						options.debug(true);
 					} else if (flag.equals("--no-debug")) {
-						debug = false;
+						options.debug(false);
 					} else if (flag.equals("--port")) {
-						port = Integer.parseInt(arguments.remove());
-						if (port < 0 || port > 65535) {
-							throw new IllegalArgumentException("port " + port
-									+ " out of range");
-						}
+						options.port(Integer.parseInt(arguments.remove()));
 					} else if (flag.equals("--size")) {
-						size = Integer.parseInt(arguments.remove());
-						file = null;
+						options.size(Integer.parseInt(arguments.remove()));
 					} else if (flag.equals("--file")) {
-						size = null;
-						file = new File(arguments.remove());
+						File file = new File(arguments.remove());
 						if (!file.isFile()) {
 							throw new IllegalArgumentException(
 									"file not found: \"" + file + "\"");
 						}
+						options.file(file);
+					} else if (flag.equals("--mines")) {
+						options.mines(Long.parseLong(arguments.remove()));
+					} else if (flag.equals("--seed")) {
+						options.seed(Long.parseLong(arguments.remove()));
+					} else if (flag.equals("--procedural")) {
+						options.procedural(true);
+					} else if (flag.equals("--snapshot")) {
+						options.snapshot(new File(arguments.remove()));
+					} else if (flag.equals("--log")) {
+						options.log(new File(arguments.remove()));
+					} else if (flag.equals("--saves")) {
+						options.saves(new File(arguments.remove()));
+					} else if (flag.equals("--nio")) {
+						options.nioThreads(Runtime.getRuntime()
+								.availableProcessors());
+					} else if (flag.equals("--nio-threads")) {
+						options.nioThreads(Integer.parseInt(arguments
+								.remove()));
+					} else if (flag.equals("--virtual-threads")) {
+						options.virtualThreads();
 					} else {
 						throw new IllegalArgumentException("unknown option: \""
 								+ flag + "\"");
@@ -264,15 +875,20 @@ public class MinesweeperServer {
 							"unable to parse number for " + flag);
 				}
 			}
+			options.validate();
+			if (options.seed == null) {
+				options.seed(new Random().nextLong());
+				System.out.println("Random board seed " + options.seed);
+			}
 		} catch (IllegalArgumentException iae) {
 			System.err.println(iae.getMessage());
 			System.err
-					.println("usage: MinesweeperServer [--debug] [--port PORT] [--size SIZE | --file FILE]");
+					.println("usage: MinesweeperServer [--debug] [--port PORT] [--size SIZE | --file FILE] [--mines MINES] [--seed SEED] [--snapshot SNAPSHOT | --log LOG] [--saves SAVES] [--procedural] [--nio | --nio-threads THREADS | --virtual-threads]");
 			return;
 		}
 
 		try {
-			runMinesweeperServer(debug, file, size, port);
+			runMinesweeperServer(options);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -298,41 +914,92 @@ public class MinesweeperServer {
 	 */
 	public static void runMinesweeperServer(boolean debug, File file,
 			Integer size, int port) throws IOException {
-
-		MinesweeperBoard newBoard;
+		ServerOptions options = new ServerOptions().debug(debug).port(port);
 		if (size != null) {
-			newBoard = new MinesweeperBoard(size);
+			options.size(size);
 		} else {
-			newBoard = MinesweeperServer.getBoardFromFile(file);
+			options.file(file);
 		}
-		MinesweeperServer server = new MinesweeperServer(port, debug, newBoard);
-		server.serve();
+		runMinesweeperServer(options);
 	}
 
-	private static MinesweeperBoard getBoardFromFile(File file)
+	/**
+	 * Start a MinesweeperServer as described by options, which main() fills
+	 * in from its arguments.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the options cannot be used together
+	 */
+	public static void runMinesweeperServer(ServerOptions options)
 			throws IOException {
-		BufferedReader reader = new BufferedReader(new FileReader(file));
-
-		String text = reader.readLine();
-		String[] textArray = text.split(" ");
-		char[][] inputBoard = new char[textArray.length][textArray.length];
-		int i = 0;
-		while (text != null) {
-			for (int j = 0; j < textArray.length; j++) {
-				if (textArray[j].equals("0")) {
-					inputBoard[i][j] = '-';
-				} else if (textArray[j].equals("1")) {
-					inputBoard[i][j] = 'B';
-				}
+		options.validate();
+		File log = options.log;
+		File snapshot = options.snapshot;
+		MinesweeperBoard newBoard;
+		BoardLog boardLog = null;
+		if (log != null && BoardLog.exists(log)) {
+			boardLog = BoardLog.recover(log);
+			newBoard = boardLog.board();
+		} else if (snapshot != null && snapshot.isFile()) {
+			newBoard = MinesweeperBoard.openMapped(snapshot);
+		} else {
+			if (options.size != null) {
+				newBoard = randomBoard(options.size, options.mines,
+						options.seed, options.procedural);
+			} else {
+				newBoard = MinesweeperServer.getBoardFromFile(options.file);
 			}
-			text = reader.readLine();
-			if (text != null) {
-				textArray = text.split(" ");
+			if (snapshot != null) {
+				newBoard = MinesweeperBoard.createMapped(snapshot, newBoard);
+			}
+			if (log != null) {
+				boardLog = BoardLog.create(log, newBoard);
 			}
-			i++;
 		}
-		reader.close();
+		if (boardLog != null) {
+			// commit the last batch when the process is told to stop
+			final BoardLog closing = boardLog;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					try {
+						closing.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}));
+		}
+		File saves = options.saves;
+		if (saves != null && !saves.isDirectory() && !saves.mkdirs()) {
+			throw new IOException("cannot make saves directory " + saves);
+		}
+		MinesweeperServer server = new MinesweeperServer(options, newBoard);
+		if (options.nioThreads > 0) {
+			server.serveNio(options.nioThreads);
+		} else if (options.virtualThreads) {
+			server.serveVirtual();
+		} else {
+			server.serve();
+		}
+	}
 
-		return new MinesweeperBoard(inputBoard);
+	private static MinesweeperBoard randomBoard(int size, Long mines,
+			Long seed, boolean procedural) {
+		if (seed == null) {
+			seed = new Random().nextLong();
+		}
+		if (procedural) {
+			return MinesweeperBoard.procedural(size,
+					MinesweeperBoard.DEFAULT_DENSITY, seed);
+		} else if (mines != null) {
+			return MinesweeperBoard.randomWithMines(size, mines, seed);
+		}
+		return MinesweeperBoard.randomWithDensity(size,
+				MinesweeperBoard.DEFAULT_DENSITY, seed);
+	}
+
+	private static MinesweeperBoard getBoardFromFile(File file)
+			throws IOException {
+		return MinesweeperBoard.loadFile(file);
 	}
 }
@@ -0,0 +1,599 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import minesweeperclass.MinesweeperBoard;
+
+import org.junit.Test;
+
+import autograder.TestUtil;
+
+public class MinesweeperServerTest {
+
+	/*
+	 * Test the server modes against the published 7x7 board, talking to the
+	 * server over loopback like a telnet client would
+	 * 
+	 * Testing space: thread-per-client mode, NIO mode, virtual thread mode
+	 * (where supported), several lines sent at once, line terminators,
+	 * disconnecting, boards larger than the NIO board buffer, delta mode,
+	 * pushed updates, batches, a partial line after pipelined commands, binary
+	 * clients, several games, saving and loading games, windows and
+	 * viewports, procedural boards to text and binary clients
+	 */
+
+	/**
+	 * Starts a server on port, in NIO mode if nioThreads is positive,
+	 * otherwise on virtual threads if virtualThreads is true. The board is a
+	 * random board of the given size, or the published board if size is null.
+	 */
+	private static void startServer(int port, Integer size, int nioThreads,
+			boolean virtualThreads) throws IOException {
+		ServerOptions options = new ServerOptions().debug(true).port(port);
+		if (size != null) {
+			options.size(size);
+		} else {
+			options.file(publishedBoard());
+		}
+		if (nioThreads > 0) {
+			options.nioThreads(nioThreads);
+		} else if (virtualThreads) {
+			options.virtualThreads();
+		}
+		startServer(options);
+	}
+
+	private static File publishedBoard() throws IOException {
+		return new File(
+				TestUtil.getResourcePathName("autograder/resources/board_file_5"));
+	}
+
+	/**
+	 * Starts a server as described by options on a thread of its own.
+	 */
+	private static void startServer(final ServerOptions options) {
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					MinesweeperServer.runMinesweeperServer(options);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}).start();
+	}
+
+	private static Socket connect(int port) throws IOException,
+			InterruptedException {
+		for (int attempts = 0;; attempts++) {
+			try {
+				Socket socket = new Socket("127.0.0.1", port);
+				socket.setSoTimeout(3000);
+				return socket;
+			} catch (IOException e) {
+				if (attempts > 50) {
+					throw e;
+				}
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	private static void assertBoard(BufferedReader in, String... rows)
+			throws IOException {
+		for (String row : rows) {
+			assertEquals(row, TestUtil.nextNonEmptyLine(in));
+		}
+	}
+
+	private static void playPublishedGame(int port) throws IOException,
+			InterruptedException {
+		Socket socket = connect(port);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		// several commands in one packet, with every kind of line terminator
+		out.print("look\r\ndig 3 1\rflag 0 0\nnonsense\n");
+		out.flush();
+		assertBoard(in, "- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -");
+		assertBoard(in, "- - - - - - -", "- - - 1 - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -");
+		assertBoard(in, "F - - - - - -", "- - - 1 - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -");
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("That wasn't"));
+
+		out.println("dig 4 1");
+		assertEquals("BOOM!", TestUtil.nextNonEmptyLine(in));
+		out.println("bye");
+		assertNull(TestUtil.nextNonEmptyLine(in));
+		socket.close();
+	}
+
+	private static void playDeltaGame(int port) throws IOException,
+			InterruptedException {
+		Socket socket = connect(port);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		out.print("mode delta\ndig 3 1\nflag 0 0\nflag 0 0\ndeflag 0 0\n");
+		out.flush();
+		assertEquals("Mode set to delta.", TestUtil.nextNonEmptyLine(in));
+		assertBoard(in, "DELTA 1", "3 1 1");
+		assertBoard(in, "DELTA 1", "0 0 F");
+		assertBoard(in, "DELTA 0");
+		assertBoard(in, "DELTA 1", "0 0 -");
+
+		// look still sends the whole board, and board mode switches back
+		out.print("look\nmode board\nflag 0 0\n");
+		out.flush();
+		assertBoard(in, "- - - - - - -", "- - - 1 - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -");
+		assertEquals("Mode set to board.", TestUtil.nextNonEmptyLine(in));
+		assertBoard(in, "F - - - - - -", "- - - 1 - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -");
+		socket.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testDeltaMode() throws IOException, InterruptedException {
+		startServer(4464, null, 0, false);
+		playDeltaGame(4464);
+		startServer(4465, null, 1, false);
+		playDeltaGame(4465);
+	}
+
+	private static void playWatchedGame(int port) throws IOException,
+			InterruptedException {
+		Socket watcher = connect(port);
+		BufferedReader watcherIn = new BufferedReader(new InputStreamReader(
+				watcher.getInputStream()));
+		PrintWriter watcherOut = new PrintWriter(watcher.getOutputStream(),
+				true);
+		assertTrue(TestUtil.nextNonEmptyLine(watcherIn).startsWith("Welcome"));
+		watcherOut.println("subscribe");
+		assertBoard(watcherIn, "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -");
+
+		Socket player = connect(port);
+		BufferedReader playerIn = new BufferedReader(new InputStreamReader(
+				player.getInputStream()));
+		PrintWriter playerOut = new PrintWriter(player.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(playerIn).startsWith("Welcome"));
+		playerOut.println("dig 3 1");
+		assertBoard(playerIn, "- - - - - - -", "- - - 1 - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -");
+		assertBoard(watcherIn, "UPDATE 1", "3 1 1");
+		playerOut.println("flag 0 6");
+		assertBoard(playerIn, "- - - - - - -", "- - - 1 - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "F - - - - - -");
+		assertBoard(watcherIn, "UPDATE 1", "0 6 F");
+
+		// after unsubscribing nothing more is pushed
+		watcherOut.println("unsubscribe");
+		assertEquals("Unsubscribed.", TestUtil.nextNonEmptyLine(watcherIn));
+		playerOut.println("deflag 0 6");
+		assertBoard(playerIn, "- - - - - - -", "- - - 1 - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -");
+		watcherOut.println("help");
+		assertTrue(TestUtil.nextNonEmptyLine(watcherIn).startsWith(
+				"Valid commands"));
+		watcher.close();
+		player.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testPushedUpdates() throws IOException, InterruptedException {
+		startServer(4466, null, 0, false);
+		playWatchedGame(4466);
+		startServer(4467, null, 1, false);
+		playWatchedGame(4467);
+	}
+
+	private static void playBatches(int port) throws IOException,
+			InterruptedException {
+		Socket socket = connect(port);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		// a batch is answered once; the partial line after it must not hold
+		// the answer back
+		out.print("dig 3 1; flag 0 0;flag 6 6\nloo");
+		out.flush();
+		assertBoard(in, "F - - - - - -", "- - - 1 - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - F");
+		out.print("k\nmode delta\ndeflag 0 0; deflag 6 6; dig 4 1; flag 1 1\n");
+		out.flush();
+		assertBoard(in, "F - - - - - -", "- - - 1 - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - F");
+		assertEquals("Mode set to delta.", TestUtil.nextNonEmptyLine(in));
+		// the bomb ends the batch, so 1 1 is not flagged but opened by the
+		// flood
+		assertEquals("BOOM!", TestUtil.nextNonEmptyLine(in));
+		out.println("look");
+		assertEquals("             ", TestUtil.nextNonEmptyLine(in));
+		assertEquals("             ", TestUtil.nextNonEmptyLine(in));
+		socket.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testBatches() throws IOException, InterruptedException {
+		startServer(4468, null, 0, false);
+		playBatches(4468);
+		startServer(4469, null, 1, false);
+		playBatches(4469);
+	}
+
+	private static void playBinaryGame(int port) throws IOException,
+			InterruptedException {
+		Socket socket = connect(port);
+		InputStream in = socket.getInputStream();
+		OutputStream out = socket.getOutputStream();
+		// skip the text welcome
+		while (in.read() != '\n') {
+		}
+
+		// dig 3 1 and look in one write; both boards are runs of untouched
+		// squares around the 1
+		out.write(new byte[] { (byte) BinaryProtocol.MAGIC, 0x02, 6, 2, 0x01 });
+		out.flush();
+		for (int board = 0; board < 2; board++) {
+			assertEquals(BinaryProtocol.BOARD, in.read());
+			assertEquals(7, in.read());
+			assertEquals(BinaryProtocol.RUN_LENGTH, in.read());
+			int[] runs = { 9, 10, 1, 1, 9, 38 };
+			for (int expected : runs) {
+				assertEquals(expected, in.read());
+			}
+		}
+
+		// an invalid request is answered, then the connection is closed
+		out.write(0x7f);
+		out.flush();
+		assertEquals(BinaryProtocol.MESSAGE, in.read());
+		int length = in.read();
+		byte[] message = new byte[length];
+		for (int i = 0; i < length; i++) {
+			message[i] = (byte) in.read();
+		}
+		assertTrue(new String(message, "UTF-8").startsWith("That wasn't"));
+		assertEquals(-1, in.read());
+		socket.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testBinaryProtocol() throws IOException, InterruptedException {
+		startServer(4470, null, 0, false);
+		playBinaryGame(4470);
+		startServer(4471, null, 1, false);
+		playBinaryGame(4471);
+	}
+
+	private static void playSeveralGames(int port) throws IOException,
+			InterruptedException {
+		Socket first = connect(port);
+		BufferedReader firstIn = new BufferedReader(new InputStreamReader(
+				first.getInputStream()));
+		PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(firstIn).startsWith("Welcome"));
+		Socket second = connect(port);
+		BufferedReader secondIn = new BufferedReader(new InputStreamReader(
+				second.getInputStream()));
+		PrintWriter secondOut = new PrintWriter(second.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(secondIn).startsWith("Welcome"));
+
+		// a flag in another game does not show in the default one
+		firstOut.print("join red\nflag 0 0\n");
+		firstOut.flush();
+		assertEquals("Joined game red. 1 people are playing including you.",
+				TestUtil.nextNonEmptyLine(firstIn));
+		assertTrue(TestUtil.nextNonEmptyLine(firstIn).startsWith("F "));
+		for (int row = 1; row < 7; row++) {
+			TestUtil.nextNonEmptyLine(firstIn);
+		}
+		secondOut.print("list\nlook\n");
+		secondOut.flush();
+		assertBoard(secondIn, "GAMES 2", "default 1", "red 1");
+		assertBoard(secondIn, "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -", "- - - - - - -",
+				"- - - - - - -", "- - - - - - -");
+
+		secondOut.println("join red");
+		assertEquals("Joined game red. 2 people are playing including you.",
+				TestUtil.nextNonEmptyLine(secondIn));
+		secondOut.println("join red");
+		assertEquals("Already in game red.", TestUtil.nextNonEmptyLine(secondIn));
+		firstOut.println("new");
+		assertTrue(TestUtil.nextNonEmptyLine(firstIn).matches(
+				"Joined game game\\d+\\. 1 people are playing including you\\."));
+		secondOut.println("join no way");
+		assertTrue(TestUtil.nextNonEmptyLine(secondIn).startsWith("That wasn't"));
+		first.close();
+		second.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testSeveralGames() throws IOException, InterruptedException {
+		startServer(4472, null, 0, false);
+		playSeveralGames(4472);
+		startServer(4473, null, 1, false);
+		playSeveralGames(4473);
+	}
+
+	@Test(timeout = 20000)
+	public void testSaveAndLoad() throws IOException, InterruptedException {
+		File saves = File.createTempFile("saves", "");
+		saves.delete();
+		startServer(new ServerOptions().debug(true).port(4474)
+				.file(publishedBoard()).saves(saves));
+		Socket socket = connect(4474);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		out.println("load mine");
+		assertEquals("No saved game mine.", TestUtil.nextNonEmptyLine(in));
+		out.println("flag 2 0");
+		assertEquals("- - F - - - -", TestUtil.nextNonEmptyLine(in));
+		for (int row = 1; row < 7; row++) {
+			TestUtil.nextNonEmptyLine(in);
+		}
+		out.println("save mine");
+		assertEquals("Saved game as mine.", TestUtil.nextNonEmptyLine(in));
+		assertTrue(new File(saves, "mine.board").isFile());
+
+		// the saved game is picked up in a new game, flag and all
+		out.println("load mine");
+		assertTrue(TestUtil.nextNonEmptyLine(in).matches(
+				"Joined game game\\d+\\. 1 people are playing including you\\."));
+		out.println("look");
+		assertBoard(in, "- - F - - - -");
+		socket.close();
+		for (File saved : saves.listFiles()) {
+			saved.delete();
+		}
+		saves.delete();
+	}
+
+	@Test(timeout = 20000)
+	public void testViewport() throws IOException, InterruptedException {
+		startServer(4475, null, 0, false);
+		Socket socket = connect(4475);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		out.println("status");
+		assertEquals("STATUS playing 47 2 0 0 0", TestUtil.nextNonEmptyLine(in));
+		out.println("look 3 0 3 2");
+		assertBoard(in, "- - -", "- - -");
+		out.println("view 3 0 3 3");
+		assertEquals("Viewport set to 3 0 3 3.", TestUtil.nextNonEmptyLine(in));
+		out.println("flag 4 1");
+		assertBoard(in, "- - -", "- F -", "- - -");
+		// only the changes inside the viewport
+		out.println("mode delta");
+		assertEquals("Mode set to delta.", TestUtil.nextNonEmptyLine(in));
+		out.println("dig 0 0");
+		// (4, 0) has no neighbor without bomb neighbors, so stays untouched
+		assertEquals("DELTA 7", TestUtil.nextNonEmptyLine(in));
+		for (int i = 0; i < 7; i++) {
+			assertTrue(TestUtil.nextNonEmptyLine(in).matches("[345] [012] 1"));
+		}
+		out.println("look");
+		assertBoard(in, "1 - 1", "1 F 1", "1 1 1");
+		out.println("status");
+		assertEquals("STATUS playing 1 2 1 1 0", TestUtil.nextNonEmptyLine(in));
+		out.println("dig 4 0");
+		assertEquals("DELTA 1", TestUtil.nextNonEmptyLine(in));
+		assertEquals("4 0 1", TestUtil.nextNonEmptyLine(in));
+		out.println("status");
+		assertEquals("STATUS won 0 2 1 1 0", TestUtil.nextNonEmptyLine(in));
+
+		out.println("look -1 5 2 2");
+		assertBoard(in, "1", "-");
+		out.println("view 0 0 0 5");
+		assertEquals("A window must be at least 1x1.",
+				TestUtil.nextNonEmptyLine(in));
+		out.println("view all");
+		assertEquals("Viewport cleared.", TestUtil.nextNonEmptyLine(in));
+		out.println("look");
+		assertBoard(in, "      1 1 1  ", "      1 F 1  ");
+		socket.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testProceduralBoard() throws IOException,
+			InterruptedException {
+		int size = 1000000;
+		startServer(new ServerOptions().debug(true).port(4476).size(size)
+				.seed(1234L).procedural(true));
+		MinesweeperBoard reference = MinesweeperBoard.procedural(size,
+				MinesweeperBoard.DEFAULT_DENSITY, 1234L);
+		Socket socket = connect(4476);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		// the default viewport
+		out.println("look");
+		List<String> rows = reference.look(0, 0, 80, 40);
+		assertBoard(in, rows.toArray(new String[rows.size()]));
+		out.println("view all");
+		assertEquals("A procedural board is too large to view all of.",
+				TestUtil.nextNonEmptyLine(in));
+		out.println("look 0 0 2000 1");
+		assertEquals("A window of a procedural board can be at most 1024"
+				+ " squares on a side.", TestUtil.nextNonEmptyLine(in));
+
+		out.println("view 500000 500000 3 3");
+		assertEquals("Viewport set to 500000 500000 3 3.",
+				TestUtil.nextNonEmptyLine(in));
+		out.println("flag 500001 500001");
+		reference.flag(500001, 500001, null);
+		rows = reference.look(500000, 500000, 3, 3);
+		assertBoard(in, rows.toArray(new String[rows.size()]));
+		out.println("status");
+		assertTrue(TestUtil.nextNonEmptyLine(in).matches(
+				"STATUS playing \\? \\? 1 [01] 0"));
+		socket.close();
+	}
+
+	/**
+	 * Starts a server of a procedural board on port, in NIO mode if
+	 * nioThreads is positive, and checks a binary client looks through the
+	 * default viewport rather than at the whole board.
+	 */
+	private static void lookAtProceduralBinary(int port, int nioThreads)
+			throws IOException, InterruptedException {
+		ServerOptions options = new ServerOptions().debug(true).port(port)
+				.size(1000000).seed(1234L).procedural(true);
+		if (nioThreads > 0) {
+			options.nioThreads(nioThreads);
+		}
+		startServer(options);
+		Socket socket = connect(port);
+		InputStream in = socket.getInputStream();
+		OutputStream out = socket.getOutputStream();
+		while (in.read() != '\n') {
+		}
+		out.write(new byte[] { (byte) BinaryProtocol.MAGIC,
+				BinaryProtocol.LOOK });
+		out.flush();
+		assertEquals(BinaryProtocol.WINDOW, in.read());
+		int[] window = { 0, 0, 80, 40 };
+		for (int expected : window) {
+			assertEquals(expected, in.read());
+		}
+		socket.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testProceduralBoardBinary() throws IOException,
+			InterruptedException {
+		lookAtProceduralBinary(4477, 0);
+		lookAtProceduralBinary(4478, 1);
+	}
+
+	@Test(timeout = 20000)
+	public void testThreadPerClientMode() throws IOException,
+			InterruptedException {
+		startServer(4460, null, 0, false);
+		playPublishedGame(4460);
+	}
+
+	@Test(timeout = 20000)
+	public void testNioMode() throws IOException, InterruptedException {
+		startServer(4461, null, 2, false);
+		playPublishedGame(4461);
+
+		// players are counted per connection
+		Socket first = connect(4461);
+		BufferedReader firstIn = new BufferedReader(new InputStreamReader(
+				first.getInputStream()));
+		assertTrue(TestUtil.nextNonEmptyLine(firstIn).contains(" 1 people"));
+		Socket second = connect(4461);
+		BufferedReader secondIn = new BufferedReader(new InputStreamReader(
+				second.getInputStream()));
+		assertTrue(TestUtil.nextNonEmptyLine(secondIn).contains(" 2 people"));
+		first.close();
+		second.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testVirtualThreadMode() throws IOException,
+			InterruptedException {
+		assumeTrue(MinesweeperServer.supportsVirtualThreads());
+		startServer(4462, null, 0, true);
+		playPublishedGame(4462);
+	}
+
+	@Test(timeout = 20000)
+	public void testNioLargeBoard() throws IOException, InterruptedException {
+		// 300 rows of 599 chars, far larger than the NIO board buffer
+		int size = 300;
+		startServer(4463, size, 1, false);
+		Socket socket = connect(4463);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		// several large responses queued at once, then a small one
+		out.print("look\nflag 0 0\nlook\nhelp\n");
+		out.flush();
+		String untouched = "-";
+		for (int i = 1; i < size; i++) {
+			untouched += " -";
+		}
+		String flagged = "F" + untouched.substring(1);
+		for (int board = 0; board < 3; board++) {
+			for (int row = 0; row < size; row++) {
+				String expected = row == 0 && board > 0 ? flagged : untouched;
+				assertEquals(expected, TestUtil.nextNonEmptyLine(in));
+			}
+		}
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Valid commands"));
+		socket.close();
+	}
+
+	@Test(timeout = 20000)
+	public void testNioPipelinedBinaryLooks() throws IOException,
+			InterruptedException {
+		// one-byte looks in one write, far more response than the NIO loop
+		// answers before sending
+		startServer(4479, null, 1, false);
+		Socket socket = connect(4479);
+		InputStream in = new BufferedInputStream(socket.getInputStream());
+		OutputStream out = socket.getOutputStream();
+		while (in.read() != '\n') {
+		}
+		int looks = 8000;
+		byte[] requests = new byte[looks + 1];
+		requests[0] = (byte) BinaryProtocol.MAGIC;
+		Arrays.fill(requests, 1, requests.length, (byte) BinaryProtocol.LOOK);
+		out.write(requests);
+		out.flush();
+		int[] board = { BinaryProtocol.BOARD, 7, BinaryProtocol.RUN_LENGTH,
+				BinaryProtocol.UNTOUCHED_CELL, 49 };
+		for (int look = 0; look < looks; look++) {
+			for (int expected : board) {
+				assertEquals(expected, in.read());
+			}
+		}
+		socket.close();
+	}
+}
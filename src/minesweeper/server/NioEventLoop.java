@@ -0,0 +1,482 @@
+package minesweeper.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import minesweeperclass.ChangeList;
+
+/**
+ * One event loop of a MinesweeperServer running in NIO mode. The loop owns a
+ * Selector and serves every connection handed to it with add(), reading lines
+ * from non-blocking SocketChannels and answering them through the server's
+ * handleCommand(), exactly as a thread-per-client connection would.
+ *
+ * Each connection keeps a read buffer, the bytes of the line being read and a
+ * queue of responses still to be written. Large boards are queued as row
+ * snapshots and encoded into a fixed-size buffer as the socket drains, so
+ * sending one costs a buffer rather than a copy of the board. While responses
+ * are queued the loop stops reading from that client, so a client that does
+ * not read its responses cannot make the server buffer without bound. For the
+ * same reason the loop stops answering the requests of one read once their
+ * responses fill RESPONSE_LIMIT_BYTES or a board is queued, and answers the
+ * rest once those responses are sent: a read of short requests, such as
+ * one-byte binary looks, would otherwise queue thousands of boards at once.
+ * 
+ * A client whose first byte is BinaryProtocol.MAGIC speaks the binary
+ * protocol from then on. Its requests are fed to a BinaryDecoder and its
+ * responses printed by a BinarySink; binary boards are a quarter of the size
+ * of text ones or less, and are built whole rather than streamed, so a
+ * binary client has at most one board built and waiting to be sent.
+ *
+ * Threadsafe argument: add() only touches a concurrent queue and wakes the
+ * selector; everything else runs on the loop's own thread, and connections
+ * are never shared between loops.
+ */
+class NioEventLoop implements Runnable {
+	private static final int READ_BUFFER_BYTES = 8192;
+	/**
+	 * Size of the buffer boards are encoded into. Boards that fit are printed
+	 * with the other responses instead.
+	 */
+	private static final int BOARD_BUFFER_BYTES = 16384;
+	/**
+	 * Bytes of responses after which the loop stops answering requests
+	 * until they are sent.
+	 */
+	private static final int RESPONSE_LIMIT_BYTES = 16384;
+
+	private final MinesweeperServer server;
+	private final Selector selector;
+	private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<SocketChannel>();
+	/**
+	 * Connections whose subscriptions have updates ready.
+	 */
+	private final Queue<Connection> updated = new ConcurrentLinkedQueue<Connection>();
+	private final Charset charset = Charset.defaultCharset();
+	private final byte[] lineTerminator = System.getProperty("line.separator")
+			.getBytes(charset);
+
+	/**
+	 * A queued response: either bytes, or a board still to be encoded.
+	 */
+	private static final class Outgoing {
+		private final ByteBuffer bytes;
+		private final List<String> board;
+		private boolean started = false;
+
+		private Outgoing(ByteBuffer bytes, List<String> board) {
+			this.bytes = bytes;
+			this.board = board;
+		}
+	}
+
+	/**
+	 * State of one client connection.
+	 */
+	private final class Connection implements ResponseSink {
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private final ByteBuffer readBuffer = ByteBuffer
+				.allocate(READ_BUFFER_BYTES);
+		private final LineAssembler lines = new LineAssembler();
+		private final Queue<Outgoing> pending = new ArrayDeque<Outgoing>();
+		private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+		private final PrintWriter out = new PrintWriter(new OutputStreamWriter(
+				response, charset));
+		private final PrintWriterSink text = new PrintWriterSink(out);
+		private final Runnable updatesReady = new Runnable() {
+			public void run() {
+				updatesReady(Connection.this);
+			}
+		};
+		/** Replaced by a binary session if the client speaks binary. */
+		private ClientSession session = new ClientSession(this, updatesReady);
+		/** True once the first byte from the client has been seen. */
+		private boolean protocolKnown = false;
+		/** Decoder of binary requests, null for a text client. */
+		private BinaryDecoder decoder;
+		/** Encoder and buffer for the board at the head of pending. */
+		private BoardEncoder encoder;
+		private ByteBuffer boardBuffer;
+		private boolean boardEncoded;
+		private boolean closing = false;
+		private boolean closed = false;
+
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+			// nothing read yet
+			readBuffer.flip();
+		}
+
+		public void println(String message) {
+			text.println(message);
+		}
+
+		public void printBoom() {
+			text.printBoom();
+		}
+
+		public void printChanges(String kind, ChangeList changes) {
+			// bounded by the server's delta limit
+			text.printChanges(kind, changes);
+		}
+
+		public void flush() {
+			// the loop sends the responses to everything read at once
+		}
+
+		public void printResync(List<String> rows) {
+			out.write("RESYNC\r\n");
+			printBoard(rows);
+		}
+
+		public void printWindow(int left, int top, List<String> rows) {
+			printBoard(rows);
+		}
+
+		public void printResyncWindow(int left, int top, List<String> rows) {
+			printResync(rows);
+		}
+
+		public void printBoard(List<String> rows) {
+			long length = 0;
+			for (int i = 0; i < rows.size() && length < BOARD_BUFFER_BYTES; i++) {
+				length += rows.get(i).length() + 2;
+			}
+			if (length < BOARD_BUFFER_BYTES) {
+				// small enough to send along with the other responses
+				text.printBoard(rows);
+				return;
+			}
+			queueResponse();
+			pending.add(new Outgoing(null, rows));
+		}
+
+		/**
+		 * @return true if enough responses are waiting to be sent that no
+		 *         more requests should be answered until they are
+		 */
+		private boolean backlogged() {
+			return !pending.isEmpty()
+					|| response.size() >= RESPONSE_LIMIT_BYTES;
+		}
+
+		/**
+		 * Queue everything printed so far.
+		 */
+		private void queueResponse() {
+			session.out.flush();
+			out.flush();
+			if (response.size() > 0) {
+				pending.add(new Outgoing(ByteBuffer.wrap(response.toByteArray()),
+						null));
+				response.reset();
+			}
+		}
+	}
+
+	NioEventLoop(MinesweeperServer server) throws IOException {
+		this.server = server;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Hand a newly accepted connection to this loop. May be called from any
+	 * thread.
+	 *
+	 * @param channel
+	 *            connected channel in non-blocking mode
+	 */
+	void add(SocketChannel channel) {
+		added.add(channel);
+		selector.wakeup();
+	}
+
+	/**
+	 * Have the loop deliver the connection's subscription updates. May be
+	 * called from any thread, and does not block.
+	 */
+	private void updatesReady(Connection connection) {
+		updated.add(connection);
+		selector.wakeup();
+	}
+
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				// the selector itself is broken, nothing left to serve
+				e.printStackTrace();
+				return;
+			}
+			for (SocketChannel channel = added.poll(); channel != null; channel = added
+					.poll()) {
+				register(channel);
+			}
+			for (Connection connection = updated.poll(); connection != null; connection = updated
+					.poll()) {
+				if (!connection.closed && connection.pending.isEmpty()) {
+					// otherwise they go out once the pending responses have
+					try {
+						write(connection.key, connection);
+					} catch (IOException e) {
+						e.printStackTrace();
+						close(connection.key, connection);
+					}
+				}
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Connection connection = (Connection) key.attachment();
+				try {
+					if (key.isReadable()) {
+						read(key, connection);
+					}
+					if (key.isValid() && key.isWritable()) {
+						write(key, connection);
+					}
+				} catch (IOException e) {
+					// print exception, don't terminate other clients
+					e.printStackTrace();
+					close(key, connection);
+				}
+			}
+		}
+	}
+
+	private void register(SocketChannel channel) {
+		Connection connection = new Connection(channel);
+		SelectionKey key;
+		try {
+			key = channel.register(selector, SelectionKey.OP_READ, connection);
+		} catch (ClosedChannelException e) {
+			return;
+		}
+		connection.key = key;
+		connection.out.println(server.connect(connection.session));
+		try {
+			flushResponse(key, connection);
+		} catch (IOException e) {
+			e.printStackTrace();
+			close(key, connection);
+		}
+	}
+
+	/**
+	 * Read whatever the client sent and answer the requests in it.
+	 */
+	private void read(SelectionKey key, Connection connection)
+			throws IOException {
+		ByteBuffer buffer = connection.readBuffer;
+		buffer.clear();
+		int count = connection.channel.read(buffer);
+		if (count < 0) {
+			close(key, connection);
+			return;
+		}
+		buffer.flip();
+		if (!connection.protocolKnown && buffer.hasRemaining()) {
+			connection.protocolKnown = true;
+			if ((buffer.get(0) & 0xff) == BinaryProtocol.MAGIC) {
+				buffer.get();
+				connection.decoder = new BinaryDecoder();
+				ClientSession text = connection.session;
+				connection.session = new ClientSession(new BinarySink(
+						connection.response), connection.updatesReady);
+				connection.session.takeOver(text);
+			}
+		}
+		flushResponse(key, connection);
+	}
+
+	/**
+	 * Answer requests left in the connection's read buffer until it is used
+	 * up or the connection is backlogged.
+	 */
+	private void answerRequests(Connection connection) {
+		ByteBuffer buffer = connection.readBuffer;
+		if (connection.decoder != null) {
+			readBinary(buffer, connection);
+		} else {
+			readText(buffer, connection);
+		}
+	}
+
+	/**
+	 * Answer every line completed by the bytes in buffer.
+	 */
+	private void readText(ByteBuffer buffer, Connection connection) {
+		while (buffer.hasRemaining() && !connection.closing
+				&& !connection.backlogged()) {
+			if (connection.lines.feed(buffer.get())) {
+				lineEnded(connection);
+			}
+		}
+	}
+
+	/**
+	 * Answer every binary request completed by the bytes in buffer.
+	 */
+	private void readBinary(ByteBuffer buffer, Connection connection) {
+		while (buffer.hasRemaining() && !connection.closing
+				&& !connection.backlogged()) {
+			if (connection.decoder.feed(buffer.get())) {
+				Command command = connection.decoder.command();
+				// after a bad request the stream cannot be framed any more
+				if (!server.handleCommand(command, connection.session)
+						|| command == null) {
+					connection.closing = true;
+				}
+			}
+		}
+	}
+
+	private void lineEnded(Connection connection) {
+		Command command;
+		if (connection.lines.lineTooLong()) {
+			// no command is this long; answer like any other invalid line
+			command = null;
+		} else {
+			// commands are ASCII, so parse the bytes without decoding them
+			command = Command.parse(connection.lines.line());
+		}
+		if (!server.handleCommand(command, connection.session)) {
+			connection.closing = true;
+		}
+	}
+
+	/**
+	 * Queue everything printed to the connection so far and try to send it,
+	 * answering any requests left from the last read as it goes.
+	 */
+	private void flushResponse(SelectionKey key, Connection connection)
+			throws IOException {
+		connection.queueResponse();
+		write(key, connection);
+	}
+
+	/**
+	 * Write queued responses, then any subscription updates, until they are
+	 * all sent or the socket buffer is full, and choose what to wait for next.
+	 * Updates are only taken once everything before them is sent, so a slow
+	 * client's updates pile up, coalesced and bounded, in its subscription.
+	 * Requests left unanswered in the read buffer are answered once
+	 * everything queued is sent, and only then is the client read again.
+	 */
+	private void write(SelectionKey key, Connection connection)
+			throws IOException {
+		Queue<Outgoing> pending = connection.pending;
+		while (true) {
+			while (!pending.isEmpty() || takeUpdates(connection)) {
+				Outgoing next = pending.peek();
+				boolean sent;
+				if (next.bytes != null) {
+					connection.channel.write(next.bytes);
+					sent = !next.bytes.hasRemaining();
+				} else {
+					sent = writeBoard(connection, next);
+				}
+				if (!sent) {
+					// socket buffer is full; stop reading until the client
+					// catches up
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				pending.remove();
+			}
+			if (connection.closing || !connection.readBuffer.hasRemaining()) {
+				break;
+			}
+			answerRequests(connection);
+			connection.queueResponse();
+		}
+		if (connection.closing) {
+			close(key, connection);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Queue the subscription updates waiting for the connection, if any.
+	 * 
+	 * @return true if anything was queued
+	 */
+	private boolean takeUpdates(Connection connection) {
+		Subscription subscription = connection.session.subscription;
+		if (connection.closing || subscription == null
+				|| !subscription.hasUpdates()) {
+			return false;
+		}
+		server.deliverUpdates(connection.session);
+		connection.queueResponse();
+		return !connection.pending.isEmpty();
+	}
+
+	/**
+	 * Encode and write board until it is all sent or the socket buffer is
+	 * full.
+	 * 
+	 * @return true if the whole board has been sent
+	 */
+	private boolean writeBoard(Connection connection, Outgoing board)
+			throws IOException {
+		ByteBuffer buffer = connection.boardBuffer;
+		if (buffer == null) {
+			buffer = connection.boardBuffer = ByteBuffer
+					.allocate(BOARD_BUFFER_BYTES);
+			connection.encoder = new BoardEncoder(lineTerminator);
+		}
+		if (!board.started) {
+			board.started = true;
+			connection.encoder.reset(board.board);
+			connection.boardEncoded = false;
+			buffer.clear();
+			buffer.flip();
+		}
+		while (true) {
+			if (!buffer.hasRemaining()) {
+				if (connection.boardEncoded) {
+					return true;
+				}
+				buffer.clear();
+				connection.boardEncoded = connection.encoder.encode(buffer);
+				buffer.flip();
+			}
+			connection.channel.write(buffer);
+			if (buffer.hasRemaining()) {
+				return false;
+			}
+		}
+	}
+
+	private void close(SelectionKey key, Connection connection) {
+		if (connection.closed) {
+			return;
+		}
+		connection.closed = true;
+		key.cancel();
+		server.disconnect(connection.session);
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
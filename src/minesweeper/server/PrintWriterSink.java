@@ -0,0 +1,104 @@
+package minesweeper.server;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeperclass.ChangeList;
+
+/**
+ * A ResponseSink printing to a PrintWriter. Boards are written a row at a
+ * time through the writer's buffer rather than built into one string.
+ * 
+ * Threadsafe: each response is printed holding lock, so the thread answering
+ * commands and the thread pushing updates can share a sink. It is a
+ * ReentrantLock rather than a monitor because it is held while writing to a
+ * socket, which must not pin a virtual thread's carrier.
+ */
+class PrintWriterSink implements ResponseSink {
+	private final PrintWriter out;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	PrintWriterSink(PrintWriter out) {
+		this.out = out;
+	}
+
+	public void println(String message) {
+		lock.lock();
+		try {
+			out.println(message);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printBoom() {
+		println("BOOM!\r\n");
+	}
+
+	public void printBoard(List<String> rows) {
+		lock.lock();
+		try {
+			writeBoard(rows);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printResync(List<String> rows) {
+		lock.lock();
+		try {
+			out.write("RESYNC\r\n");
+			writeBoard(rows);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void printWindow(int left, int top, List<String> rows) {
+		// a text client knows which window it asked for
+		printBoard(rows);
+	}
+
+	public void printResyncWindow(int left, int top, List<String> rows) {
+		printResync(rows);
+	}
+
+	public void flush() {
+		lock.lock();
+		try {
+			out.flush();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeBoard(List<String> rows) {
+		for (int i = 0; i < rows.size(); i++) {
+			out.write(rows.get(i));
+			out.write("\r\n");
+		}
+		out.println();
+	}
+
+	public void printChanges(String kind, ChangeList changes) {
+		lock.lock();
+		try {
+			out.write(kind);
+			out.write(' ');
+			out.print(changes.size());
+			out.write("\r\n");
+			for (int i = 0; i < changes.size(); i++) {
+				out.print(changes.getX(i));
+				out.write(' ');
+				out.print(changes.getY(i));
+				out.write(' ');
+				out.write(changes.getGlyph(i));
+				out.write("\r\n");
+			}
+			out.println();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
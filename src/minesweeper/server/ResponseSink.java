@@ -0,0 +1,81 @@
+package minesweeper.server;
+
+import java.util.List;
+
+import minesweeperclass.ChangeList;
+
+/**
+ * Where the responses to one client are printed. Boards are handed over as
+ * row snapshots rather than as one big string, so each serving mode can
+ * stream them to its socket row by row. Each call prints one whole response;
+ * a sink shared with a thread pushing updates must not interleave them.
+ */
+interface ResponseSink {
+	/**
+	 * Print message followed by a line terminator.
+	 */
+	void println(String message);
+
+	/**
+	 * Print the response to digging a bomb: the line "BOOM!" followed by
+	 * "\r\n", then a line terminator.
+	 */
+	void printBoom();
+
+	/**
+	 * Print each row followed by "\r\n", then a line terminator.
+	 * 
+	 * @param rows
+	 *            immutable snapshot of the board rows, which the sink may keep
+	 *            and print later
+	 */
+	void printBoard(List<String> rows);
+
+	/**
+	 * Print a list of changes: the line "KIND n", where KIND is kind and n is
+	 * the number of changes, then one line "x y G" per change, where G is the
+	 * glyph the square now shows, each followed by "\r\n", then a line
+	 * terminator.
+	 * 
+	 * @param kind
+	 *            "DELTA" for a delta response, "UPDATE" for pushed changes
+	 * @param changes
+	 *            changes to print, which must not have overflowed; the sink
+	 *            must be done with them when this returns
+	 */
+	void printChanges(String kind, ChangeList changes);
+
+	/**
+	 * Print the line "RESYNC" followed by "\r\n", then the board as
+	 * printBoard() does, as one response.
+	 */
+	void printResync(List<String> rows);
+
+	/**
+	 * Print the rows of a window of the board, as printBoard() prints the
+	 * rows of the whole board.
+	 * 
+	 * @param left
+	 *            column of the leftmost square of each row
+	 * @param top
+	 *            row of the board shown by the first row
+	 * @param rows
+	 *            immutable snapshot of the window's rows, all the same length,
+	 *            which the sink may keep and print later; empty if the
+	 *            window is off the board
+	 */
+	void printWindow(int left, int top, List<String> rows);
+
+	/**
+	 * Print the line "RESYNC" followed by "\r\n", then the window as
+	 * printWindow() does, as one response.
+	 */
+	void printResyncWindow(int left, int top, List<String> rows);
+
+	/**
+	 * Send everything printed so far. Responses may be held back until then,
+	 * so that the responses to several commands go out together; sinks that
+	 * decide for themselves when to send may do nothing.
+	 */
+	void flush();
+}
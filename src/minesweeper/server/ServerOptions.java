@@ -0,0 +1,170 @@
+package minesweeper.server;
+
+import java.io.File;
+
+import minesweeperclass.MinesweeperBoard;
+
+/**
+ * How MinesweeperServer.runMinesweeperServer() starts a server: the
+ * starting board, where it is kept, and how clients are served. Each
+ * setter matches one command line argument of MinesweeperServer.main(),
+ * which documents it, and returns these options so they can be chained.
+ * Options that cannot be given together behave like the arguments: the
+ * last one set wins.
+ *
+ * Not threadsafe: fill in the options, then start the server with them.
+ */
+public class ServerOptions {
+	boolean debug = false;
+	int port = 4444;
+	/** Size of a random starting board, or null to load file. */
+	Integer size = 10;
+	/** File to load the starting board from, or null for a random board. */
+	File file = null;
+	Long mines = null;
+	Long seed = null;
+	boolean procedural = false;
+	File snapshot = null;
+	File log = null;
+	File saves = null;
+	/** Number of event loop threads, or 0 for a thread per client. */
+	int nioThreads = 0;
+	boolean virtualThreads = false;
+
+	/**
+	 * @param debug
+	 *            true if the server should not disconnect a client after a
+	 *            BOOM message
+	 */
+	public ServerOptions debug(boolean debug) {
+		this.debug = debug;
+		return this;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if port is not between 0 and 65535
+	 */
+	public ServerOptions port(int port) {
+		if (port < 0 || port > 65535) {
+			throw new IllegalArgumentException("port " + port
+					+ " out of range");
+		}
+		this.port = port;
+		return this;
+	}
+
+	/**
+	 * Start with a random board of size * size squares.
+	 */
+	public ServerOptions size(int size) {
+		this.size = size;
+		file = null;
+		return this;
+	}
+
+	/**
+	 * Start with the board loaded from file.
+	 */
+	public ServerOptions file(File file) {
+		this.file = file;
+		size = null;
+		return this;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if mines is negative
+	 */
+	public ServerOptions mines(long mines) {
+		if (mines < 0) {
+			throw new IllegalArgumentException(
+					"cannot place a negative number of mines");
+		}
+		this.mines = mines;
+		return this;
+	}
+
+	public ServerOptions seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public ServerOptions procedural(boolean procedural) {
+		this.procedural = procedural;
+		return this;
+	}
+
+	public ServerOptions snapshot(File snapshot) {
+		this.snapshot = snapshot;
+		log = null;
+		return this;
+	}
+
+	public ServerOptions log(File log) {
+		this.log = log;
+		snapshot = null;
+		return this;
+	}
+
+	public ServerOptions saves(File saves) {
+		this.saves = saves;
+		return this;
+	}
+
+	/**
+	 * Serve clients from nioThreads event loop threads.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if nioThreads < 1
+	 */
+	public ServerOptions nioThreads(int nioThreads) {
+		if (nioThreads < 1) {
+			throw new IllegalArgumentException(
+					"need at least one event loop thread");
+		}
+		this.nioThreads = nioThreads;
+		virtualThreads = false;
+		return this;
+	}
+
+	/**
+	 * Handle each client on its own virtual thread.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the running Java has no virtual threads
+	 */
+	public ServerOptions virtualThreads() {
+		if (!MinesweeperServer.supportsVirtualThreads()) {
+			throw new IllegalArgumentException(
+					"virtual threads need Java 21 or later");
+		}
+		virtualThreads = true;
+		nioThreads = 0;
+		return this;
+	}
+
+	/**
+	 * Check the options that depend on each other.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if they cannot be used together
+	 */
+	void validate() {
+		if (size != null && mines != null && mines > (long) size * size) {
+			throw new IllegalArgumentException("cannot place " + mines
+					+ " mines on a board of size " + size);
+		}
+		if (procedural && (size == null || mines != null || snapshot != null
+				|| log != null)) {
+			throw new IllegalArgumentException(
+					"--procedural needs --size and cannot be given with --file, --mines, --snapshot or --log");
+		}
+		if (procedural && size > MinesweeperBoard.MAX_PROCEDURAL_SIZE) {
+			throw new IllegalArgumentException(
+					"a procedural board can be at most "
+							+ MinesweeperBoard.MAX_PROCEDURAL_SIZE
+							+ " squares on a side");
+		}
+	}
+}
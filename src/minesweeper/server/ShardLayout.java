@@ -0,0 +1,201 @@
+package minesweeper.server;
+
+import minesweeperclass.BoardGenerator;
+
+/**
+ * How a size x size board is split into shards: a grid of columns x rows
+ * rectangles, as even as possible, so widths and heights differ by at most
+ * one square. Shards are numbered row by row from the top left, starting at
+ * 0. Squares are addressed by their coordinates on the whole board.
+ *
+ * Every shard also keeps copies of the squares within HALO of its rectangle
+ * (see ShardServer). The squares next to the rectangle are its inner halo,
+ * the ones beyond those its outer halo.
+ *
+ * Which squares hold bombs is a pure function of the seed and the square's
+ * coordinates, so every shard can work out the bombs of its rectangle and
+ * halo without talking to the others, and any process can build the same
+ * board from the same seed.
+ *
+ * Immutable.
+ */
+final class ShardLayout {
+	/** How far around its rectangle a shard keeps copies of squares. */
+	static final int HALO = 2;
+
+	final int size;
+	final int columns;
+	final int rows;
+	final long seed;
+
+	/**
+	 * @param size
+	 *            squares along each side of the whole board
+	 * @param columns
+	 *            shards across, requires 1 <= columns <= size
+	 * @param rows
+	 *            shards down, requires 1 <= rows <= size
+	 * @param seed
+	 *            seed choosing the bombs
+	 * @throws IllegalArgumentException
+	 *             if the grid of shards does not fit the board
+	 */
+	ShardLayout(int size, int columns, int rows, long seed) {
+		if (size < 1 || columns < 1 || rows < 1 || columns > size
+				|| rows > size) {
+			throw new IllegalArgumentException("cannot split a board of size "
+					+ size + " into " + columns + "x" + rows + " shards");
+		}
+		this.size = size;
+		this.columns = columns;
+		this.rows = rows;
+		this.seed = seed;
+	}
+
+	int shards() {
+		return columns * rows;
+	}
+
+	/** @return x of the leftmost column of shard */
+	int left(int shard) {
+		return edge(shard % columns, columns);
+	}
+
+	/** @return x just past the rightmost column of shard */
+	int right(int shard) {
+		return edge(shard % columns + 1, columns);
+	}
+
+	/** @return y of the top row of shard */
+	int top(int shard) {
+		return edge(shard / columns, rows);
+	}
+
+	/** @return y just past the bottom row of shard */
+	int bottom(int shard) {
+		return edge(shard / columns + 1, rows);
+	}
+
+	/**
+	 * @return where part i of parts starts along a side of the board
+	 */
+	private int edge(int i, int parts) {
+		return (int) ((long) i * size / parts);
+	}
+
+	/**
+	 * @return the part of parts that holds coordinate z, which must be on
+	 *         the board
+	 */
+	private int partOf(int z, int parts) {
+		// the last part starting at or before z
+		return (int) ((((long) z + 1) * parts - 1) / size);
+	}
+
+	boolean isOnBoard(int x, int y) {
+		return x >= 0 && x < size && y >= 0 && y < size;
+	}
+
+	/**
+	 * @return the shard owning the square at (x, y), which must be on the
+	 *         board
+	 */
+	int shardAt(int x, int y) {
+		return partOf(y, rows) * columns + partOf(x, columns);
+	}
+
+	/**
+	 * @return the shards other than its owner that keep a copy of the square
+	 *         at (x, y), which must be on the board
+	 */
+	int[] holders(int x, int y) {
+		int owner = shardAt(x, y);
+		int firstColumn = partOf(Math.max(x - HALO, 0), columns);
+		int lastColumn = partOf(Math.min(x + HALO, size - 1), columns);
+		int firstRow = partOf(Math.max(y - HALO, 0), rows);
+		int lastRow = partOf(Math.min(y + HALO, size - 1), rows);
+		int[] holders = new int[(lastColumn - firstColumn + 1)
+				* (lastRow - firstRow + 1) - 1];
+		int count = 0;
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				int shard = row * columns + column;
+				if (shard != owner) {
+					holders[count++] = shard;
+				}
+			}
+		}
+		return holders;
+	}
+
+	/**
+	 * @return true if the square at (x, y), which must be on the board,
+	 *         starts with a bomb. About a quarter of the squares do, like a
+	 *         random MinesweeperBoard.
+	 */
+	boolean isBomb(int x, int y) {
+		// the top two bits of the hash of the seed and the square
+		long square = ((long) y << 32) | (x & 0xffffffffL);
+		long hash = BoardGenerator.mix(seed + square * 0x9e3779b97f4a7c15L);
+		return hash >>> 62 == 0;
+	}
+
+	/**
+	 * Lay out the squares of a shard's board: a square grid of side the
+	 * larger of the shard's width and height plus twice HALO, holding the
+	 * shard's rectangle offset by HALO in both directions.
+	 *
+	 * The rectangle and the inner halo start untouched or with a bomb, like
+	 * any board. The outer halo is flagged, bomb or not, so that floods never
+	 * open it but it still counts towards its neighbors; with the whole of
+	 * their neighborhoods on the board, the squares of the inner halo show
+	 * the same counts they have on their own shard. Squares outside the halo
+	 * or off the whole board are flagged and hold no bomb.
+	 *
+	 * @return the squares, in the form MinesweeperBoard(char[][]) takes
+	 */
+	char[][] squares(int shard) {
+		int left = left(shard);
+		int top = top(shard);
+		int right = right(shard);
+		int bottom = bottom(shard);
+		int side = Math.max(right - left, bottom - top) + 2 * HALO;
+		char[][] squares = new char[side][side];
+		for (int j = 0; j < side; j++) {
+			int y = top + j - HALO;
+			for (int i = 0; i < side; i++) {
+				int x = left + i - HALO;
+				boolean inHalo = x < right + HALO && y < bottom + HALO;
+				boolean inner = x >= left - 1 && x <= right && y >= top - 1
+						&& y <= bottom;
+				if (!inHalo || !isOnBoard(x, y)) {
+					squares[j][i] = 'F';
+				} else if (inner) {
+					squares[j][i] = isBomb(x, y) ? 'B' : '-';
+				} else {
+					squares[j][i] = isBomb(x, y) ? 'C' : 'F';
+				}
+			}
+		}
+		return squares;
+	}
+
+	/**
+	 * Parse a shard grid given as COLUMNSxROWS, e.g. "2x3".
+	 *
+	 * @throws IllegalArgumentException
+	 *             if grid is not of that form
+	 */
+	static int[] parseGrid(String grid) {
+		int times = grid.indexOf('x');
+		if (times < 0) {
+			throw new IllegalArgumentException("shard grid must be COLUMNSxROWS");
+		}
+		try {
+			return new int[] { Integer.parseInt(grid.substring(0, times)),
+					Integer.parseInt(grid.substring(times + 1)) };
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("shard grid must be COLUMNSxROWS");
+		}
+	}
+}
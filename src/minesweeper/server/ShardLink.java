@@ -0,0 +1,125 @@
+package minesweeper.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import minesweeperclass.ChangeList;
+import minesweeperclass.MoveList;
+
+/**
+ * A router's connection to one ShardServer. Requests are pipelined: any
+ * number can be sent before flush(), and their replies are then read in the
+ * order the requests were sent.
+ *
+ * Not threadsafe: a link is confined to the thread serving one client.
+ */
+final class ShardLink implements Closeable {
+	private final Socket socket;
+	private final LineReader in;
+	private final PrintWriter out;
+
+	ShardLink(InetSocketAddress address) throws IOException {
+		socket = new Socket(address.getAddress(), address.getPort());
+		in = new LineReader(socket.getInputStream());
+		out = new PrintWriter(socket.getOutputStream(), false);
+	}
+
+	void send(String request) {
+		out.print(request);
+		out.print("\r\n");
+	}
+
+	void flush() {
+		out.flush();
+	}
+
+	/**
+	 * Read the reply to a look.
+	 *
+	 * @return the shard's rows
+	 */
+	List<String> readRows() throws IOException {
+		int count = readCount("ROWS ");
+		List<String> rows = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			rows.add(readLine().toString());
+		}
+		return rows;
+	}
+
+	/**
+	 * Read the reply to a move.
+	 *
+	 * @param changes
+	 *            list to add the squares that changed to
+	 * @param continuations
+	 *            list to add a dig of each square the move opened a copy of
+	 *            to
+	 * @return true if the move dug a bomb
+	 */
+	boolean readMove(ChangeList changes, MoveList continuations)
+			throws IOException {
+		int count = readCount("CHANGES ");
+		for (int i = 0; i < count; i++) {
+			String[] change = readLine().toString().split(" ", 3);
+			if (change.length != 3 || change[2].length() != 1) {
+				throw badReply();
+			}
+			changes.add(parse(change[0]), parse(change[1]),
+					change[2].charAt(0));
+		}
+		count = readCount("CONTINUE ");
+		for (int i = 0; i < count; i++) {
+			String[] square = readLine().toString().split(" ", 2);
+			if (square.length != 2) {
+				throw badReply();
+			}
+			continuations.add(MoveList.Kind.DIG, parse(square[0]),
+					parse(square[1]));
+		}
+		String result = readLine().toString();
+		if (result.equals("BOOM")) {
+			return true;
+		} else if (result.equals("OK")) {
+			return false;
+		}
+		throw badReply();
+	}
+
+	private AsciiLine readLine() throws IOException {
+		AsciiLine line = in.readLine();
+		if (line == null) {
+			throw new IOException("shard closed the connection");
+		}
+		return line;
+	}
+
+	private int readCount(String prefix) throws IOException {
+		String line = readLine().toString();
+		if (!line.startsWith(prefix)) {
+			throw badReply();
+		}
+		return parse(line.substring(prefix.length()));
+	}
+
+	private int parse(String number) throws IOException {
+		try {
+			return Integer.parseInt(number);
+		} catch (NumberFormatException e) {
+			throw badReply();
+		}
+	}
+
+	private IOException badReply() {
+		return new IOException("unexpected reply from shard");
+	}
+
+	public void close() throws IOException {
+		socket.close();
+	}
+}
@@ -0,0 +1,430 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import minesweeperclass.ChangeList;
+import minesweeperclass.MinesweeperBoard;
+import minesweeperclass.MoveList;
+
+/**
+ * Front end of a board split into shards, each served by a ShardServer,
+ * usually in a process of its own. Clients connect to the router and speak
+ * the text protocol of MinesweeperServer; the router forwards every move to
+ * the shard owning the square, and answers a look by putting together the
+ * rows of every shard.
+ *
+ * A flood that reaches the edge of a shard opens the copies of the
+ * neighboring squares the shard keeps, and the shard reports them as
+ * continuations. The router digs each on the shard that owns it, which
+ * carries the flood on, maybe reporting more continuations. Every change to
+ * a square near the edge of a shard is copied to the shards holding copies
+ * of it before any further continuation is dug, so shards see the same
+ * bombs, dug squares and flags around their edges as their neighbors. A
+ * move is answered once all of its continuations are done, so a client
+ * sees the board exactly as one MinesweeperBoard would show it after the
+ * same moves; but a move spanning shards is not atomic, and another client
+ * may see its flood half done.
+ *
+ * Subscriptions, games and the binary protocol are not available through
+ * the router.
+ *
+ * Threadsafe argument: every client is handled on its own thread, with its
+ * own connections to the shards, and the shards are threadsafe.
+ */
+public class ShardRouter {
+	private final ServerSocket serverSocket;
+	private final ShardLayout layout;
+	private final InetSocketAddress[] shards;
+	/**
+	 * True if the router should _not_ disconnect a client after a BOOM
+	 * message.
+	 */
+	private final boolean debug;
+	private final AtomicInteger players = new AtomicInteger();
+	/** Most changes sent as a delta response, as in MinesweeperServer. */
+	private final int maxDeltaChanges;
+
+	/**
+	 * Make a ShardRouter that listens for clients on port.
+	 *
+	 * @param shards
+	 *            addresses of the shard servers, in shard order, requires
+	 *            shards.length == layout.shards()
+	 */
+	public ShardRouter(ShardLayout layout, InetSocketAddress[] shards,
+			int port, boolean debug) throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(port));
+		this.layout = layout;
+		this.shards = shards.clone();
+		this.debug = debug;
+		maxDeltaChanges = MinesweeperBoard.maxListedChanges(layout.size);
+	}
+
+	/**
+	 * Serve clients, each on its own thread. Never returns unless an
+	 * exception is thrown.
+	 *
+	 * @throws IOException
+	 *             if the main server socket is broken (IOExceptions from
+	 *             individual clients do *not* terminate serve())
+	 */
+	public void serve() throws IOException {
+		while (true) {
+			final Socket socket = serverSocket.accept();
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						handleConnection(socket);
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						try {
+							socket.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}).start();
+		}
+	}
+
+	private void handleConnection(Socket socket) throws IOException {
+		LineReader in = new LineReader(socket.getInputStream());
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), false);
+		out.println("Welcome to Minesweeper. " + players.incrementAndGet()
+				+ " people are playing including you. Type 'help' for help.");
+		out.flush();
+		Session session = new Session(new PrintWriterSink(out));
+		try {
+			for (AsciiLine line = in.readLine(); line != null; line = in
+					.readLine()) {
+				Command command = in.lineTooLong() ? null : Command
+						.parse(line);
+				if (!session.handleCommand(command)) {
+					break;
+				}
+				if (!in.hasLine()) {
+					out.flush();
+				}
+			}
+		} finally {
+			out.flush();
+			players.decrementAndGet();
+			session.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * One client: its connections to the shards, opened when first needed,
+	 * and the work space of its moves.
+	 */
+	private final class Session {
+		private final ResponseSink out;
+		private final ShardLink[] links = new ShardLink[shards.length];
+		private boolean delta = false;
+		/** Changes made by the current command, on every shard. */
+		private final ChangeList changes = new ChangeList();
+		/** Continuations of the current command not yet dug. */
+		private final MoveList continuations = new MoveList();
+		/** Shards with copy requests sent but not yet answered. */
+		private final boolean[] copying = new boolean[shards.length];
+
+		private Session(ResponseSink out) {
+			this.out = out;
+		}
+
+		private ShardLink link(int shard) throws IOException {
+			if (links[shard] == null) {
+				links[shard] = new ShardLink(shards[shard]);
+			}
+			return links[shard];
+		}
+
+		/**
+		 * Perform a command like MinesweeperServer.handleCommand().
+		 *
+		 * @return false if the client should be disconnected
+		 */
+		private boolean handleCommand(Command command) throws IOException {
+			if (command == null) {
+				out.println("That wasn't a correct command! Type 'help' for a list of commands.");
+				return true;
+			}
+			changes.clear();
+			switch (command.type) {
+			case LOOK:
+				out.printBoard(look());
+				return true;
+			case DIG:
+				if (dig(command.x, command.y)) {
+					return boom();
+				}
+				return answerMove();
+			case FLAG:
+			case DEFLAG:
+				mark(command.type, command.x, command.y);
+				return answerMove();
+			case BATCH:
+				MoveList moves = command.moves;
+				for (int i = 0; i < moves.size(); i++) {
+					switch (moves.getKind(i)) {
+					case DIG:
+						if (dig(moves.getX(i), moves.getY(i))) {
+							return boom();
+						}
+						break;
+					case FLAG:
+						mark(Command.Type.FLAG, moves.getX(i), moves.getY(i));
+						break;
+					case DEFLAG:
+						mark(Command.Type.DEFLAG, moves.getX(i), moves.getY(i));
+						break;
+					}
+				}
+				return answerMove();
+			case BYE:
+				return false;
+			case HELP:
+				out.println("Valid commands: 'look', 'dig x y', 'flag x y', 'deflag x y', 'mode delta', 'mode board', 'bye', 'help'. Moves can be batched: 'dig x y; flag x y'");
+				return true;
+			case DELTA_MODE:
+				delta = true;
+				out.println("Mode set to delta.");
+				return true;
+			case BOARD_MODE:
+				delta = false;
+				out.println("Mode set to board.");
+				return true;
+			default:
+				out.println("That command is not available on a sharded board.");
+				return true;
+			}
+		}
+
+		private boolean answerMove() throws IOException {
+			if (delta && changes.size() <= maxDeltaChanges) {
+				out.printChanges("DELTA", changes);
+			} else {
+				out.printBoard(look());
+			}
+			return true;
+		}
+
+		private boolean boom() {
+			out.printBoom();
+			return debug;
+		}
+
+		/**
+		 * @return the rows of the whole board
+		 */
+		private List<String> look() throws IOException {
+			for (int shard = 0; shard < shards.length; shard++) {
+				link(shard).send("look");
+				link(shard).flush();
+			}
+			List<String> rows = new ArrayList<String>(layout.size);
+			for (int row = 0; row < layout.rows; row++) {
+				List<List<String>> parts = new ArrayList<List<String>>();
+				for (int column = 0; column < layout.columns; column++) {
+					parts.add(links[row * layout.columns + column].readRows());
+				}
+				for (int y = 0; y < parts.get(0).size(); y++) {
+					StringBuilder line = new StringBuilder(2 * layout.size);
+					for (List<String> part : parts) {
+						if (line.length() > 0) {
+							line.append(' ');
+						}
+						line.append(part.get(y));
+					}
+					rows.add(line.toString());
+				}
+			}
+			return rows;
+		}
+
+		/**
+		 * Dig the square at (x, y) and follow the flood across shards.
+		 *
+		 * @return true if the square held a bomb
+		 */
+		private boolean dig(int x, int y) throws IOException {
+			if (!layout.isOnBoard(x, y)) {
+				return false;
+			}
+			continuations.clear();
+			boolean boom = move("dig", x, y);
+			// grows as the continuations report more
+			for (int i = 0; i < continuations.size(); i++) {
+				move("dig", continuations.getX(i), continuations.getY(i));
+			}
+			return boom;
+		}
+
+		/**
+		 * Flag or deflag the square at (x, y).
+		 */
+		private void mark(Command.Type type, int x, int y) throws IOException {
+			if (layout.isOnBoard(x, y)) {
+				continuations.clear();
+				move(type == Command.Type.FLAG ? "flag" : "deflag", x, y);
+			}
+		}
+
+		/**
+		 * Make a move on the shard owning (x, y), which must be on the board,
+		 * then copy the squares it changed to the shards holding copies.
+		 *
+		 * @return true if the move dug a bomb
+		 */
+		private boolean move(String move, int x, int y) throws IOException {
+			ShardLink owner = link(layout.shardAt(x, y));
+			owner.send(move + " " + x + " " + y);
+			owner.flush();
+			int first = changes.size();
+			boolean boom = owner.readMove(changes, continuations);
+			int last = changes.size();
+			for (int i = first; i < last; i++) {
+				char glyph = changes.getGlyph(i);
+				String copy = glyph == '-' ? "halo deflag "
+						: glyph == 'F' ? "halo flag " : "halo dig ";
+				for (int holder : layout.holders(changes.getX(i),
+						changes.getY(i))) {
+					link(holder).send(
+							copy + changes.getX(i) + " " + changes.getY(i));
+					copying[holder] = true;
+				}
+			}
+			for (int holder = 0; holder < shards.length; holder++) {
+				if (copying[holder]) {
+					links[holder].flush();
+				}
+			}
+			for (int holder = 0; holder < shards.length; holder++) {
+				if (copying[holder]) {
+					copying[holder] = false;
+					readCopies(holder, first, last);
+				}
+			}
+			return boom;
+		}
+
+		/**
+		 * Read the replies of holder to the copies of changes first to last
+		 * sent to it, adding the squares they changed to changes.
+		 */
+		private void readCopies(int holder, int first, int last)
+				throws IOException {
+			for (int i = first; i < last; i++) {
+				for (int shard : layout.holders(changes.getX(i),
+						changes.getY(i))) {
+					if (shard == holder) {
+						links[holder].readMove(changes, continuations);
+					}
+				}
+			}
+		}
+
+		private void close() throws IOException {
+			for (ShardLink link : links) {
+				if (link != null) {
+					link.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start a ShardRouter in front of shard servers running on this machine.
+	 *
+	 * Usage: ShardRouter --size SIZE --shards COLUMNSxROWS [--debug] [--port
+	 * PORT] [--shard-ports PORT,PORT,...]
+	 *
+	 * SIZE, COLUMNS and ROWS must be the same as for every ShardServer. PORT
+	 * is where clients connect, 4444 by default. The shard ports are given in
+	 * shard order and default to 4445, 4446 and so on, as for ShardServer.
+	 * E.g. "ShardServer --size 1000 --shards 2x1 --seed 7 --shard 0",
+	 * "ShardServer --size 1000 --shards 2x1 --seed 7 --shard 1" and
+	 * "ShardRouter --size 1000 --shards 2x1" serve a 1000x1000 board from
+	 * two shard processes.
+	 */
+	public static void main(String[] args) {
+		boolean debug = false;
+		int port = 4444;
+		Integer size = null;
+		int[] grid = null;
+		String[] shardPorts = null;
+		Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+		ShardLayout layout;
+		InetSocketAddress[] shards;
+		try {
+			while (!arguments.isEmpty()) {
+				String flag = arguments.remove();
+				try {
+					if (flag.equals("--debug")) {
+						debug = true;
+					} else if (flag.equals("--port")) {
+						port = Integer.parseInt(arguments.remove());
+					} else if (flag.equals("--size")) {
+						size = Integer.parseInt(arguments.remove());
+					} else if (flag.equals("--shards")) {
+						grid = ShardLayout.parseGrid(arguments.remove());
+					} else if (flag.equals("--shard-ports")) {
+						shardPorts = arguments.remove().split(",");
+					} else {
+						throw new IllegalArgumentException("unknown option: \""
+								+ flag + "\"");
+					}
+				} catch (NoSuchElementException nsee) {
+					throw new IllegalArgumentException("missing argument for "
+							+ flag);
+				} catch (NumberFormatException nfe) {
+					throw new IllegalArgumentException(
+							"unable to parse number for " + flag);
+				}
+			}
+			if (size == null || grid == null) {
+				throw new IllegalArgumentException(
+						"--size and --shards are required");
+			}
+			// the router never looks at the bombs
+			layout = new ShardLayout(size, grid[0], grid[1], 0);
+			if (shardPorts != null && shardPorts.length != layout.shards()) {
+				throw new IllegalArgumentException("need " + layout.shards()
+						+ " shard ports");
+			}
+			shards = new InetSocketAddress[layout.shards()];
+			for (int i = 0; i < shards.length; i++) {
+				int shardPort = shardPorts == null ? 4445 + i : Integer
+						.parseInt(shardPorts[i]);
+				shards[i] = new InetSocketAddress("127.0.0.1", shardPort);
+			}
+		} catch (IllegalArgumentException iae) {
+			System.err.println(iae.getMessage());
+			System.err
+					.println("usage: ShardRouter --size SIZE --shards COLUMNSxROWS [--debug] [--port PORT] [--shard-ports PORT,PORT,...]");
+			return;
+		}
+
+		try {
+			new ShardRouter(layout, shards, port, debug).serve();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import minesweeperclass.ChangeList;
+import minesweeperclass.MinesweeperBoard;
+
+/**
+ * Serves one shard of a board split by a ShardLayout, to a ShardRouter.
+ *
+ * The shard is played on an ordinary MinesweeperBoard holding the shard's
+ * rectangle and copies of the squares around it, laid out by
+ * ShardLayout.squares(). A flood opens the shard's own squares and the
+ * copies in its inner halo exactly as it would on the whole board, since
+ * every square involved has its whole neighborhood on the board, but stops
+ * at the outer halo. The router carries the flood on: every copy the flood
+ * opened is reported as a continuation, which the router digs on the shard
+ * owning the square. In turn, the router copies every change to a square
+ * near the edge of its shard to the shards holding copies of it, with the
+ * "halo" requests.
+ *
+ * Requests are lines, and squares are given by their coordinates on the
+ * whole board:
+ *
+ * "look" is answered with "ROWS n" followed by the n rows of the shard, as
+ * the shard's part of a look at the whole board.
+ *
+ * "dig x y", "flag x y" and "deflag x y" make the move on a square of the
+ * shard. "halo dig x y" marks the copy of a square dug, without opening
+ * anything else (see MinesweeperBoard.markDug()), and "halo flag x y" and
+ * "halo deflag x y" flag or deflag the copy of a square in the inner halo.
+ * Each is answered with "CHANGES n" followed by n lines "x y G" giving the
+ * squares of the shard that changed, then "CONTINUE m" followed by m lines
+ * "x y" giving the copies in the halo the move opened, then "BOOM" if a bomb
+ * was dug and "OK" otherwise. Moves on squares the shard does not own, or
+ * does not hold a copy of, change nothing.
+ *
+ * Any other line is answered with "ERROR".
+ *
+ * Threadsafe argument: each connection is handled on its own thread, with
+ * its own change list, and they share only the board, which is threadsafe.
+ */
+public class ShardServer {
+	private final ServerSocket serverSocket;
+	private final ShardLayout layout;
+	private final int left;
+	private final int top;
+	private final int width;
+	private final int height;
+	private final MinesweeperBoard board;
+
+	/**
+	 * Make a ShardServer for one shard of layout, listening on port.
+	 *
+	 * @param shard
+	 *            requires 0 <= shard < layout.shards()
+	 */
+	public ShardServer(ShardLayout layout, int shard, int port)
+			throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(port));
+		this.layout = layout;
+		left = layout.left(shard);
+		top = layout.top(shard);
+		width = layout.right(shard) - left;
+		height = layout.bottom(shard) - top;
+		board = new MinesweeperBoard(layout.squares(shard));
+	}
+
+	/**
+	 * Serve router connections, each on its own thread. Never returns unless
+	 * an exception is thrown.
+	 *
+	 * @throws IOException
+	 *             if the main server socket is broken
+	 */
+	public void serve() throws IOException {
+		while (true) {
+			final Socket socket = serverSocket.accept();
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						handleConnection(socket);
+					} catch (IOException e) {
+						e.printStackTrace();
+					} finally {
+						try {
+							socket.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}).start();
+		}
+	}
+
+	private void handleConnection(Socket socket) throws IOException {
+		LineReader in = new LineReader(socket.getInputStream());
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), false);
+		ChangeList changes = new ChangeList();
+		for (AsciiLine line = in.readLine(); line != null; line = in
+				.readLine()) {
+			handleRequest(line, out, changes);
+			if (!in.hasLine()) {
+				out.flush();
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Answer one request from the router.
+	 */
+	private void handleRequest(CharSequence line, PrintWriter out,
+			ChangeList changes) {
+		boolean halo = line.length() > 5 && line.charAt(0) == 'h'
+				&& line.subSequence(0, 5).toString().equals("halo ");
+		Command command = Command.parse(halo ? line.subSequence(5,
+				line.length()) : line);
+		if (command == null) {
+			out.print("ERROR\r\n");
+			return;
+		}
+		if (command.type == Command.Type.LOOK && !halo) {
+			List<String> rows = board.look();
+			out.print("ROWS " + height + "\r\n");
+			for (int y = ShardLayout.HALO; y < ShardLayout.HALO + height; y++) {
+				out.print(rows.get(y).substring(2 * ShardLayout.HALO,
+						2 * (ShardLayout.HALO + width) - 1));
+				out.print("\r\n");
+			}
+			return;
+		}
+		if (command.type != Command.Type.DIG
+				&& command.type != Command.Type.FLAG
+				&& command.type != Command.Type.DEFLAG) {
+			out.print("ERROR\r\n");
+			return;
+		}
+		changes.clear();
+		boolean boom = halo ? copyMove(command, changes) : move(command,
+				changes);
+		// a copy is only ever dug because its owner dug the square
+		printChanges(changes, !halo, out);
+		out.print(boom ? "BOOM\r\n" : "OK\r\n");
+	}
+
+	private boolean isOwned(int x, int y) {
+		return x >= left && x < left + width && y >= top && y < top + height;
+	}
+
+	/**
+	 * @return true if (x, y) is within HALO of the shard, on the whole board
+	 */
+	private boolean isHalo(int x, int y) {
+		return layout.isOnBoard(x, y) && x >= left - ShardLayout.HALO
+				&& x < left + width + ShardLayout.HALO
+				&& y >= top - ShardLayout.HALO
+				&& y < top + height + ShardLayout.HALO;
+	}
+
+	/**
+	 * @return true if (x, y) is in the inner halo, on the whole board
+	 */
+	private boolean isInnerHalo(int x, int y) {
+		return !isOwned(x, y) && layout.isOnBoard(x, y) && x >= left - 1
+				&& x <= left + width && y >= top - 1 && y <= top + height;
+	}
+
+	/**
+	 * @return true if the move dug a bomb
+	 */
+	private boolean move(Command command, ChangeList changes) {
+		if (!isOwned(command.x, command.y)) {
+			return false;
+		}
+		int x = command.x - left + ShardLayout.HALO;
+		int y = command.y - top + ShardLayout.HALO;
+		switch (command.type) {
+		case DIG:
+			return board.dig(x, y, changes);
+		case FLAG:
+			board.flag(x, y, changes);
+			return false;
+		default:
+			board.deFlag(x, y, changes);
+			return false;
+		}
+	}
+
+	/**
+	 * Copy a move made on the shard owning the square. The outer halo is
+	 * flagged whatever its owner shows, so only digs are copied there.
+	 *
+	 * @return false
+	 */
+	private boolean copyMove(Command command, ChangeList changes) {
+		if (isOwned(command.x, command.y) || !isHalo(command.x, command.y)) {
+			return false;
+		}
+		int x = command.x - left + ShardLayout.HALO;
+		int y = command.y - top + ShardLayout.HALO;
+		switch (command.type) {
+		case DIG:
+			board.markDug(x, y, changes);
+			break;
+		case FLAG:
+			if (isInnerHalo(command.x, command.y)) {
+				board.flag(x, y, changes);
+			}
+			break;
+		default:
+			if (isInnerHalo(command.x, command.y)) {
+				board.deFlag(x, y, changes);
+			}
+			break;
+		}
+		return false;
+	}
+
+	/**
+	 * Print the changes to the shard's own squares, then the copies in the
+	 * inner halo that were opened if continuations is true, in coordinates of
+	 * the whole board.
+	 */
+	private void printChanges(ChangeList changes, boolean continuations,
+			PrintWriter out) {
+		int owned = 0;
+		int opened = 0;
+		for (int i = 0; i < changes.size(); i++) {
+			int x = changes.getX(i) - ShardLayout.HALO + left;
+			int y = changes.getY(i) - ShardLayout.HALO + top;
+			if (isOwned(x, y)) {
+				owned++;
+			} else if (continuations && isOpened(x, y, changes.getGlyph(i))) {
+				opened++;
+			}
+		}
+		out.print("CHANGES " + owned + "\r\n");
+		for (int i = 0; i < changes.size(); i++) {
+			int x = changes.getX(i) - ShardLayout.HALO + left;
+			int y = changes.getY(i) - ShardLayout.HALO + top;
+			if (isOwned(x, y)) {
+				out.print(x + " " + y + " " + changes.getGlyph(i) + "\r\n");
+			}
+		}
+		out.print("CONTINUE " + opened + "\r\n");
+		for (int i = 0; i < changes.size(); i++) {
+			int x = changes.getX(i) - ShardLayout.HALO + left;
+			int y = changes.getY(i) - ShardLayout.HALO + top;
+			if (continuations && !isOwned(x, y)
+					&& isOpened(x, y, changes.getGlyph(i))) {
+				out.print(x + " " + y + "\r\n");
+			}
+		}
+	}
+
+	/**
+	 * @return true if a change to (x, y) showing glyph is a copy in the inner
+	 *         halo that is now dug
+	 */
+	private boolean isOpened(int x, int y, char glyph) {
+		return isInnerHalo(x, y) && glyph != '-' && glyph != 'F';
+	}
+
+	/**
+	 * Start a ShardServer.
+	 *
+	 * Usage: ShardServer --size SIZE --shards COLUMNSxROWS --seed SEED --shard
+	 * SHARD [--port PORT]
+	 *
+	 * SIZE, COLUMNS, ROWS and SEED describe the whole board and how it is
+	 * split, and must be the same for every shard and the router (see
+	 * ShardRouter). SHARD is the number of the shard to serve, counting row by
+	 * row from 0 at the top left. PORT defaults to 4445 + SHARD.
+	 */
+	public static void main(String[] args) {
+		Integer size = null;
+		int[] grid = null;
+		Long seed = null;
+		Integer shard = null;
+		Integer port = null;
+		Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
+		ShardLayout layout;
+		try {
+			while (!arguments.isEmpty()) {
+				String flag = arguments.remove();
+				try {
+					if (flag.equals("--size")) {
+						size = Integer.parseInt(arguments.remove());
+					} else if (flag.equals("--shards")) {
+						grid = ShardLayout.parseGrid(arguments.remove());
+					} else if (flag.equals("--seed")) {
+						seed = Long.parseLong(arguments.remove());
+					} else if (flag.equals("--shard")) {
+						shard = Integer.parseInt(arguments.remove());
+					} else if (flag.equals("--port")) {
+						port = Integer.parseInt(arguments.remove());
+					} else {
+						throw new IllegalArgumentException("unknown option: \""
+								+ flag + "\"");
+					}
+				} catch (NoSuchElementException nsee) {
+					throw new IllegalArgumentException("missing argument for "
+							+ flag);
+				} catch (NumberFormatException nfe) {
+					throw new IllegalArgumentException(
+							"unable to parse number for " + flag);
+				}
+			}
+			if (size == null || grid == null || seed == null || shard == null) {
+				throw new IllegalArgumentException(
+						"--size, --shards, --seed and --shard are required");
+			}
+			layout = new ShardLayout(size, grid[0], grid[1], seed);
+			if (shard < 0 || shard >= layout.shards()) {
+				throw new IllegalArgumentException("no shard " + shard);
+			}
+		} catch (IllegalArgumentException iae) {
+			System.err.println(iae.getMessage());
+			System.err
+					.println("usage: ShardServer --size SIZE --shards COLUMNSxROWS --seed SEED --shard SHARD [--port PORT]");
+			return;
+		}
+
+		try {
+			new ShardServer(layout, shard, port != null ? port : 4445 + shard)
+					.serve();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Random;
+
+import minesweeperclass.MinesweeperBoard;
+
+import org.junit.Test;
+
+import autograder.TestUtil;
+
+public class ShardTest {
+
+	/*
+	 * Test ShardLayout, and ShardServers behind a ShardRouter against one
+	 * MinesweeperBoard with the same bombs
+	 *
+	 * Testing space: even and uneven splits, squares on shard edges and
+	 * corners, holders near edges and corners of the board, floods crossing
+	 * several shards, digging bombs next to shard edges, flags blocking
+	 * floods at shard edges, board and delta responses
+	 */
+
+	@Test
+	public void layoutTest() {
+		ShardLayout layout = new ShardLayout(10, 3, 2, 1);
+		assertEquals(6, layout.shards());
+		// columns 0-2, 3-5, 6-9; rows 0-4, 5-9
+		assertEquals(3, layout.left(1));
+		assertEquals(6, layout.right(1));
+		assertEquals(10, layout.right(2));
+		assertEquals(5, layout.top(4));
+		assertEquals(0, layout.shardAt(2, 4));
+		assertEquals(1, layout.shardAt(3, 4));
+		assertEquals(5, layout.shardAt(9, 9));
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 10; x++) {
+				int shard = layout.shardAt(x, y);
+				assertTrue(x >= layout.left(shard) && x < layout.right(shard));
+				assertTrue(y >= layout.top(shard) && y < layout.bottom(shard));
+			}
+		}
+
+		assertEquals(0, layout.holders(0, 0).length);
+		// two columns from shard 1, in the middle of the board's height
+		int[] holders = layout.holders(1, 5);
+		assertEquals(3, holders.length);
+		assertEquals(0, holders[0]);
+		assertEquals(1, holders[1]);
+		assertEquals(4, holders[2]);
+	}
+
+	@Test
+	public void haloSquaresTest() {
+		ShardLayout layout = new ShardLayout(10, 2, 2, 5);
+		char[][] squares = layout.squares(3);
+		assertEquals(9, squares.length);
+		for (int j = 0; j < 9; j++) {
+			for (int i = 0; i < 9; i++) {
+				int x = 5 + i - ShardLayout.HALO;
+				int y = 5 + j - ShardLayout.HALO;
+				char expected;
+				if (x >= 10 || y >= 10) {
+					expected = 'F';
+				} else if (x >= 4 && y >= 4) {
+					expected = layout.isBomb(x, y) ? 'B' : '-';
+				} else {
+					expected = layout.isBomb(x, y) ? 'C' : 'F';
+				}
+				assertEquals(expected, squares[j][i]);
+			}
+		}
+	}
+
+	private static MinesweeperBoard referenceBoard(ShardLayout layout) {
+		char[][] squares = new char[layout.size][layout.size];
+		for (int y = 0; y < layout.size; y++) {
+			for (int x = 0; x < layout.size; x++) {
+				squares[y][x] = layout.isBomb(x, y) ? 'B' : '-';
+			}
+		}
+		return new MinesweeperBoard(squares);
+	}
+
+	/**
+	 * Starts the shards of layout and a router in debug mode on the ports
+	 * after port, and returns the router's port.
+	 */
+	private static int startShards(final ShardLayout layout, int port)
+			throws IOException {
+		InetSocketAddress[] shards = new InetSocketAddress[layout.shards()];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new InetSocketAddress("127.0.0.1", port + 1 + i);
+			final ShardServer server = new ShardServer(layout, i, port + 1 + i);
+			startThread(new Server() {
+				public void serve() throws IOException {
+					server.serve();
+				}
+			});
+		}
+		final ShardRouter router = new ShardRouter(layout, shards, port, true);
+		startThread(new Server() {
+			public void serve() throws IOException {
+				router.serve();
+			}
+		});
+		return port;
+	}
+
+	private interface Server {
+		void serve() throws IOException;
+	}
+
+	private static void startThread(final Server server) {
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.serve();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}).start();
+	}
+
+	private static void assertBoard(BufferedReader in, List<String> rows)
+			throws IOException {
+		for (String row : rows) {
+			assertEquals(row, TestUtil.nextNonEmptyLine(in));
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void routerMatchesOneBoardTest() throws IOException {
+		// uneven shards, some no taller than the halo is deep
+		ShardLayout layout = new ShardLayout(23, 4, 12, 42);
+		MinesweeperBoard reference = referenceBoard(layout);
+		int port = startShards(layout, 4480);
+		Socket socket = new Socket("127.0.0.1", port);
+		socket.setSoTimeout(10000);
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertTrue(TestUtil.nextNonEmptyLine(in).startsWith("Welcome"));
+
+		out.println("look");
+		assertBoard(in, reference.look());
+		Random random = new Random(3);
+		for (int move = 0; move < 300; move++) {
+			int x = random.nextInt(layout.size);
+			int y = random.nextInt(layout.size);
+			int kind = random.nextInt(6);
+			if (kind == 0) {
+				out.println("flag " + x + " " + y);
+				assertBoard(in, reference.flag(x, y));
+			} else if (kind == 1) {
+				out.println("deflag " + x + " " + y);
+				assertBoard(in, reference.deFlag(x, y));
+			} else {
+				out.println("dig " + x + " " + y);
+				List<String> rows = reference.dig(x, y);
+				if (rows == null) {
+					assertEquals("BOOM!", TestUtil.nextNonEmptyLine(in));
+					out.println("look");
+					rows = reference.look();
+				}
+				assertBoard(in, rows);
+			}
+		}
+
+		// delta mode lists every square changed, on every shard
+		out.println("mode delta");
+		assertEquals("Mode set to delta.", TestUtil.nextNonEmptyLine(in));
+		out.println("flag 22 22");
+		String header = TestUtil.nextNonEmptyLine(in);
+		assertTrue(header.equals("DELTA 0") || header.equals("DELTA 1"));
+		out.println("bye");
+		socket.close();
+	}
+}
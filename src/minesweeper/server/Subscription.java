@@ -0,0 +1,309 @@
+package minesweeper.server;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import minesweeperclass.BoardListener;
+import minesweeperclass.ChangeList;
+import minesweeperclass.MinesweeperBoard;
+
+/**
+ * The board changes waiting to be pushed to one subscribed client. Changes
+ * are coalesced: a square that changes several times before the client is
+ * sent an update is sent once, showing its latest glyph. At most capacity
+ * squares are kept; if more change before the client catches up, they are
+ * all dropped and the client is sent the whole board instead, so a slow
+ * client costs a bounded amount of memory however busy the board is. The
+ * squares are kept in primitive arrays, so recording a change allocates
+ * nothing once the arrays have grown.
+ * 
+ * Updates are pushed as "UPDATE n" followed by one line "x y G" per square,
+ * like a delta response, and resyncs as the line "RESYNC" followed by the
+ * whole board. A subscription for a client with a viewport keeps only the
+ * changes inside the viewport and resyncs with just the window.
+ * 
+ * Threadsafe argument: all state is guarded by lock, which is only held
+ * briefly and never while waiting on anything else, so squaresChanged() does
+ * not block the board. It is a ReentrantLock rather than a monitor so that a
+ * virtual thread waiting for updates does not pin its carrier thread.
+ */
+class Subscription implements BoardListener {
+	/**
+	 * Most squares kept for any subscriber, whatever the size of the board.
+	 * A resync of a large board costs more than this many changes would, but
+	 * only a client that has fallen this far behind pays for it.
+	 */
+	static final int MAX_CAPACITY = 4096;
+
+	/**
+	 * Squares with their latest glyphs, in the order they first changed,
+	 * indexed by an open addressing table keyed by position.
+	 */
+	private static final class PendingSquares {
+		private int[] xs = new int[16];
+		private int[] ys = new int[16];
+		private char[] glyphs = new char[16];
+		/**
+		 * Index + 1 of the square hashed to each slot, 0 for a free slot.
+		 * Twice as long as xs, so it is never more than half full.
+		 */
+		private int[] slots = new int[32];
+		private int size = 0;
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int getX(int i) {
+			return xs[i];
+		}
+
+		int getY(int i) {
+			return ys[i];
+		}
+
+		char getGlyph(int i) {
+			return glyphs[i];
+		}
+
+		/**
+		 * Record the square at (x, y) with glyph, replacing the glyph it
+		 * had if it is already recorded.
+		 */
+		void put(int x, int y, char glyph) {
+			int slot = find(x, y);
+			if (slots[slot] != 0) {
+				glyphs[slots[slot] - 1] = glyph;
+				return;
+			}
+			if (size == xs.length) {
+				grow();
+				slot = find(x, y);
+			}
+			xs[size] = x;
+			ys[size] = y;
+			glyphs[size] = glyph;
+			size++;
+			slots[slot] = size;
+		}
+
+		/**
+		 * Drop the squares outside viewport, keeping the order of the rest.
+		 */
+		void retainInside(Viewport viewport) {
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				if (viewport.contains(xs[i], ys[i])) {
+					xs[kept] = xs[i];
+					ys[kept] = ys[i];
+					glyphs[kept] = glyphs[i];
+					kept++;
+				}
+			}
+			size = kept;
+			reindex();
+		}
+
+		void clear() {
+			size = 0;
+			Arrays.fill(slots, 0);
+		}
+
+		/**
+		 * @return the slot holding the square at (x, y), or the free slot
+		 *         where it belongs if it is not recorded
+		 */
+		private int find(int x, int y) {
+			int mask = slots.length - 1;
+			int hash = x * 0x9E3779B9 + y;
+			hash ^= hash >>> 16;
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				int entry = slots[slot];
+				if (entry == 0 || xs[entry - 1] == x && ys[entry - 1] == y) {
+					return slot;
+				}
+			}
+		}
+
+		private void grow() {
+			xs = Arrays.copyOf(xs, 2 * xs.length);
+			ys = Arrays.copyOf(ys, 2 * ys.length);
+			glyphs = Arrays.copyOf(glyphs, 2 * glyphs.length);
+			slots = new int[2 * xs.length];
+			reindex();
+		}
+
+		private void reindex() {
+			Arrays.fill(slots, 0);
+			for (int i = 0; i < size; i++) {
+				slots[find(xs[i], ys[i])] = i + 1;
+			}
+		}
+	}
+
+	private final int capacity;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	/**
+	 * Called when updates become ready, or null. Must not block.
+	 */
+	private final Runnable updatesReady;
+	/** Latest glyph of each changed square. */
+	private final PendingSquares pending = new PendingSquares();
+	private boolean resync = false;
+	/** The client's viewport, or null to keep changes anywhere. */
+	private Viewport viewport = null;
+	private boolean closed = false;
+	/** Used only by the thread delivering updates. */
+	private final ChangeList update = new ChangeList();
+
+	/**
+	 * @param capacity
+	 *            most squares kept before falling back to a resync, requires
+	 *            capacity >= 1
+	 * @param updatesReady
+	 *            called, from the thread that changed the board, whenever
+	 *            updates become ready after none were; null if the deliverer
+	 *            waits with awaitUpdates() instead
+	 */
+	Subscription(int capacity, Runnable updatesReady) {
+		this.capacity = capacity;
+		this.updatesReady = updatesReady;
+	}
+
+	/**
+	 * Keep only the changes inside viewport from now on, dropping any
+	 * waiting outside it, or keep every change if viewport is null.
+	 */
+	void setViewport(Viewport viewport) {
+		lock.lock();
+		try {
+			this.viewport = viewport;
+			if (viewport == null) {
+				return;
+			}
+			pending.retainInside(viewport);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void squaresChanged(ChangeList changes) {
+		lock.lock();
+		try {
+			if (closed || resync) {
+				return;
+			}
+			boolean wasReady = !pending.isEmpty();
+			if (changes.overflowed()) {
+				resync = true;
+			} else {
+				for (int i = 0; i < changes.size(); i++) {
+					int x = changes.getX(i);
+					int y = changes.getY(i);
+					if (viewport == null || viewport.contains(x, y)) {
+						pending.put(x, y, changes.getGlyph(i));
+					}
+				}
+				if (pending.size() > capacity) {
+					resync = true;
+				}
+			}
+			if (resync) {
+				pending.clear();
+			}
+			if (wasReady || !hasUpdates()) {
+				return;
+			}
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (updatesReady != null) {
+			updatesReady.run();
+		}
+	}
+
+	/**
+	 * @return true if there are updates waiting to be delivered
+	 */
+	boolean hasUpdates() {
+		lock.lock();
+		try {
+			return resync || !pending.isEmpty();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until there are updates to deliver or the subscription is closed.
+	 * 
+	 * @return false if the subscription was closed
+	 */
+	boolean awaitUpdates() throws InterruptedException {
+		lock.lock();
+		try {
+			while (!closed && !hasUpdates()) {
+				changed.await();
+			}
+			return !closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop collecting updates, dropping any not delivered, and wake a thread
+	 * in awaitUpdates().
+	 */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			pending.clear();
+			resync = false;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Print every update waiting, if any, to out. Must only be called by one
+	 * thread at a time.
+	 * 
+	 * @param board
+	 *            board to print for a resync
+	 */
+	void deliverTo(ResponseSink out, MinesweeperBoard board) {
+		boolean resyncing;
+		Viewport window;
+		lock.lock();
+		try {
+			resyncing = resync;
+			window = viewport;
+			resync = false;
+			update.clear();
+			for (int i = 0; i < pending.size(); i++) {
+				update.add(pending.getX(i), pending.getY(i),
+						pending.getGlyph(i));
+			}
+			pending.clear();
+		} finally {
+			lock.unlock();
+		}
+		if (resyncing && window != null) {
+			window.printResync(out, board);
+		} else if (resyncing) {
+			out.printResync(board.look());
+		} else if (update.size() > 0) {
+			out.printChanges("UPDATE", update);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package minesweeper.server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import minesweeperclass.ChangeList;
+import minesweeperclass.MinesweeperBoard;
+
+import org.junit.Test;
+
+public class SubscriptionTest {
+
+	/*
+	 * Test that a Subscription coalesces, bounds and delivers changes
+	 * 
+	 * Testing space: repeated changes to one square, more squares than the
+	 * capacity, overflowed change lists, closing, the updatesReady callback,
+	 * changes inside and outside a viewport, resync with a viewport, more
+	 * squares than the pending arrays start out holding
+	 */
+
+	/**
+	 * A sink recording what it is asked to print, one string per response.
+	 */
+	private static class RecordingSink implements ResponseSink {
+		private final List<String> responses = new ArrayList<String>();
+
+		public void println(String message) {
+			responses.add(message);
+		}
+
+		public void printBoom() {
+			responses.add("boom");
+		}
+
+		public void printBoard(List<String> rows) {
+			responses.add("board");
+		}
+
+		public void printResync(List<String> rows) {
+			responses.add("resync");
+		}
+
+		public void printWindow(int left, int top, List<String> rows) {
+			responses.add("window " + left + "," + top + " " + rows);
+		}
+
+		public void printResyncWindow(int left, int top, List<String> rows) {
+			responses.add("resync window " + left + "," + top + " " + rows);
+		}
+
+		public void flush() {
+		}
+
+		public void printChanges(String kind, ChangeList changes) {
+			String response = kind;
+			for (int i = 0; i < changes.size(); i++) {
+				response += " " + changes.getX(i) + "," + changes.getY(i)
+						+ changes.getGlyph(i);
+			}
+			responses.add(response);
+		}
+	}
+
+	private static ChangeList changes(int... xyGlyphs) {
+		ChangeList changes = new ChangeList();
+		for (int i = 0; i < xyGlyphs.length; i += 3) {
+			changes.add(xyGlyphs[i], xyGlyphs[i + 1], (char) xyGlyphs[i + 2]);
+		}
+		return changes;
+	}
+
+	@Test
+	public void coalesceTest() {
+		final int[] ready = { 0 };
+		Subscription subscription = new Subscription(3, new Runnable() {
+			public void run() {
+				ready[0]++;
+			}
+		});
+		MinesweeperBoard board = new MinesweeperBoard(3);
+		RecordingSink sink = new RecordingSink();
+		assertFalse(subscription.hasUpdates());
+		subscription.squaresChanged(changes(1, 2, 'F'));
+		subscription.squaresChanged(changes(1, 2, '-', 0, 0, '3'));
+		assertTrue(subscription.hasUpdates());
+		// only told once until the updates are taken
+		assertEquals(1, ready[0]);
+		subscription.deliverTo(sink, board);
+		assertEquals(Arrays.asList("UPDATE 1,2- 0,03"), sink.responses);
+		assertFalse(subscription.hasUpdates());
+		subscription.deliverTo(sink, board);
+		assertEquals(1, sink.responses.size());
+	}
+
+	@Test
+	public void manySquaresTest() {
+		Subscription subscription = new Subscription(
+				Subscription.MAX_CAPACITY, null);
+		MinesweeperBoard board = new MinesweeperBoard(3);
+		RecordingSink sink = new RecordingSink();
+		ChangeList flags = new ChangeList();
+		ChangeList digs = new ChangeList();
+		for (int i = 0; i < 1000; i++) {
+			flags.add(i % 40, i / 40, 'F');
+			digs.add(i % 40, i / 40, ' ');
+		}
+		subscription.squaresChanged(flags);
+		subscription.squaresChanged(digs);
+		subscription.deliverTo(sink, board);
+		// in the order they first changed, each with its latest glyph
+		RecordingSink expected = new RecordingSink();
+		expected.printChanges("UPDATE", digs);
+		assertEquals(expected.responses, sink.responses);
+	}
+
+	@Test
+	public void resyncTest() {
+		Subscription subscription = new Subscription(3, null);
+		MinesweeperBoard board = new MinesweeperBoard(3);
+		RecordingSink sink = new RecordingSink();
+		subscription.squaresChanged(changes(0, 0, 'F', 1, 0, 'F'));
+		subscription.squaresChanged(changes(2, 0, 'F', 0, 1, 'F'));
+		// dropped: a resync covers them
+		subscription.squaresChanged(changes(2, 2, 'F'));
+		subscription.deliverTo(sink, board);
+		assertEquals(Arrays.asList("resync"), sink.responses);
+
+		ChangeList overflowed = new ChangeList();
+		overflowed.clear(0);
+		overflowed.add(1, 1, ' ');
+		subscription.squaresChanged(overflowed);
+		subscription.deliverTo(sink, board);
+		assertEquals(Arrays.asList("resync", "resync"), sink.responses);
+	}
+
+	@Test
+	public void viewportTest() {
+		Subscription subscription = new Subscription(3, null);
+		MinesweeperBoard board = new MinesweeperBoard(3);
+		RecordingSink sink = new RecordingSink();
+		subscription.squaresChanged(changes(0, 0, 'F', 2, 2, 'F'));
+		// drops the change now outside
+		subscription.setViewport(new Viewport(-1, 1, 4, 2));
+		subscription.squaresChanged(changes(1, 0, 'F', 1, 1, 'F', 3, 1, '1'));
+		subscription.deliverTo(sink, board);
+		assertEquals(Arrays.asList("UPDATE 2,2F 1,1F"), sink.responses);
+
+		subscription.squaresChanged(changes(0, 1, 'F', 1, 1, '-', 2, 1, 'F',
+				0, 2, 'F'));
+		subscription.deliverTo(sink, board);
+		assertEquals("resync window 0,1 " + board.look(0, 1, 3, 2),
+				sink.responses.get(1));
+	}
+
+	@Test(timeout = 5000)
+	public void closeTest() throws InterruptedException {
+		final Subscription subscription = new Subscription(3, null);
+		subscription.squaresChanged(changes(0, 0, 'F'));
+		assertTrue(subscription.awaitUpdates());
+		subscription.deliverTo(new RecordingSink(), new MinesweeperBoard(1));
+		Thread closer = new Thread(new Runnable() {
+			public void run() {
+				subscription.close();
+			}
+		});
+		closer.start();
+		assertFalse(subscription.awaitUpdates());
+		subscription.squaresChanged(changes(0, 0, '-'));
+		assertFalse(subscription.hasUpdates());
+	}
+}
@@ -0,0 +1,83 @@
+package minesweeper.server;
+
+import java.util.List;
+
+import minesweeperclass.MinesweeperBoard;
+
+/**
+ * The window of the board one client sees, set with "view". Responses that
+ * would show the whole board show just the window instead, and only changes
+ * to squares inside it are sent, so what a response costs depends on the
+ * size of the client's screen rather than of the board.
+ *
+ * Immutable.
+ */
+final class Viewport {
+	/** Most squares on a side of a window of a procedural board. */
+	static final int MAX_PROCEDURAL_SIDE = 1024;
+	/** The viewport of clients of a procedural board until they set one. */
+	static final Viewport PROCEDURAL_DEFAULT = new Viewport(0, 0, 80, 40);
+
+	/** Column and row of the top left square of the window. */
+	final int left;
+	final int top;
+	final int width;
+	final int height;
+
+	/**
+	 * Make the window of width by height squares whose top left square is
+	 * (left, top). It may lie partly or wholly off the board.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if width or height is less than 1
+	 */
+	Viewport(int left, int top, int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Invalid window size " + width
+					+ "x" + height);
+		}
+		this.left = left;
+		this.top = top;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * @return true if the square at (x, y) is inside the window
+	 */
+	boolean contains(int x, int y) {
+		return x >= left && (long) x - left < width && y >= top
+				&& (long) y - top < height;
+	}
+
+	/**
+	 * @return true if the window is too large to show of a procedural board
+	 */
+	boolean tooLargeFor(MinesweeperBoard board) {
+		return board.isProcedural()
+				&& (width > MAX_PROCEDURAL_SIDE || height > MAX_PROCEDURAL_SIDE);
+	}
+
+	/**
+	 * Print the part of board inside the window to out.
+	 */
+	void print(ResponseSink out, MinesweeperBoard board) {
+		out.printWindow(Math.max(left, 0), Math.max(top, 0), rows(board));
+	}
+
+	/**
+	 * Print the part of board inside the window to out as a resync.
+	 */
+	void printResync(ResponseSink out, MinesweeperBoard board) {
+		out.printResyncWindow(Math.max(left, 0), Math.max(top, 0), rows(board));
+	}
+
+	private List<String> rows(MinesweeperBoard board) {
+		return board.look(left, top, width, height);
+	}
+
+	@Override
+	public String toString() {
+		return left + " " + top + " " + width + " " + height;
+	}
+}
@@ -0,0 +1,105 @@
+package minesweeperclass;
+
+/**
+ * CellStore keeping one char per square in a char[][] grid, plus one byte per
+ * square holding its bomb neighbor count. Fast, but costs three bytes per
+ * square, so it is used for boards that comfortably fit in memory.
+ * 
+ * The grid is used as given, not copied, and may hold invalid states until
+ * the board checks it; invalid states simply do not count as bombs.
+ */
+class ArrayCellStore implements CellStore {
+	private final char[][] cells;
+	private final int size;
+	/**
+	 * bombNeighbors[y][x] is the number of bombs (flagged or not) among the
+	 * eight squares around (x, y). It is computed once when the store is built
+	 * and adjusted whenever a square gains or loses a bomb.
+	 */
+	private final byte[][] bombNeighbors;
+
+	/**
+	 * Makes a store of size x size untouched squares.
+	 */
+	ArrayCellStore(int size) {
+		this.size = size;
+		cells = new char[size][size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				cells[y][x] = UNTOUCHED;
+			}
+		}
+		bombNeighbors = new byte[size][size];
+	}
+
+	/**
+	 * Makes a store backed by cells, which must be square.
+	 */
+	ArrayCellStore(char[][] cells) {
+		this.size = cells.length;
+		this.cells = cells;
+		bombNeighbors = new byte[size][size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				if (isBomb(cells[y][x])) {
+					addToNeighbors(x, y, 1);
+				}
+			}
+		}
+	}
+
+	private static boolean isBomb(char state) {
+		return state == BOMB || state == FLAGGED_BOMB;
+	}
+
+	/**
+	 * Adds delta to the count of every on-board neighbor of (x, y).
+	 */
+	private void addToNeighbors(int x, int y, int delta) {
+		int top = Math.max(y - 1, 0);
+		int bottom = Math.min(y + 1, size - 1);
+		int left = Math.max(x - 1, 0);
+		int right = Math.min(x + 1, size - 1);
+		for (int j = top; j <= bottom; j++) {
+			for (int i = left; i <= right; i++) {
+				if (!(i == x && j == y)) {
+					bombNeighbors[j][i] = (byte) (bombNeighbors[j][i] + delta);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public char get(int x, int y) {
+		return cells[y][x];
+	}
+
+	@Override
+	public void set(int x, int y, char state) {
+		if (!(state == BOMB || state == UNTOUCHED || state == DUG
+				|| state == FLAGGED || state == FLAGGED_BOMB)) {
+			throw new IllegalArgumentException("Invalid square state: "
+					+ state);
+		}
+		boolean wasBomb = isBomb(cells[y][x]);
+		cells[y][x] = state;
+		if (wasBomb != isBomb(state)) {
+			addToNeighbors(x, y, wasBomb ? -1 : 1);
+		}
+	}
+
+	@Override
+	public int bombNeighbors(int x, int y) {
+		return bombNeighbors[y][x];
+	}
+
+	@Override
+	public long[] countStates() {
+		return StateCounts.count(this);
+	}
+}
@@ -0,0 +1,178 @@
+package minesweeperclass;
+
+/**
+ * CellStore packing the board into three bitplanes: one bit per square for
+ * "has a bomb", "is dug" and "is flagged". Each row of a plane is a long[]
+ * with one bit per square, so a square costs at most three bits instead of
+ * the three bytes of ArrayCellStore.
+ * 
+ * The bomb plane is allocated up front. Rows of the dug and flag planes are
+ * only allocated the first time a square in that row is dug or flagged, so a
+ * fresh 50000x50000 board takes about 300MB and grows with the explored
+ * area. Bomb neighbor counts are not stored; they are computed from the bomb
+ * plane with a popcount over the three rows around the square.
+ * 
+ * Bits past the right edge of the board are always zero.
+ */
+class BitPlaneCellStore implements CellStore {
+	private final int size;
+	private final int wordsPerRow;
+	private final long[][] bombs;
+	private final long[][] dug;
+	private final long[][] flags;
+
+	/**
+	 * Makes a store of size x size untouched squares.
+	 */
+	BitPlaneCellStore(int size) {
+		this.size = size;
+		wordsPerRow = (size + 63) >>> 6;
+		bombs = new long[size][wordsPerRow];
+		dug = new long[size][];
+		flags = new long[size][];
+	}
+
+	/**
+	 * Replaces row y of each plane, using the given arrays as they are. A
+	 * null dug or flag row means no square of the row is dug or flagged.
+	 * Requires wordsPerRow longs in each row, with the bits past the right
+	 * edge of the board zero.
+	 */
+	void setRow(int y, long[] bombRow, long[] dugRow, long[] flagRow) {
+		bombs[y] = bombRow;
+		dug[y] = dugRow;
+		flags[y] = flagRow;
+	}
+
+	private static boolean isSet(long[] row, int x) {
+		return row != null && (row[x >>> 6] & (1L << x)) != 0;
+	}
+
+	private long[] rowFor(long[][] plane, int y) {
+		long[] row = plane[y];
+		if (row == null) {
+			row = new long[wordsPerRow];
+			plane[y] = row;
+		}
+		return row;
+	}
+
+	private static void setBit(long[] row, int x, boolean value) {
+		if (value) {
+			row[x >>> 6] |= 1L << x;
+		} else {
+			row[x >>> 6] &= ~(1L << x);
+		}
+	}
+
+	/**
+	 * Writes a bit into a lazily allocated plane, allocating the row only if
+	 * a bit is actually being set.
+	 */
+	private void setLazyBit(long[][] plane, int x, int y, boolean value) {
+		if (value) {
+			setBit(rowFor(plane, y), x, true);
+		} else if (plane[y] != null) {
+			setBit(plane[y], x, false);
+		}
+	}
+
+	/**
+	 * Returns the bits for squares x - 1, x and x + 1 of row in bits 0, 1 and
+	 * 2 of the result. Squares off the board read as 0.
+	 */
+	private static long window(long[] row, int x) {
+		if (x == 0) {
+			return (row[0] & 3L) << 1;
+		}
+		int start = x - 1;
+		int word = start >>> 6;
+		int bit = start & 63;
+		long bits = row[word] >>> bit;
+		if (bit > 61 && word + 1 < row.length) {
+			bits |= row[word + 1] << (64 - bit);
+		}
+		return bits & 7L;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public char get(int x, int y) {
+		boolean flagged = isSet(flags[y], x);
+		if (isSet(bombs[y], x)) {
+			return flagged ? FLAGGED_BOMB : BOMB;
+		} else if (isSet(dug[y], x)) {
+			return DUG;
+		}
+		return flagged ? FLAGGED : UNTOUCHED;
+	}
+
+	@Override
+	public void set(int x, int y, char state) {
+		boolean bomb;
+		boolean isDug;
+		boolean flagged;
+		switch (state) {
+		case BOMB:
+			bomb = true;
+			isDug = false;
+			flagged = false;
+			break;
+		case UNTOUCHED:
+			bomb = false;
+			isDug = false;
+			flagged = false;
+			break;
+		case DUG:
+			bomb = false;
+			isDug = true;
+			flagged = false;
+			break;
+		case FLAGGED:
+			bomb = false;
+			isDug = false;
+			flagged = true;
+			break;
+		case FLAGGED_BOMB:
+			bomb = true;
+			isDug = false;
+			flagged = true;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid square state: "
+					+ state);
+		}
+		setBit(bombs[y], x, bomb);
+		setLazyBit(dug, x, y, isDug);
+		setLazyBit(flags, x, y, flagged);
+	}
+
+	@Override
+	public int bombNeighbors(int x, int y) {
+		int count = Long.bitCount(window(bombs[y], x) & ~2L);
+		if (y > 0) {
+			count += Long.bitCount(window(bombs[y - 1], x));
+		}
+		if (y < size - 1) {
+			count += Long.bitCount(window(bombs[y + 1], x));
+		}
+		return count;
+	}
+
+	/**
+	 * Counts with a popcount over each plane, 64 squares at a time.
+	 */
+	@Override
+	public long[] countStates() {
+		long[] counts = new long[StateCounts.STATES];
+		for (int y = 0; y < size; y++) {
+			StateCounts.addPackedRow(counts, bombs[y], dug[y], flags[y]);
+		}
+		StateCounts.countUntouched(counts, size);
+		return counts;
+	}
+}
@@ -0,0 +1,242 @@
+package minesweeperclass;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a board file, as taken by MinesweeperServer --file, straight into a
+ * CellStore in one pass over its bytes. Nothing is built per line or per
+ * square, so a 20000x20000 file costs the store and one buffer.
+ *
+ * A board file is one line per row of the board, each holding one value per
+ * square separated by single spaces, 1 for a bomb and 0 for no bomb, and
+ * ending in "\n" or "\r\n". The newline after the last line may be left out.
+ * There must be as many lines as values on each line. The first line gives
+ * the size of the board, and every byte after it is checked against it as it
+ * is read, so a ragged or non-square file is rejected as soon as the reader
+ * gets to the first line that does not fit.
+ *
+ * Not threadsafe: a reader reads one file, once.
+ */
+final class BoardFileReader {
+	/** Bytes read from the file at a time. */
+	private static final int BUFFER_BYTES = 1 << 20;
+	private static final String SAME_LENGTH = "; every line must be as long"
+			+ " as the first";
+	private static final String SQUARE = "; the board must be square";
+	private static final String SPACE_BEFORE_VALUE = "a space must be"
+			+ " followed by a value";
+	private static final String RETURN_BEFORE_NEWLINE = "a carriage return"
+			+ " must be followed by a newline";
+
+	private final File file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+	private int size;
+	/** The store, and the row being read, for a board kept in an array. */
+	private char[][] cells;
+	/** The store, and the row being read, for a board kept in bitplanes. */
+	private BitPlaneCellStore planes;
+	private long[] bombRow;
+	/** Bombs read so far. */
+	private long bombs;
+
+	private BoardFileReader(File file, FileChannel channel) {
+		this.file = file;
+		this.channel = channel;
+	}
+
+	/**
+	 * Reads the board file file.
+	 *
+	 * @param states
+	 *            array to set the number of squares in each state in,
+	 *            indexed as in StateCounts
+	 * @return a store holding the board, with every square untouched or a
+	 *         bomb
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid board file
+	 */
+	static CellStore read(File file, long[] states) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			BoardFileReader reader = new BoardFileReader(file,
+					in.getChannel());
+			CellStore store = reader.read();
+			StateCounts.setUntouched(states, reader.size, reader.bombs);
+			return store;
+		} finally {
+			in.close();
+		}
+	}
+
+	private CellStore read() throws IOException {
+		size = firstLineSquares();
+		if (size > MinesweeperBoard.MAX_ARRAY_STORE_SIZE) {
+			planes = new BitPlaneCellStore(size);
+			bombRow = new long[(size + 63) >>> 6];
+		} else {
+			cells = new char[size][size];
+		}
+		channel.position(0);
+		int x = 0;
+		int y = 0;
+		// true at the start of a line and after a space
+		boolean wantValue = true;
+		boolean sawReturn = false;
+		while (fill()) {
+			byte[] bytes = buffer.array();
+			int end = buffer.limit();
+			for (int i = 0; i < end; i++) {
+				byte b = bytes[i];
+				if (sawReturn && b != '\n') {
+					throw malformed(y, RETURN_BEFORE_NEWLINE);
+				}
+				switch (b) {
+				case '0':
+				case '1':
+					if (!wantValue) {
+						throw malformed(y, "values must be separated by a space");
+					}
+					if (x == size) {
+						throw malformed(y, "more than " + size + " values"
+								+ SAME_LENGTH);
+					}
+					if (y == size) {
+						throw malformed(y, "more than " + size + " lines"
+								+ SQUARE);
+					}
+					if (b == '1') {
+						setBomb(x, y);
+					} else if (cells != null) {
+						cells[y][x] = CellStore.UNTOUCHED;
+					}
+					x++;
+					wantValue = false;
+					break;
+				case ' ':
+					if (wantValue) {
+						throw malformed(y, SPACE_BEFORE_VALUE);
+					}
+					wantValue = true;
+					break;
+				case '\r':
+					sawReturn = true;
+					break;
+				case '\n':
+					sawReturn = false;
+					if (wantValue && x > 0) {
+						throw malformed(y, SPACE_BEFORE_VALUE);
+					}
+					endRow(x, y);
+					x = 0;
+					y++;
+					wantValue = true;
+					break;
+				default:
+					throw malformed(y, "unexpected character '" + (char) b
+							+ "'");
+				}
+			}
+		}
+		if (sawReturn) {
+			throw malformed(y, RETURN_BEFORE_NEWLINE);
+		}
+		if (x > 0) {
+			// no newline after the last line
+			if (wantValue) {
+				throw malformed(y, SPACE_BEFORE_VALUE);
+			}
+			endRow(x, y);
+			y++;
+		}
+		if (y != size) {
+			throw new IOException("Board file " + file + " has " + size
+					+ " values per line but " + y + " lines" + SQUARE);
+		}
+		if (planes != null) {
+			return planes;
+		}
+		return new ArrayCellStore(cells);
+	}
+
+	/**
+	 * @return the number of values on the first line, worked out from its
+	 *         length; the values themselves are checked later
+	 */
+	private int firstLineSquares() throws IOException {
+		long length = 0;
+		while (fill()) {
+			byte[] bytes = buffer.array();
+			int end = buffer.limit();
+			for (int i = 0; i < end; i++) {
+				if (bytes[i] == '\n') {
+					return squaresInLine(length);
+				}
+				if (bytes[i] != '\r') {
+					length++;
+				}
+			}
+		}
+		return squaresInLine(length);
+	}
+
+	private int squaresInLine(long length) throws IOException {
+		if (length == 0) {
+			throw malformed(0, "the first line is empty");
+		}
+		if (length % 2 == 0 || (length + 1) / 2 > Integer.MAX_VALUE) {
+			throw malformed(0,
+					"values must be single digits separated by single spaces");
+		}
+		return (int) ((length + 1) / 2);
+	}
+
+	/**
+	 * Reads the next bytes of the file into buffer.
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean fill() throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer.hasRemaining();
+	}
+
+	private void setBomb(int x, int y) {
+		bombs++;
+		if (cells != null) {
+			cells[y][x] = CellStore.BOMB;
+		} else {
+			bombRow[x >>> 6] |= 1L << x;
+		}
+	}
+
+	/**
+	 * Checks that row y holds size values and stores it.
+	 */
+	private void endRow(int x, int y) throws IOException {
+		if (x != size) {
+			throw malformed(y, x + " values, but the first line has " + size
+					+ SAME_LENGTH);
+		}
+		if (planes != null) {
+			planes.setRow(y, bombRow, null, null);
+			bombRow = new long[bombRow.length];
+		}
+	}
+
+	private IOException malformed(int y, String problem) {
+		return new IOException("Board file " + file + " line " + (y + 1)
+				+ ": " + problem);
+	}
+}
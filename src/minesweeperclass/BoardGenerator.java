@@ -0,0 +1,234 @@
+package minesweeperclass;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes random boards from a seed. The same size, seed and mine count or
+ * density always give the same board, so a board from a bug report can be
+ * made again exactly from its seed.
+ *
+ * Each row is filled from its own SplitMix64 stream, keyed by the seed and
+ * the row number, so rows can be filled by any number of threads in any
+ * order and still come out the same. Large boards are split into chunks of
+ * rows shared out over one thread per processor; a 20000x20000 board takes
+ * under two seconds on one processor, and proportionally less on more.
+ *
+ * With a mine count, every square is first made a bomb with probability
+ * mines / (size * size), and then bombs are taken away from, or added to,
+ * squares picked uniformly at random from a stream of its own until there
+ * are exactly mines bombs. Given the number of bombs after the first step,
+ * they are a uniformly random set of squares, so the board is a uniformly
+ * random choice of all boards with that many bombs. The second step only
+ * touches about sqrt(size * size) squares.
+ */
+public final class BoardGenerator {
+	/** Rows filled by one thread at a time. */
+	private static final int CHUNK_ROWS = 64;
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private final int size;
+	private final long seed;
+	/** Bombs of each row as in BitPlaneCellStore. */
+	private final long[][] rows;
+	/** Number of bombs in each row. */
+	private final int[] rowBombs;
+
+	private BoardGenerator(int size, long seed) {
+		if (size < 1) {
+			throw new IllegalArgumentException(
+					"Invalid size input! We need at least a 1x1 grid to play Minesweeper");
+		}
+		this.size = size;
+		this.seed = seed;
+		rows = new long[size][(size + 63) >>> 6];
+		rowBombs = new int[size];
+	}
+
+	/**
+	 * Makes a board of size * size squares, each a bomb with probability
+	 * density.
+	 *
+	 * @param states
+	 *            array to set the number of squares in each state in,
+	 *            indexed as in StateCounts
+	 * @throws IllegalArgumentException
+	 *             if size < 1 or density is not between 0 and 1
+	 */
+	static CellStore withDensity(int size, double density, long seed,
+			long[] states) {
+		if (!(density >= 0 && density <= 1)) {
+			throw new IllegalArgumentException("Mine density " + density
+					+ " is not between 0 and 1");
+		}
+		BoardGenerator generator = new BoardGenerator(size, seed);
+		generator.fill(density);
+		StateCounts.setUntouched(states, size, generator.bombs());
+		return generator.store();
+	}
+
+	/**
+	 * Makes a board of size * size squares, exactly mines of them bombs.
+	 *
+	 * @param states
+	 *            array to set the number of squares in each state in,
+	 *            indexed as in StateCounts
+	 * @throws IllegalArgumentException
+	 *             if size < 1 or mines is not between 0 and size * size
+	 */
+	static CellStore withMines(int size, long mines, long seed,
+			long[] states) {
+		long squares = (long) size * size;
+		if (mines < 0 || mines > squares) {
+			throw new IllegalArgumentException("Cannot place " + mines
+					+ " mines on a board of " + squares + " squares");
+		}
+		BoardGenerator generator = new BoardGenerator(size, seed);
+		generator.fill((double) mines / squares);
+		generator.adjust(mines);
+		StateCounts.setUntouched(states, size, mines);
+		return generator.store();
+	}
+
+	/**
+	 * Fills every row, in parallel if the board is large.
+	 */
+	private void fill(final double density) {
+		// bomb if the top 53 bits of the next number are below this
+		final long threshold = (long) (density * (1L << 53));
+		final int chunks = (size + CHUNK_ROWS - 1) / CHUNK_ROWS;
+		int threadCount = Math.min(chunks, Runtime.getRuntime()
+				.availableProcessors());
+		final AtomicInteger nextChunk = new AtomicInteger();
+		Runnable filler = new Runnable() {
+			public void run() {
+				int chunk;
+				while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+					int end = Math.min(size, (chunk + 1) * CHUNK_ROWS);
+					for (int y = chunk * CHUNK_ROWS; y < end; y++) {
+						fillRow(y, threshold);
+					}
+				}
+			}
+		};
+		Thread[] threads = new Thread[threadCount - 1];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(filler, "board-generator-" + i);
+			threads[i].start();
+		}
+		filler.run();
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException e) {
+					// the rows must be finished before the board is used
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void fillRow(int y, long threshold) {
+		long[] row = rows[y];
+		// the stream of row y
+		long state = mix(seed ^ mix(y * GOLDEN_GAMMA + GOLDEN_GAMMA));
+		int bombs = 0;
+		for (int x = 0; x < size; x++) {
+			state += GOLDEN_GAMMA;
+			if (mix(state) >>> 11 < threshold) {
+				row[x >>> 6] |= 1L << x;
+				bombs++;
+			}
+		}
+		rowBombs[y] = bombs;
+	}
+
+	/**
+	 * Adds or takes away bombs at random squares until there are exactly
+	 * mines of them.
+	 */
+	private void adjust(long mines) {
+		long bombs = bombs();
+		long squares = (long) size * size;
+		// a stream of its own, apart from the rows'
+		long state = mix(~seed);
+		while (bombs != mines) {
+			state += GOLDEN_GAMMA;
+			long square = bounded(mix(state), squares);
+			if (square < 0) {
+				continue;
+			}
+			int x = (int) (square % size);
+			int y = (int) (square / size);
+			long bit = 1L << x;
+			boolean bomb = (rows[y][x >>> 6] & bit) != 0;
+			if (bombs > mines && bomb) {
+				rows[y][x >>> 6] &= ~bit;
+				bombs--;
+			} else if (bombs < mines && !bomb) {
+				rows[y][x >>> 6] |= bit;
+				bombs++;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bombs the rows were filled with
+	 */
+	private long bombs() {
+		long bombs = 0;
+		for (int count : rowBombs) {
+			bombs += count;
+		}
+		return bombs;
+	}
+
+	/**
+	 * @return a number from 0 to bound - 1 taken from random, or -1 if
+	 *         random falls in the few values that would make some numbers
+	 *         likelier than others
+	 */
+	private static long bounded(long random, long bound) {
+		long value = random >>> 1;
+		long remainder = value % bound;
+		if (value - remainder + (bound - 1) < 0) {
+			return -1;
+		}
+		return remainder;
+	}
+
+	private CellStore store() {
+		if (size > MinesweeperBoard.MAX_ARRAY_STORE_SIZE) {
+			BitPlaneCellStore store = new BitPlaneCellStore(size);
+			for (int y = 0; y < size; y++) {
+				store.setRow(y, rows[y], null, null);
+			}
+			return store;
+		}
+		char[][] cells = new char[size][size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				boolean bomb = (rows[y][x >>> 6] & (1L << x)) != 0;
+				cells[y][x] = bomb ? CellStore.BOMB : CellStore.UNTOUCHED;
+			}
+		}
+		return new ArrayCellStore(cells);
+	}
+
+	/**
+	 * The SplitMix64 finalizer: a bijection of the longs that scrambles
+	 * every bit of z into every bit of the result. Also hashes squares for
+	 * ProceduralCellStore, and for the shards of a sharded server, which
+	 * must all place the same bombs.
+	 */
+	public static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
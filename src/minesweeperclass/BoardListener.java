@@ -0,0 +1,22 @@
+package minesweeperclass;
+
+/**
+ * Told about every change to a MinesweeperBoard it is added to, so that
+ * players can be sent other players' moves without asking for the board.
+ */
+public interface BoardListener {
+	/**
+	 * Called after squares of the board changed, before anyone can change
+	 * those squares again, so for any one square the calls arrive in the
+	 * order it changed. Calls come from whichever threads run commands, and
+	 * while they hold band locks of the board: an implementation must be
+	 * threadsafe, return quickly, never block waiting on other threads and
+	 * never call back into the board.
+	 * 
+	 * @param changes
+	 *            the squares that changed, which may only be read during the
+	 *            call; overflowed() if too many changed to list, in which case
+	 *            the listener should start over from the whole board
+	 */
+	void squaresChanged(ChangeList changes);
+}
@@ -0,0 +1,624 @@
+package minesweeperclass;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of a MinesweeperBoard, so that a game survives the process
+ * playing it dying. The log lives in a directory of its own, holding a
+ * snapshot of the whole board (see BoardSnapshot) and the log segments
+ * written since.
+ *
+ * The board hands every command's changes to the log while it still holds
+ * the band locks of the changed squares, as the new state of each square
+ * rather than the move that changed it. For any one square the log then
+ * holds its states in the order it took them, whichever threads made the
+ * moves and however their floods interleaved, and replaying any part of the
+ * log over a board that already shows some of it ends with the same board.
+ *
+ * Commands never wait for the disk. They append to an in-memory batch, and a
+ * writer thread writes the batch to the current segment and forces it to the
+ * disk, while the next batch fills up: however many commands finish during
+ * one force, they are committed together by the next. A batch is written as
+ * frames of at most FRAME_RECORDS changes, and a command changing more
+ * squares than that, such as a flood opening a large board, hands them over
+ * FRAME_RECORDS at a time as it goes, so neither the batch nor any frame has
+ * to hold a whole flood. A crash can lose the changes of the last few
+ * milliseconds, and cut such a flood short, but every square recovered is
+ * in a state it was in. sync() waits for everything logged so far to be
+ * committed.
+ *
+ * Once SNAPSHOT_LOG_BYTES of log have been written since the last snapshot,
+ * the writer starts a new segment, writes a new snapshot, one band of the
+ * board at a time so that play goes on meanwhile, and deletes the older
+ * segments. Recovery loads the snapshot and replays the segments written
+ * after it, which bounds the time it takes: a 10000x10000 board comes back
+ * in a fraction of a second.
+ *
+ * Segment layout: a SEGMENT_HEADER_BYTES header (MAGIC and VERSION as
+ * big-endian ints), then frames of a payload length and the CRC-32 of the
+ * payload as big-endian ints followed by the payload, a series of
+ * RECORD_BYTES records: x and y of a square as big-endian ints and its new
+ * state as one byte. A frame that is cut short or fails its checksum, as
+ * the last one may after a crash, ends the segment.
+ *
+ * Threadsafe argument: the batch being filled and the counters are guarded
+ * by lock, which is only held briefly and never while waiting for the disk
+ * or the board, so appending never blocks a command for long. Everything
+ * else is only used by the writer thread, or before it starts.
+ */
+public final class BoardLog implements Closeable {
+	static final int MAGIC = 0x4D53574C; // "MSWL"
+	static final int VERSION = 1;
+	static final int SEGMENT_HEADER_BYTES = 8;
+	static final int FRAME_HEADER_BYTES = 8;
+	static final int RECORD_BYTES = 9;
+	/**
+	 * Most changes in one frame, and most a command holds before handing
+	 * them to the log.
+	 */
+	static final int FRAME_RECORDS = 1 << 16;
+	private static final int MAX_FRAME_BYTES = FRAME_RECORDS * RECORD_BYTES;
+	/** Bytes a batch buffer starts with. */
+	private static final int BUFFER_BYTES = 1 << 16;
+	/**
+	 * Bytes of log written after a snapshot before the writer takes another.
+	 */
+	static final long SNAPSHOT_LOG_BYTES = 32L << 20;
+	private static final String SNAPSHOT_NAME = "board.snapshot";
+	private static final String SEGMENT_PREFIX = "board.";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private final File directory;
+	private final MinesweeperBoard board;
+	private final Thread writer;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Signalled when there is something for the writer to do. */
+	private final Condition work = lock.newCondition();
+	/** Signalled when a batch was committed or a snapshot taken. */
+	private final Condition done = lock.newCondition();
+	/**
+	 * Records appended since the writer last took a batch, one frame per
+	 * buffer; only the last buffer has room left.
+	 */
+	private List<ByteBuffer> batch = newBatch();
+	/** Calls to append(), and how many of them are committed. */
+	private long appended = 0;
+	private long committed = 0;
+	/** Snapshots asked for by snapshot(), and how many were taken. */
+	private long snapshotsWanted = 0;
+	private long snapshotsTaken = 0;
+	private boolean closing = false;
+	/** Why the writer stopped, or null if it has not failed. */
+	private IOException failure = null;
+
+	/** Batch being written. Used only by the writer. */
+	private List<ByteBuffer> writing = newBatch();
+	private final CRC32 crc = new CRC32();
+	private long segment;
+	private FileChannel channel;
+	private long loggedSinceSnapshot;
+
+	/**
+	 * Starts logging board into directory, writing the first segment with
+	 * the given number.
+	 */
+	private BoardLog(File directory, MinesweeperBoard board, long segment,
+			long loggedSinceSnapshot) throws IOException {
+		this.directory = directory;
+		this.board = board;
+		this.loggedSinceSnapshot = loggedSinceSnapshot;
+		startSegment(segment);
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeBatches();
+			}
+		}, "board log " + directory);
+		writer.setDaemon(true);
+	}
+
+	/**
+	 * Starts logging board into directory, replacing any log already there,
+	 * and writes a first snapshot of it before returning. The board may
+	 * already be in play.
+	 *
+	 * @param directory
+	 *            directory to keep the log in, made if it does not exist
+	 * @throws IOException
+	 *             if the directory or the log cannot be written
+	 */
+	public static BoardLog create(File directory, MinesweeperBoard board)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot make log directory: " + directory);
+		}
+		new File(directory, SNAPSHOT_NAME).delete();
+		new File(directory, SNAPSHOT_NAME + ".tmp").delete();
+		for (long segment : segments(directory)) {
+			segmentFile(directory, segment).delete();
+		}
+		BoardLog log = new BoardLog(directory, board, 1, 0);
+		board.setLog(log);
+		// every change from here on is in segment 1
+		log.writeSnapshot(1);
+		log.writer.start();
+		return log;
+	}
+
+	/**
+	 * @return true if directory holds a log that recover() can read
+	 */
+	public static boolean exists(File directory) {
+		return new File(directory, SNAPSHOT_NAME).isFile();
+	}
+
+	/**
+	 * Rebuilds the board logged in directory, as it was when the last
+	 * committed batch was written, and carries on logging it.
+	 *
+	 * @throws IOException
+	 *             if the log cannot be read or is corrupt
+	 */
+	public static BoardLog recover(File directory) throws IOException {
+		new File(directory, SNAPSHOT_NAME + ".tmp").delete();
+		BoardSnapshot snapshot = BoardSnapshot.read(new File(directory,
+				SNAPSHOT_NAME));
+		long next = snapshot.replayFrom;
+		long replayed = 0;
+		for (long segment : segments(directory)) {
+			File file = segmentFile(directory, segment);
+			if (segment < snapshot.replayFrom) {
+				// left behind by a crash right after the snapshot
+				file.delete();
+			} else {
+				replayed += replay(file, snapshot.store, snapshot.states);
+				next = segment + 1;
+			}
+		}
+		MinesweeperBoard board = new MinesweeperBoard(snapshot.store,
+				snapshot.states);
+		// a torn frame ends its segment, so the log goes on in a new one
+		BoardLog log = new BoardLog(directory, board, next, replayed);
+		board.setLog(log);
+		log.writer.start();
+		return log;
+	}
+
+	/**
+	 * @return the board being logged
+	 */
+	public MinesweeperBoard board() {
+		return board;
+	}
+
+	/**
+	 * Waits until every change logged before this call is on the disk.
+	 *
+	 * @throws IOException
+	 *             if the log could not be written
+	 */
+	public void sync() throws IOException {
+		lock.lock();
+		try {
+			long target = appended;
+			while (committed < target && failure == null) {
+				done.awaitUninterruptibly();
+			}
+			checkFailure();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the board now rather than when the log has grown,
+	 * and waits for it to be written.
+	 *
+	 * @throws IOException
+	 *             if the log or the snapshot could not be written
+	 */
+	public void snapshot() throws IOException {
+		lock.lock();
+		try {
+			long target = ++snapshotsWanted;
+			work.signal();
+			while (snapshotsTaken < target && failure == null && !closing) {
+				done.awaitUninterruptibly();
+			}
+			checkFailure();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops logging the board, after committing everything logged so far.
+	 * Changes made to the board after this call are not logged.
+	 *
+	 * @throws IOException
+	 *             if the log could not be written
+	 */
+	public void close() throws IOException {
+		board.setLog(null);
+		lock.lock();
+		try {
+			closing = true;
+			work.signal();
+		} finally {
+			lock.unlock();
+		}
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		lock.lock();
+		try {
+			checkFailure();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("Board log failed: " + directory, failure);
+		}
+	}
+
+	private static List<ByteBuffer> newBatch() {
+		List<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+		batch.add(ByteBuffer.allocate(BUFFER_BYTES));
+		return batch;
+	}
+
+	/**
+	 * Adds changes of one command to the batch being filled. Called by the
+	 * board, holding the band locks of the changed squares, with up to
+	 * FRAME_RECORDS changes at a time.
+	 *
+	 * @param states
+	 *            the changed squares, each with its new state rather than a
+	 *            glyph
+	 */
+	void append(ChangeList states) {
+		lock.lock();
+		try {
+			if (closing || failure != null) {
+				return;
+			}
+			ByteBuffer buffer = batch.get(batch.size() - 1);
+			for (int i = 0; i < states.size(); i++) {
+				if (buffer.remaining() < RECORD_BYTES) {
+					buffer = makeRoom(buffer);
+				}
+				buffer.putInt(states.getX(i)).putInt(states.getY(i))
+						.put((byte) states.getGlyph(i));
+			}
+			appended++;
+			work.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Makes room for more records after full, the last buffer of the batch,
+	 * by replacing it with one twice its size, or once it holds a whole
+	 * frame, by starting the next frame in a new buffer.
+	 *
+	 * @return the buffer to go on filling
+	 */
+	private ByteBuffer makeRoom(ByteBuffer full) {
+		ByteBuffer next;
+		if (full.capacity() < MAX_FRAME_BYTES) {
+			next = ByteBuffer.allocate(Math.min(2 * full.capacity(),
+					MAX_FRAME_BYTES));
+			full.flip();
+			next.put(full);
+			batch.set(batch.size() - 1, next);
+		} else {
+			next = ByteBuffer.allocate(BUFFER_BYTES);
+			batch.add(next);
+		}
+		return next;
+	}
+
+	/**
+	 * Body of the writer thread: commits batches as they fill, and takes
+	 * snapshots, until the log is closed or writing fails.
+	 */
+	private void writeBatches() {
+		try {
+			while (true) {
+				long target;
+				long wanted;
+				lock.lock();
+				try {
+					while (batch.get(0).position() == 0 && !closing
+							&& snapshotsTaken == snapshotsWanted) {
+						work.awaitUninterruptibly();
+					}
+					if (batch.get(0).position() == 0 && closing) {
+						return;
+					}
+					List<ByteBuffer> full = batch;
+					batch = writing;
+					writing = full;
+					target = appended;
+					wanted = snapshotsWanted;
+				} finally {
+					lock.unlock();
+				}
+				writeBatch(writing);
+				lock.lock();
+				try {
+					committed = target;
+					done.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				if (wanted > snapshotsTaken
+						|| loggedSinceSnapshot >= SNAPSHOT_LOG_BYTES) {
+					// every change not yet written goes to the new segment
+					startSegment(segment + 1);
+					writeSnapshot(segment);
+					lock.lock();
+					try {
+						snapshotsTaken = Math.max(snapshotsTaken, wanted);
+						done.signalAll();
+					} finally {
+						lock.unlock();
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			lock.lock();
+			try {
+				failure = e;
+				done.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffers of a batch to the current segment, one frame each,
+	 * and forces them to the disk. Leaves the batch empty, keeping its first
+	 * buffer to fill again.
+	 */
+	private void writeBatch(List<ByteBuffer> buffers) throws IOException {
+		for (ByteBuffer buffer : buffers) {
+			writeFrame(buffer);
+		}
+		channel.force(false);
+		ByteBuffer first = buffers.get(0);
+		first.clear();
+		buffers.clear();
+		buffers.add(first);
+	}
+
+	/**
+	 * Writes the records in buffer to the current segment as one frame.
+	 */
+	private void writeFrame(ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		if (!buffer.hasRemaining()) {
+			return;
+		}
+		crc.reset();
+		crc.update(buffer.array(), buffer.arrayOffset(), buffer.limit());
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+		header.putInt(buffer.limit()).putInt((int) crc.getValue()).flip();
+		ByteBuffer[] frame = { header, buffer };
+		while (buffer.hasRemaining()) {
+			channel.write(frame);
+		}
+		loggedSinceSnapshot += FRAME_HEADER_BYTES + buffer.limit();
+	}
+
+	/**
+	 * Closes the current segment, if any, and starts writing segment number
+	 * next.
+	 */
+	private void startSegment(long next) throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+		File file = segmentFile(directory, next);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+		header.putInt(MAGIC).putInt(VERSION).flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(true);
+		forceDirectory();
+		segment = next;
+	}
+
+	/**
+	 * Writes a snapshot of the board that the log is replayed over from
+	 * segment replayFrom on, then deletes the segments before it.
+	 */
+	private void writeSnapshot(long replayFrom) throws IOException {
+		File temporary = new File(directory, SNAPSHOT_NAME + ".tmp");
+		BoardSnapshot.write(board, replayFrom, temporary, false);
+		Files.move(temporary.toPath(),
+				new File(directory, SNAPSHOT_NAME).toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory();
+		for (long old : segments(directory)) {
+			if (old < replayFrom) {
+				segmentFile(directory, old).delete();
+			}
+		}
+		loggedSinceSnapshot = 0;
+	}
+
+	/**
+	 * Forces the directory entries of the log to the disk, where the
+	 * platform allows opening a directory.
+	 */
+	private void forceDirectory() {
+		try {
+			FileChannel dir = FileChannel.open(directory.toPath(),
+					StandardOpenOption.READ);
+			try {
+				dir.force(true);
+			} finally {
+				dir.close();
+			}
+		} catch (IOException e) {
+			// not supported here; the entries reach the disk eventually
+		}
+	}
+
+	private static File segmentFile(File directory, long segment) {
+		return new File(directory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * @return the numbers of the segments in directory, in increasing order
+	 */
+	private static List<Long> segments(File directory) {
+		List<Long> segments = new ArrayList<Long>();
+		String[] names = directory.list();
+		if (names == null) {
+			return segments;
+		}
+		for (String name : names) {
+			if (name.startsWith(SEGMENT_PREFIX)
+					&& name.endsWith(SEGMENT_SUFFIX)) {
+				try {
+					segments.add(Long.parseLong(name.substring(
+							SEGMENT_PREFIX.length(),
+							name.length() - SEGMENT_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Applies the records of every whole frame of a segment to store, and
+	 * moves each square it changes to its new state in states, the counts of
+	 * store indexed as in StateCounts. The segment is read a frame at a
+	 * time.
+	 *
+	 * @return bytes of frames replayed
+	 * @throws IOException
+	 *             if the segment cannot be read, or a frame passes its
+	 *             checksum but does not hold valid records
+	 */
+	private static long replay(File file, CellStore store, long[] states)
+			throws IOException {
+		FileChannel in = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long length = in.size();
+			if (length < SEGMENT_HEADER_BYTES) {
+				// cut short while it was being started
+				return 0;
+			}
+			ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+			header.limit(SEGMENT_HEADER_BYTES);
+			readFully(in, header);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a log segment: " + file);
+			}
+			CRC32 check = new CRC32();
+			ByteBuffer payload = ByteBuffer.allocate(BUFFER_BYTES);
+			int size = store.size();
+			long replayed = 0;
+			while (length - in.position() >= FRAME_HEADER_BYTES) {
+				header.clear();
+				readFully(in, header);
+				int frameLength = header.getInt();
+				int checksum = header.getInt();
+				if (frameLength <= 0 || frameLength % RECORD_BYTES != 0
+						|| frameLength > length - in.position()) {
+					break;
+				}
+				if (payload.capacity() < frameLength) {
+					payload = ByteBuffer.allocate(frameLength);
+				}
+				payload.clear();
+				payload.limit(frameLength);
+				readFully(in, payload);
+				check.reset();
+				check.update(payload.array(), 0, frameLength);
+				if ((int) check.getValue() != checksum) {
+					break;
+				}
+				while (payload.hasRemaining()) {
+					int x = payload.getInt();
+					int y = payload.getInt();
+					char state = (char) payload.get();
+					if (x < 0 || x >= size || y < 0 || y >= size
+							|| !isState(state)) {
+						throw new IOException("Corrupt log segment: " + file);
+					}
+					states[StateCounts.indexOf(store.get(x, y))]--;
+					states[StateCounts.indexOf(state)]++;
+					store.set(x, y, state);
+				}
+				replayed += FRAME_HEADER_BYTES + frameLength;
+			}
+			return replayed;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fills buffer from in, and flips it to be read.
+	 */
+	private static void readFully(FileChannel in, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				throw new IOException("Log segment cut short");
+			}
+		}
+		buffer.flip();
+	}
+
+	private static boolean isState(char state) {
+		return state == CellStore.BOMB || state == CellStore.UNTOUCHED
+				|| state == CellStore.DUG || state == CellStore.FLAGGED
+				|| state == CellStore.FLAGGED_BOMB;
+	}
+}
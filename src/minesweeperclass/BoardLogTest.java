@@ -0,0 +1,266 @@
+package minesweeperclass;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BoardLogTest {
+
+	/*
+	 * Test BoardLog and BoardSnapshot, recovering boards from their logs
+	 *
+	 * Testing space: recovery from the first snapshot alone, from a later
+	 * snapshot plus the log after it, with a torn frame at the end of the
+	 * log, after recovering once already, array and bitplane boards, moves
+	 * made by several threads while a snapshot is written
+	 */
+
+	private static File newDirectory() throws IOException {
+		File directory = File.createTempFile("board", ".log");
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	private static void deleteDirectory(File directory) {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static char[][] randomSquares(int size, long seed) {
+		Random random = new Random(seed);
+		char[][] squares = new char[size][size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				squares[y][x] = random.nextInt(8) == 0 ? 'B' : '-';
+			}
+		}
+		return squares;
+	}
+
+	private static void playRandomMoves(MinesweeperBoard board, int moves,
+			long seed) {
+		Random random = new Random(seed);
+		int size = board.getSize();
+		for (int i = 0; i < moves; i++) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			int kind = random.nextInt(4);
+			if (kind == 0) {
+				board.flag(x, y, null);
+			} else if (kind == 1) {
+				board.deFlag(x, y, null);
+			} else {
+				board.dig(x, y, null);
+			}
+		}
+	}
+
+	/**
+	 * Asserts that every square of both boards is in the same state.
+	 */
+	private static void assertSameSquares(MinesweeperBoard expected,
+			MinesweeperBoard actual) {
+		int size = expected.getSize();
+		assertEquals(size, actual.getSize());
+		char[][] expectedRows = new char[MinesweeperBoard.BAND_ROWS][size];
+		char[][] actualRows = new char[MinesweeperBoard.BAND_ROWS][size];
+		for (int top = 0; top < size; top += MinesweeperBoard.BAND_ROWS) {
+			int bottom = Math.min(top + MinesweeperBoard.BAND_ROWS, size) - 1;
+			expected.readRows(top, bottom, expectedRows);
+			actual.readRows(top, bottom, actualRows);
+			for (int y = 0; y <= bottom - top; y++) {
+				assertEquals(new String(expectedRows[y]), new String(
+						actualRows[y]));
+			}
+		}
+	}
+
+	/**
+	 * Asserts that a recovered board counts its squares like the board it
+	 * was recovered from.
+	 */
+	private static void assertSameCounts(BoardStatus expected,
+			BoardStatus actual) {
+		assertEquals(expected.getSafeSquaresLeft(),
+				actual.getSafeSquaresLeft());
+		assertEquals(expected.getBombs(), actual.getBombs());
+		assertEquals(expected.getFlags(), actual.getFlags());
+		assertEquals(expected.getCorrectFlags(), actual.getCorrectFlags());
+	}
+
+	@Test
+	public void recoverTest() throws IOException {
+		File directory = newDirectory();
+		MinesweeperBoard board = new MinesweeperBoard(randomSquares(40, 1));
+		BoardLog log = BoardLog.create(directory, board);
+		assertTrue(BoardLog.exists(directory));
+		playRandomMoves(board, 200, 2);
+		log.sync();
+
+		// recover while the first log is still open, as after a crash
+		BoardLog recovered = BoardLog.recover(directory);
+		assertEquals(board.look(), recovered.board().look());
+		assertSameCounts(board.status(), recovered.board().status());
+		recovered.close();
+		log.close();
+		deleteDirectory(directory);
+	}
+
+	@Test
+	public void snapshotTest() throws IOException {
+		File directory = newDirectory();
+		MinesweeperBoard board = new MinesweeperBoard(randomSquares(40, 3));
+		BoardLog log = BoardLog.create(directory, board);
+		playRandomMoves(board, 100, 4);
+		log.snapshot();
+		// the snapshot replaces the log written before it
+		assertFalse(new File(directory, "board.1.log").exists());
+		assertTrue(new File(directory, "board.2.log").exists());
+		playRandomMoves(board, 100, 5);
+		log.close();
+
+		BoardLog recovered = BoardLog.recover(directory);
+		assertEquals(board.look(), recovered.board().look());
+		// carry on playing on the recovered board, and recover again
+		MinesweeperBoard second = recovered.board();
+		playRandomMoves(second, 100, 6);
+		recovered.close();
+		BoardLog again = BoardLog.recover(directory);
+		assertEquals(second.look(), again.board().look());
+		assertSameCounts(second.status(), again.board().status());
+		again.close();
+		deleteDirectory(directory);
+	}
+
+	@Test
+	public void tornFrameTest() throws IOException {
+		File directory = newDirectory();
+		char[][] squares = randomSquares(20, 7);
+		MinesweeperBoard board = new MinesweeperBoard(squares);
+		BoardLog log = BoardLog.create(directory, board);
+		board.flag(3, 3, null);
+		log.sync();
+		board.flag(4, 4, null);
+		log.close();
+		// cut the last frame short, as if the process died writing it
+		File segment = new File(directory, "board.1.log");
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(segment.length() - 3);
+		file.close();
+
+		BoardLog recovered = BoardLog.recover(directory);
+		MinesweeperBoard second = recovered.board();
+		assertEquals('F', second.look().get(3).charAt(6));
+		assertEquals('-', second.look().get(4).charAt(8));
+		// the torn frame stays behind, and the log goes on after it
+		second.flag(5, 5, null);
+		recovered.close();
+		assertTrue(new File(directory, "board.2.log").exists());
+		BoardLog again = BoardLog.recover(directory);
+		assertEquals(second.look(), again.board().look());
+		assertSameCounts(second.status(), again.board().status());
+		again.close();
+		deleteDirectory(directory);
+	}
+
+	@Test(timeout = 60000)
+	public void largeFloodTest() throws IOException {
+		// a flood changing more squares than a frame holds is logged in
+		// several frames
+		File directory = newDirectory();
+		int size = 300;
+		MinesweeperBoard board = new MinesweeperBoard(new BitPlaneCellStore(
+				size));
+		BoardLog log = BoardLog.create(directory, board);
+		board.dig(0, 0, null);
+		log.close();
+		File segment = new File(directory, "board.1.log");
+		long records = (long) size * size;
+		long frameBytes = segment.length() - BoardLog.SEGMENT_HEADER_BYTES
+				- records * BoardLog.RECORD_BYTES;
+		long frames = frameBytes / BoardLog.FRAME_HEADER_BYTES;
+		assertEquals((records + BoardLog.FRAME_RECORDS - 1)
+				/ BoardLog.FRAME_RECORDS, frames);
+
+		BoardLog recovered = BoardLog.recover(directory);
+		assertSameSquares(board, recovered.board());
+		assertEquals(0, recovered.board().status().getSafeSquaresLeft());
+		recovered.close();
+		deleteDirectory(directory);
+	}
+
+	@Test(timeout = 60000)
+	public void bitPlaneBoardTest() throws IOException {
+		// large enough to be kept in bitplanes
+		int size = MinesweeperBoard.MAX_ARRAY_STORE_SIZE + 100;
+		File directory = newDirectory();
+		MinesweeperBoard board = new MinesweeperBoard(new BitPlaneCellStore(
+				size));
+		BoardLog log = BoardLog.create(directory, board);
+		playRandomMoves(board, 300, 8);
+		log.snapshot();
+		playRandomMoves(board, 300, 9);
+		log.close();
+		BoardLog recovered = BoardLog.recover(directory);
+		assertSameSquares(board, recovered.board());
+		recovered.close();
+		deleteDirectory(directory);
+	}
+
+	@Test(timeout = 60000)
+	public void snapshotWhilePlayingTest() throws Exception {
+		// the bands are copied at different times, and the log after the
+		// snapshot makes up for the moves made meanwhile
+		File directory = newDirectory();
+		final MinesweeperBoard board = new MinesweeperBoard(randomSquares(
+				300, 10));
+		BoardLog log = BoardLog.create(directory, board);
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int seed = 11 + i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					playRandomMoves(board, 3000, seed);
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < 5; i++) {
+			log.snapshot();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		log.close();
+		BoardLog recovered = BoardLog.recover(directory);
+		assertSameSquares(board, recovered.board());
+		recovered.close();
+		deleteDirectory(directory);
+	}
+
+	@Test(expected = IOException.class)
+	public void corruptSnapshotTest() throws IOException {
+		File directory = newDirectory();
+		BoardLog log = BoardLog.create(directory, new MinesweeperBoard(
+				randomSquares(10, 12)));
+		log.close();
+		File snapshot = new File(directory, "board.snapshot");
+		RandomAccessFile file = new RandomAccessFile(snapshot, "rw");
+		file.setLength(snapshot.length() - 1);
+		file.close();
+		try {
+			BoardLog.recover(directory);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+}
@@ -0,0 +1,360 @@
+package minesweeperclass;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A snapshot of every square of a board. BoardLog writes one so that
+ * recovery only has to replay the part of the log written after it, and
+ * MinesweeperBoard.save() writes one as a binary board file, which keeps a
+ * game in progress and loads without parsing any text.
+ *
+ * Squares are packed as in BitPlaneCellStore, three bits per square, so a
+ * 10000x10000 board takes about 38MB and is read back in a few bulk reads,
+ * or much less compressed. A board larger than
+ * MinesweeperBoard.MAX_ARRAY_STORE_SIZE gets its bitplanes straight from the
+ * file; a smaller one is unpacked into an ArrayCellStore.
+ *
+ * File layout: a HEADER_BYTES header of MAGIC, VERSION, flags and size as
+ * big-endian ints, the number of the first log segment to replay as a
+ * big-endian long (0 outside a BoardLog), the CRC-32 of the header before it
+ * and the CRC-32 of the uncompressed rows, each as a big-endian int. The
+ * header is checked against its own checksum, and size against MAX_SIZE,
+ * before anything is allocated for the rows. The rows
+ * follow, each as its bomb, dug and flag bits, each of those as (size + 63)
+ * / 64 big-endian longs with square x in bit x % 64 of long x / 64. If the
+ * COMPRESSED flag is set the rows are one deflate stream, as written by
+ * java.util.zip.Deflater; otherwise they are stored as they are.
+ */
+final class BoardSnapshot {
+	static final int MAGIC = 0x4D535753; // "MSWS"
+	static final int VERSION = 2;
+	static final int HEADER_BYTES = 32;
+	/**
+	 * Largest size of a snapshot read back; the bomb plane of a board any
+	 * larger would take over 128GB.
+	 */
+	static final int MAX_SIZE = 1 << 20;
+	/** Flag set if the rows are compressed. */
+	static final int COMPRESSED = 1;
+	/** Bytes read or written at a time, give or take a row. */
+	private static final int CHUNK_BYTES = 1 << 20;
+
+	/** The squares of the snapshot. */
+	final CellStore store;
+	/**
+	 * Number of squares of the snapshot in each state, indexed as in
+	 * StateCounts.
+	 */
+	final long[] states;
+	/** Number of the first log segment written after the snapshot. */
+	final long replayFrom;
+
+	private BoardSnapshot(CellStore store, long[] states, long replayFrom) {
+		this.store = store;
+		this.states = states;
+		this.replayFrom = replayFrom;
+	}
+
+	/**
+	 * Writes a snapshot of board to file, replacing any existing contents,
+	 * and forces it to the disk. Each band of rows is copied under its band
+	 * lock, so the board stays in play meanwhile unless the caller holds the
+	 * locks of every band, but bands are copied at different times; the log
+	 * written from segment replayFrom on must hold every change made after
+	 * the copying started.
+	 *
+	 * @param compress
+	 *            true to deflate the rows, which costs time but takes much
+	 *            less space for boards mostly untouched or mostly dug
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	static void write(MinesweeperBoard board, long replayFrom, File file,
+			boolean compress) throws IOException {
+		int size = board.getSize();
+		int wordsPerRow = (size + 63) >>> 6;
+		int bandRows = MinesweeperBoard.BAND_ROWS;
+		FileOutputStream out = new FileOutputStream(file);
+		Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED)
+				: null;
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION)
+					.putInt(compress ? COMPRESSED : 0).putInt(size)
+					.putLong(replayFrom);
+			CRC32 crc = new CRC32();
+			crc.update(header.array(), 0, header.position());
+			header.putInt((int) crc.getValue());
+			crc.reset();
+			// the checksum of the rows is filled in once they are written
+			out.write(header.array());
+			OutputStream rowsOut = compress ? new DeflaterOutputStream(out,
+					deflater, CHUNK_BYTES) : out;
+
+			ByteBuffer buffer = ByteBuffer.allocate(Math.max(CHUNK_BYTES,
+					3 * 8 * wordsPerRow));
+			char[][] rows = new char[bandRows][size];
+			long[] bombs = new long[wordsPerRow];
+			long[] dug = new long[wordsPerRow];
+			long[] flags = new long[wordsPerRow];
+			for (int top = 0; top < size; top += bandRows) {
+				int bottom = Math.min(top + bandRows, size) - 1;
+				board.readRows(top, bottom, rows);
+				for (int y = top; y <= bottom; y++) {
+					pack(rows[y - top], bombs, dug, flags);
+					if (buffer.remaining() < 3 * 8 * wordsPerRow) {
+						drain(rowsOut, buffer, crc);
+					}
+					putWords(buffer, bombs);
+					putWords(buffer, dug);
+					putWords(buffer, flags);
+				}
+			}
+			drain(rowsOut, buffer, crc);
+			if (compress) {
+				((DeflaterOutputStream) rowsOut).finish();
+			}
+			FileChannel channel = out.getChannel();
+			ByteBuffer checksum = ByteBuffer.allocate(4);
+			checksum.putInt((int) crc.getValue()).flip();
+			while (checksum.hasRemaining()) {
+				channel.write(checksum, HEADER_BYTES - checksum.remaining());
+			}
+			channel.force(true);
+		} finally {
+			out.close();
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Sets the bits of the squares of row in the three planes.
+	 */
+	private static void pack(char[] row, long[] bombs, long[] dug,
+			long[] flags) {
+		for (int w = 0; w < bombs.length; w++) {
+			long bombBits = 0;
+			long dugBits = 0;
+			long flagBits = 0;
+			int end = Math.min(64, row.length - 64 * w);
+			for (int i = 0; i < end; i++) {
+				char state = row[64 * w + i];
+				long bit = 1L << i;
+				if (state == CellStore.BOMB) {
+					bombBits |= bit;
+				} else if (state == CellStore.DUG) {
+					dugBits |= bit;
+				} else if (state == CellStore.FLAGGED) {
+					flagBits |= bit;
+				} else if (state == CellStore.FLAGGED_BOMB) {
+					bombBits |= bit;
+					flagBits |= bit;
+				}
+			}
+			bombs[w] = bombBits;
+			dug[w] = dugBits;
+			flags[w] = flagBits;
+		}
+	}
+
+	private static void putWords(ByteBuffer buffer, long[] words) {
+		for (long word : words) {
+			buffer.putLong(word);
+		}
+	}
+
+	/**
+	 * Writes out what buffer holds, adding it to crc, and empties the
+	 * buffer.
+	 */
+	private static void drain(OutputStream out, ByteBuffer buffer, CRC32 crc)
+			throws IOException {
+		crc.update(buffer.array(), 0, buffer.position());
+		out.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+	}
+
+	/**
+	 * @return true if file starts like a snapshot, false if it does not or
+	 *         cannot be read
+	 */
+	static boolean isSnapshot(File file) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads a snapshot written by write().
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read, is not a snapshot or is corrupt
+	 */
+	static BoardSnapshot read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		Inflater inflater = null;
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			readFully(in, header.array(), HEADER_BYTES, file);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a snapshot file: " + file);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported snapshot file version "
+						+ version + ": " + file);
+			}
+			int flags = header.getInt();
+			int size = header.getInt();
+			long replayFrom = header.getLong();
+			int headerChecksum = header.getInt();
+			int checksum = header.getInt();
+			CRC32 crc = new CRC32();
+			crc.update(header.array(), 0, HEADER_BYTES - 8);
+			if ((int) crc.getValue() != headerChecksum) {
+				throw new IOException("Corrupt snapshot file: " + file);
+			}
+			crc.reset();
+			boolean compressed = (flags & COMPRESSED) != 0;
+			if ((flags & ~COMPRESSED) != 0 || size < 1 || size > MAX_SIZE) {
+				throw new IOException("Corrupt snapshot file: " + file);
+			}
+			int wordsPerRow = (size + 63) >>> 6;
+			int rowBytes = 3 * 8 * wordsPerRow;
+			if (!compressed
+					&& in.getChannel().size() != HEADER_BYTES + (long) rowBytes
+							* size) {
+				throw new IOException("Corrupt snapshot file: " + file);
+			}
+			InputStream rowsIn = in;
+			if (compressed) {
+				inflater = new Inflater();
+				rowsIn = new InflaterInputStream(in, inflater, CHUNK_BYTES);
+			}
+
+			boolean planes = size > MinesweeperBoard.MAX_ARRAY_STORE_SIZE;
+			BitPlaneCellStore planeStore = planes ? new BitPlaneCellStore(size)
+					: null;
+			char[][] cells = planes ? null : new char[size][size];
+			long[] states = new long[StateCounts.STATES];
+			// bits past the right edge of the board must be zero
+			long lastWordMask = (size & 63) == 0 ? -1L
+					: (1L << (size & 63)) - 1;
+			int rowsPerChunk = Math.max(1, CHUNK_BYTES / rowBytes);
+			ByteBuffer buffer = ByteBuffer.allocate(rowsPerChunk * rowBytes);
+			for (int top = 0; top < size; top += rowsPerChunk) {
+				int rows = Math.min(rowsPerChunk, size - top);
+				buffer.clear();
+				readFully(rowsIn, buffer.array(), rows * rowBytes, file);
+				crc.update(buffer.array(), 0, rows * rowBytes);
+				for (int y = top; y < top + rows; y++) {
+					long[] bombs = getWords(buffer, wordsPerRow);
+					long[] dug = getWords(buffer, wordsPerRow);
+					long[] flagBits = getWords(buffer, wordsPerRow);
+					int last = wordsPerRow - 1;
+					long used = bombs[last] | dug[last] | flagBits[last];
+					if ((used & ~lastWordMask) != 0) {
+						throw new IOException("Corrupt snapshot file: " + file);
+					}
+					for (int w = 0; w < wordsPerRow; w++) {
+						if ((dug[w] & (bombs[w] | flagBits[w])) != 0) {
+							throw new IOException("Corrupt snapshot file: "
+									+ file);
+						}
+					}
+					StateCounts.addPackedRow(states, bombs, dug, flagBits);
+					if (planes) {
+						planeStore.setRow(y, bombs, isZero(dug) ? null : dug,
+								isZero(flagBits) ? null : flagBits);
+					} else {
+						unpack(bombs, dug, flagBits, cells[y]);
+					}
+				}
+			}
+			if (rowsIn.read() >= 0 || (int) crc.getValue() != checksum) {
+				throw new IOException("Corrupt snapshot file: " + file);
+			}
+			StateCounts.countUntouched(states, size);
+			return new BoardSnapshot(planes ? planeStore : new ArrayCellStore(
+					cells), states, replayFrom);
+		} catch (ZipException e) {
+			throw new IOException("Corrupt snapshot file: " + file, e);
+		} finally {
+			in.close();
+			if (inflater != null) {
+				inflater.end();
+			}
+		}
+	}
+
+	private static long[] getWords(ByteBuffer buffer, int count) {
+		long[] words = new long[count];
+		for (int i = 0; i < count; i++) {
+			words[i] = buffer.getLong();
+		}
+		return words;
+	}
+
+	private static boolean isZero(long[] words) {
+		for (long word : words) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the squares of row from the bits of the three planes.
+	 */
+	private static void unpack(long[] bombs, long[] dug, long[] flags,
+			char[] row) {
+		for (int x = 0; x < row.length; x++) {
+			long bit = 1L << x;
+			boolean bomb = (bombs[x >>> 6] & bit) != 0;
+			boolean flagged = (flags[x >>> 6] & bit) != 0;
+			if ((dug[x >>> 6] & bit) != 0) {
+				row[x] = CellStore.DUG;
+			} else if (bomb) {
+				row[x] = flagged ? CellStore.FLAGGED_BOMB : CellStore.BOMB;
+			} else {
+				row[x] = flagged ? CellStore.FLAGGED : CellStore.UNTOUCHED;
+			}
+		}
+	}
+
+	private static void readFully(InputStream in, byte[] bytes, int length,
+			File file) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = in.read(bytes, read, length - read);
+			if (count < 0) {
+				throw new IOException("Truncated snapshot file: " + file);
+			}
+			read += count;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package minesweeperclass;
+
+/**
+ * How far a game has got, as returned by MinesweeperBoard.status(). The
+ * game is won once no safe square is left to dig. Digging a bomb does not
+ * end the game for the other players, so a lost game is one with bombs dug.
+ *
+ * A count the board cannot know is -1: a procedural board never counts its
+ * bombs, so it cannot tell how many bombs or safe squares it has left.
+ *
+ * Immutable.
+ */
+public final class BoardStatus {
+	private final long safeSquaresLeft;
+	private final long bombs;
+	private final long flags;
+	private final long correctFlags;
+	private final long bombsDug;
+
+	BoardStatus(long safeSquaresLeft, long bombs, long flags,
+			long correctFlags, long bombsDug) {
+		this.safeSquaresLeft = safeSquaresLeft;
+		this.bombs = bombs;
+		this.flags = flags;
+		this.correctFlags = correctFlags;
+		this.bombsDug = bombsDug;
+	}
+
+	/**
+	 * @return number of squares without a bomb not dug yet, flagged or not,
+	 *         or -1 if unknown
+	 */
+	public long getSafeSquaresLeft() {
+		return safeSquaresLeft;
+	}
+
+	/**
+	 * @return number of bombs left on the board, flagged or not, or -1 if
+	 *         unknown
+	 */
+	public long getBombs() {
+		return bombs;
+	}
+
+	/**
+	 * @return number of flagged squares
+	 */
+	public long getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @return number of flagged squares holding a bomb
+	 */
+	public long getCorrectFlags() {
+		return correctFlags;
+	}
+
+	/**
+	 * @return number of bombs dug by players since the board was made
+	 */
+	public long getBombsDug() {
+		return bombsDug;
+	}
+
+	/**
+	 * @return true if every safe square has been dug
+	 */
+	public boolean isWon() {
+		return safeSquaresLeft == 0;
+	}
+}
@@ -0,0 +1,57 @@
+package minesweeperclass;
+
+/**
+ * Storage engine behind a MinesweeperBoard. A CellStore holds the state of
+ * every square of a size x size board and keeps track of how many bombs
+ * surround each square. It knows nothing about the rules of the game; the
+ * board decides which transitions are legal.
+ * 
+ * Squares are addressed as (x, y) with 0 <= x, y < size(). Callers are
+ * responsible for bounds checks. Implementations are not threadsafe; the
+ * board guards every access.
+ */
+interface CellStore {
+	char BOMB = 'B';
+	char UNTOUCHED = '-';
+	char DUG = 'D';
+	char FLAGGED = 'F';
+	char FLAGGED_BOMB = 'C';
+
+	/**
+	 * @return the number of squares along each side of the board
+	 */
+	int size();
+
+	/**
+	 * @return the state of the square at (x, y), one of BOMB, UNTOUCHED, DUG,
+	 *         FLAGGED or FLAGGED_BOMB
+	 */
+	char get(int x, int y);
+
+	/**
+	 * Sets the state of the square at (x, y). Bomb neighbor counts are updated
+	 * if the square gains or loses a bomb.
+	 * 
+	 * @param state
+	 *            one of BOMB, UNTOUCHED, DUG, FLAGGED or FLAGGED_BOMB
+	 * @throws IllegalArgumentException
+	 *             if state is not a valid square state
+	 */
+	void set(int x, int y, char state);
+
+	/**
+	 * @return the number of bombs, flagged or not, among the eight squares
+	 *         around (x, y)
+	 */
+	int bombNeighbors(int x, int y);
+
+	/**
+	 * Counts the squares in each state. Looks at every square, or every word
+	 * of a packed store, so the board only calls it when it is made over a
+	 * store whose maker did not count the squares as it filled them in.
+	 * 
+	 * @return the number of squares in each state, indexed as in
+	 *         StateCounts, with -1 for a state the store cannot count
+	 */
+	long[] countStates();
+}
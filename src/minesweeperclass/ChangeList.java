@@ -0,0 +1,110 @@
+package minesweeperclass;
+
+/**
+ * The squares changed by one command, each with the glyph it shows right
+ * after the command, in the order they changed. Filled by the board methods
+ * that take a ChangeList, which record changes instead of rendering the whole
+ * board.
+ * 
+ * A list can be given a limit. Once more squares change than the limit allows
+ * it stops recording and reports overflowed(); the caller should then fall
+ * back to the whole board, which is the cheaper answer for a change that
+ * large.
+ * 
+ * Not threadsafe: a list is meant to be reused by one client, command after
+ * command.
+ */
+public class ChangeList {
+	private int limit = Integer.MAX_VALUE;
+	/** x and y of change i are squares[2 * i] and squares[2 * i + 1] */
+	private int[] squares = new int[32];
+	private char[] glyphs = new char[16];
+	private int size = 0;
+	private boolean overflowed = false;
+
+	/**
+	 * Empties the list and removes its limit.
+	 */
+	public void clear() {
+		clear(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Empties the list.
+	 * 
+	 * @param limit
+	 *            most changes to record before overflowing, requires limit >=
+	 *            0
+	 */
+	public void clear(int limit) {
+		this.limit = limit;
+		size = 0;
+		overflowed = false;
+	}
+
+	/**
+	 * @return number of changes recorded, 0 if the list overflowed
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if more squares changed than the limit allowed
+	 */
+	public boolean overflowed() {
+		return overflowed;
+	}
+
+	public int getX(int i) {
+		checkIndex(i);
+		return squares[2 * i];
+	}
+
+	public int getY(int i) {
+		checkIndex(i);
+		return squares[2 * i + 1];
+	}
+
+	/**
+	 * @return the character a player sees for the square of change i, as in
+	 *         the rows of MinesweeperBoard.look()
+	 */
+	public char getGlyph(int i) {
+		checkIndex(i);
+		return glyphs[i];
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("change " + i + ", size "
+					+ size);
+		}
+	}
+
+	/**
+	 * Records that the square at (x, y) changed to show glyph.
+	 */
+	public void add(int x, int y, char glyph) {
+		if (overflowed) {
+			return;
+		}
+		if (size == limit) {
+			overflowed = true;
+			size = 0;
+			return;
+		}
+		if (size == glyphs.length) {
+			int[] biggerSquares = new int[2 * squares.length];
+			System.arraycopy(squares, 0, biggerSquares, 0, squares.length);
+			squares = biggerSquares;
+			char[] biggerGlyphs = new char[2 * glyphs.length];
+			System.arraycopy(glyphs, 0, biggerGlyphs, 0, glyphs.length);
+			glyphs = biggerGlyphs;
+		}
+		squares[2 * size] = x;
+		squares[2 * size + 1] = y;
+		glyphs[size] = glyph;
+		size++;
+	}
+}
@@ -0,0 +1,187 @@
+package minesweeperclass;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * CellStore keeping the board in a memory-mapped file, one byte per square.
+ * The squares live outside the Java heap, so the board size is limited by
+ * disk and address space rather than by -Xmx, and the garbage collector never
+ * scans them.
+ * 
+ * Every change is a single byte written straight into the mapping, so the
+ * file always holds a consistent board: if the process dies the operating
+ * system still writes the dirty pages back, and the game can be reopened
+ * where it stopped. force() additionally pushes the pages to the disk, which
+ * is needed to survive a machine crash.
+ * 
+ * Bomb neighbor counts are not stored in the file; they are read from the
+ * eight surrounding bytes, which keeps every update a single write.
+ * 
+ * File layout: a HEADER_BYTES header (MAGIC, VERSION, size as big-endian
+ * ints) followed by size * size state bytes in row-major order.
+ */
+class MappedCellStore implements CellStore {
+	static final int MAGIC = 0x4D535742; // "MSWB"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 12;
+	/**
+	 * Largest region mapped by a single MappedByteBuffer. Each segment holds a
+	 * whole number of rows.
+	 */
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	private final int size;
+	private final int rowsPerSegment;
+	private final MappedByteBuffer[] segments;
+
+	private MappedCellStore(FileChannel channel, int size) throws IOException {
+		this.size = size;
+		rowsPerSegment = (int) Math.max(1, MAX_SEGMENT_BYTES / size);
+		int segmentCount = (size + rowsPerSegment - 1) / rowsPerSegment;
+		segments = new MappedByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			long firstRow = (long) i * rowsPerSegment;
+			long rows = Math.min(rowsPerSegment, size - firstRow);
+			segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+					HEADER_BYTES + firstRow * size, rows * size);
+		}
+	}
+
+	/**
+	 * Creates file (replacing any existing contents) holding a copy of the
+	 * squares in source, and maps it.
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be created or mapped
+	 */
+	static MappedCellStore create(File file, CellStore source)
+			throws IOException {
+		int size = source.size();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(size).flip();
+			while (header.hasRemaining()) {
+				channel.write(header, HEADER_BYTES - header.remaining());
+			}
+			raf.setLength(HEADER_BYTES + (long) size * size);
+			MappedCellStore store = new MappedCellStore(channel, size);
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					store.put(x, y, source.get(x, y));
+				}
+			}
+			store.force();
+			return store;
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps a file previously written by create().
+	 * 
+	 * @throws IOException
+	 *             if the file cannot be read or is not a board file
+	 */
+	static MappedCellStore open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					throw new IOException("Truncated board file: " + file);
+				}
+			}
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not a board file: " + file);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported board file version "
+						+ version + ": " + file);
+			}
+			int size = header.getInt();
+			if (size < 1 || raf.length() != HEADER_BYTES + (long) size * size) {
+				throw new IOException("Corrupt board file: " + file);
+			}
+			return new MappedCellStore(channel, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes every changed page of the mapping to the disk.
+	 */
+	void force() {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+
+	private int offset(int x, int y) {
+		return (y % rowsPerSegment) * size + x;
+	}
+
+	private void put(int x, int y, char state) {
+		segments[y / rowsPerSegment].put(offset(x, y), (byte) state);
+	}
+
+	private boolean isBomb(int x, int y) {
+		char state = get(x, y);
+		return state == BOMB || state == FLAGGED_BOMB;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public char get(int x, int y) {
+		return (char) segments[y / rowsPerSegment].get(offset(x, y));
+	}
+
+	@Override
+	public void set(int x, int y, char state) {
+		if (!(state == BOMB || state == UNTOUCHED || state == DUG
+				|| state == FLAGGED || state == FLAGGED_BOMB)) {
+			throw new IllegalArgumentException("Invalid square state: "
+					+ state);
+		}
+		put(x, y, state);
+	}
+
+	@Override
+	public int bombNeighbors(int x, int y) {
+		int top = Math.max(y - 1, 0);
+		int bottom = Math.min(y + 1, size - 1);
+		int left = Math.max(x - 1, 0);
+		int right = Math.min(x + 1, size - 1);
+		int count = 0;
+		for (int j = top; j <= bottom; j++) {
+			for (int i = left; i <= right; i++) {
+				if (!(i == x && j == y) && isBomb(i, j)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long[] countStates() {
+		return StateCounts.count(this);
+	}
+}
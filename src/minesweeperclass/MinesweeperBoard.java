@@ -1,17 +1,136 @@
 package minesweeperclass;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MinesweeperBoard {
-	private final char[][] Board;
-	private final char BOMB = 'B';
-	private final char UNTOUCHED = '-';
-	private final char DUG = 'D';
-	private final char FLAGGED = 'F';
-	private final char FLAGGED_BOMB = 'C';
+	/**
+	 * Boards larger than this many squares along a side are stored in
+	 * bitplanes rather than in char and byte arrays.
+	 */
+	static final int MAX_ARRAY_STORE_SIZE = 4096;
+	/**
+	 * Chance of each square being a bomb on a board made from just a size.
+	 */
+	public static final double DEFAULT_DENSITY = 0.25;
+	/**
+	 * Most squares along a side of a procedural board. The board still keeps
+	 * a lock per band of rows, about 12MB at this size.
+	 */
+	public static final int MAX_PROCEDURAL_SIZE = 1 << 22;
+	/**
+	 * Lowest bomb density of a procedural board. Below about 0.1 the squares
+	 * with no bomb neighbors join up into regions spanning the board, and a
+	 * single dig would flood most of it.
+	 */
+	public static final double MIN_PROCEDURAL_DENSITY = 0.15;
+	/**
+	 * Number of rows guarded by each band lock.
+	 */
+	static final int BAND_ROWS = 16;
+
+	private final CellStore Board;
+	private final char BOMB = CellStore.BOMB;
+	private final char UNTOUCHED = CellStore.UNTOUCHED;
+	private final char DUG = CellStore.DUG;
+	private final char FLAGGED = CellStore.FLAGGED;
+	private final char FLAGGED_BOMB = CellStore.FLAGGED_BOMB;
 	private final int size;
-	private int players = 0;
+	/**
+	 * The board is split into horizontal bands of BAND_ROWS rows. bandLocks[b]
+	 * guards the squares, render cache and neighbor counts of rows b *
+	 * BAND_ROWS up to (b + 1) * BAND_ROWS - 1.
+	 */
+	private final ReentrantLock[] bandLocks;
+	/**
+	 * Command work spaces not in use by any command. A command takes one and
+	 * puts it back when done, so there are only ever as many as there have
+	 * been concurrent commands, however many threads make them.
+	 */
+	private final ConcurrentLinkedQueue<Digger> idleDiggers = new ConcurrentLinkedQueue<Digger>();
+	private final List<BoardListener> listeners = new CopyOnWriteArrayList<BoardListener>();
+	/**
+	 * Log every change is written to, or null (see BoardLog).
+	 */
+	private volatile BoardLog log;
+	/**
+	 * Most changes listed in one call to the listeners. Larger changes are
+	 * reported as overflowed, since the whole board is then no bigger.
+	 */
+	private final int maxListedChanges;
+	/**
+	 * Render cache. rendered[y] holds the printable characters of row y (cells
+	 * separated by spaces) and is patched in place whenever a cell of that row
+	 * changes; it is null until the row is first rendered. rowCache[y] is the
+	 * String form of rendered[y], or null if the row changed since it was last
+	 * built. Both are guarded by the band lock of row y. The arrays themselves
+	 * are null until the whole board is first asked for, so a board only ever
+	 * looked at through windows has no per-row render cost; they are made
+	 * while holding every band lock.
+	 */
+	private char[][] rendered;
+	private String[] rowCache;
+	/**
+	 * The current rendering of the whole board, read by look() without
+	 * locking. Null until the whole board is first asked for. Once set, every
+	 * command replaces it, before releasing its band locks, with a copy in
+	 * which the rows it changed are rebuilt, so it always shows every finished
+	 * command. Published lists are never modified.
+	 */
+	private final AtomicReference<List<String>> published = new AtomicReference<List<String>>();
+	/**
+	 * Running counts for status(), each the change in its count since the
+	 * board was made. Every command adds what it changed once, before it
+	 * releases its band locks, so while a thread holds every band lock they
+	 * stay put and match the squares. Each is updated on its own, so win
+	 * detection needs only safeSquaresLeft.
+	 */
+	private final AtomicLong safeSquaresLeft = new AtomicLong();
+	private final AtomicLong bombCount = new AtomicLong();
+	private final AtomicLong flagCount = new AtomicLong();
+	private final AtomicLong correctFlagCount = new AtomicLong();
+	/** Bombs dug since the board was made. */
+	private final AtomicLong bombsDug = new AtomicLong();
+	/**
+	 * The four counts above, in that order, when the board was made, -1 for
+	 * one the store cannot count. Given to the constructor by whatever
+	 * filled the store, which saw every square as it did.
+	 */
+	private final long[] countsAtStart;
+
+	/**
+	 * Work space of one command: the dig flood queue, squares waiting for a
+	 * band lock, the set of band locks held, where the caller wants changed
+	 * squares recorded, if anywhere, the changes not yet reported to the
+	 * listeners or written to the log, and how many squares entered or left
+	 * each state since the running counts were last updated. The log is
+	 * given the new state of each square rather than its glyph, and every
+	 * change, however many there are, BoardLog.FRAME_RECORDS at a time. Used
+	 * by one command at a time.
+	 */
+	private static final class Digger {
+		private SquareQueue queue = new SquareQueue();
+		private SquareQueue deferred = new SquareQueue();
+		private final BitSet held = new BitSet();
+		private final BitSet needed = new BitSet();
+		private ChangeList changes;
+		private final ChangeList unreported = new ChangeList();
+		private final ChangeList unlogged = new ChangeList();
+		private final long[] stateChanges = new long[StateCounts.STATES];
+		private int bombsDug;
+	}
 
 	/**
 	 * MinesweeperBoard constructs with the board representation for the
@@ -19,11 +138,22 @@ public class MinesweeperBoard {
 	 * deflagging, looking, etc, the board state will be modified appropriate
 	 * within MinesweeperBoard.
 	 * 
-	 * Threadsafe: The MinesweeperBoard is threadsafe because every public
-	 * method is synchronized to the board. Public methods are accessible
-	 * through player commands. All private methods are not synchronized.
-	 * Because no public methods call other public methods, the board will never
-	 * deadlock. Additionally, every method preserves the R.I.
+	 * Threadsafe: The board is split into horizontal bands of rows, each with
+	 * its own lock, and every square is only read or written while holding the
+	 * lock of its band. A command locks the bands around the square it
+	 * touches, so commands in different parts of the board run in parallel.
+	 * The board will never deadlock: a thread only blocks on a band lock while
+	 * holding no lock of a later band. When a flood reaches a band it does not
+	 * hold it takes the lock with tryLock, and if that fails it releases
+	 * everything and locks the whole set again in band order. look() takes
+	 * no lock at all: every command publishes a new immutable rendering of
+	 * the board before releasing its bands, and look() returns the latest
+	 * one. Listeners are told about each change right after it is published,
+	 * still under the same band locks, so a listener added before a call to
+	 * look() hears of every change that board does not show. The board uses
+	 * java.util.concurrent locks rather than monitors, so a virtual thread
+	 * waiting for a band never pins its carrier thread.
+	 * Additionally, every method preserves the R.I.
 	 * 
 	 * R.I. : Every square on the board will always be in a valid minesweeper
 	 * state. The board will always be a square (i.e. for some N, NxN)
@@ -33,21 +163,17 @@ public class MinesweeperBoard {
 	 */
 
 	public MinesweeperBoard(int size) throws IllegalArgumentException {
-		if (size < 1) {
-			throw new IllegalArgumentException(
-					"Invalid size input! We need at least a 1x1 grid to play Minesweeper");
-		}
-		this.size = size;
-		Board = new char[size][size];
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				if (Math.random() < .25) {
-					Board[i][j] = BOMB;
-				} else {
-					Board[i][j] = UNTOUCHED;
-				}
-			}
-		}
+		this(size, new long[StateCounts.STATES]);
+	}
+
+	/**
+	 * Makes a random board like MinesweeperBoard(size); the generator fills
+	 * in states before the other constructor reads it.
+	 */
+	private MinesweeperBoard(int size, long[] states)
+			throws IllegalArgumentException {
+		this(BoardGenerator.withDensity(size, DEFAULT_DENSITY,
+				new Random().nextLong(), states), states);
 	}
 
 	public MinesweeperBoard(char[][] board) throws IllegalArgumentException {
@@ -59,40 +185,562 @@ public class MinesweeperBoard {
 					"We need at least a 1x1 grid to play Minesweeper");
 		}
 		size = board.length;
-		Board = board;
-		if (!checkRep()) {
+		maxListedChanges = maxListedChanges(size);
+		bandLocks = newBandLocks(size);
+		Board = new ArrayCellStore(board);
+		long[] states = countValidSquares();
+		if (states == null) {
 			throw new IllegalArgumentException("Input an invalid grid");
 		}
+		countsAtStart = startCounts(states);
+	}
+
+	/**
+	 * Makes a board over an existing store, keeping whatever state the store
+	 * already holds, and counts its squares with store.countStates(). For
+	 * stores whose maker did not count them as it filled them in.
+	 * 
+	 * @param store
+	 *            storage engine for the board, must hold at least one square
+	 * @throws IllegalArgumentException
+	 *             if the store is empty
+	 */
+	MinesweeperBoard(CellStore store) throws IllegalArgumentException {
+		this(store, store.countStates());
+	}
+
+	/**
+	 * Makes a board over an existing store, keeping whatever state the store
+	 * already holds. The store is trusted to hold only valid squares, as
+	 * counted in states, so the board is not scanned and this runs in
+	 * constant time.
+	 * 
+	 * @param store
+	 *            storage engine for the board, must hold at least one square
+	 * @param states
+	 *            number of squares of store in each state, indexed as in
+	 *            StateCounts, with -1 for a state the store cannot count
+	 * @throws IllegalArgumentException
+	 *             if the store is empty
+	 */
+	MinesweeperBoard(CellStore store, long[] states)
+			throws IllegalArgumentException {
+		if (store.size() < 1) {
+			throw new IllegalArgumentException(
+					"We need at least a 1x1 grid to play Minesweeper");
+		}
+		size = store.size();
+		maxListedChanges = maxListedChanges(size);
+		bandLocks = newBandLocks(size);
+		Board = store;
+		countsAtStart = startCounts(states);
+	}
+
+	/**
+	 * Makes a random board with exactly mines bombs, the same board every
+	 * time for the same size, mines and seed, however many processors fill
+	 * it in. The rows are filled in parallel, so a 20000x20000 board takes a
+	 * couple of seconds on one processor and less on more.
+	 * 
+	 * @param size
+	 *            number of squares along each side, requires size >= 1
+	 * @param mines
+	 *            number of bombs, requires 0 <= mines <= size * size
+	 * @param seed
+	 *            seed picking the board
+	 * @throws IllegalArgumentException
+	 *             if size or mines is out of range
+	 */
+	public static MinesweeperBoard randomWithMines(int size, long mines,
+			long seed) throws IllegalArgumentException {
+		long[] states = new long[StateCounts.STATES];
+		return new MinesweeperBoard(BoardGenerator.withMines(size, mines, seed,
+				states), states);
+	}
+
+	/**
+	 * Makes a random board in which each square is a bomb with probability
+	 * density, the same board every time for the same size, density and
+	 * seed. new MinesweeperBoard(size) is this with a density of 0.25 and a
+	 * seed of its own.
+	 * 
+	 * @param size
+	 *            number of squares along each side, requires size >= 1
+	 * @param density
+	 *            chance of each square being a bomb, requires 0 <= density <=
+	 *            1
+	 * @param seed
+	 *            seed picking the board
+	 * @throws IllegalArgumentException
+	 *             if size or density is out of range
+	 */
+	public static MinesweeperBoard randomWithDensity(int size, double density,
+			long seed) throws IllegalArgumentException {
+		long[] states = new long[StateCounts.STATES];
+		return new MinesweeperBoard(BoardGenerator.withDensity(size, density,
+				seed, states), states);
+	}
+
+	/**
+	 * Makes a board too large to hold in memory, up to MAX_PROCEDURAL_SIZE
+	 * squares on a side, whose bombs are worked out from the seed by hashing
+	 * each square and whose memory grows only with the squares players touch
+	 * (see ProceduralCellStore). The same size, density and seed always give
+	 * the same board. Look at it through windows with look(left, top, width,
+	 * height): look() and the moves returning the board render all of it.
+	 * 
+	 * @param size
+	 *            number of squares along each side, requires 1 <= size <=
+	 *            MAX_PROCEDURAL_SIZE
+	 * @param density
+	 *            chance of each square being a bomb, requires
+	 *            MIN_PROCEDURAL_DENSITY <= density <= 1
+	 * @param seed
+	 *            seed picking the board
+	 * @throws IllegalArgumentException
+	 *             if size or density is out of range
+	 */
+	public static MinesweeperBoard procedural(int size, double density,
+			long seed) throws IllegalArgumentException {
+		if (size < 1 || size > MAX_PROCEDURAL_SIZE) {
+			throw new IllegalArgumentException("Procedural board size " + size
+					+ " is not between 1 and " + MAX_PROCEDURAL_SIZE);
+		}
+		if (!(density >= MIN_PROCEDURAL_DENSITY && density <= 1)) {
+			throw new IllegalArgumentException("Mine density " + density
+					+ " is not between " + MIN_PROCEDURAL_DENSITY + " and 1");
+		}
+		return new MinesweeperBoard(new ProceduralCellStore(size, density,
+				seed));
+	}
+
+	/**
+	 * Makes a board whose squares are kept in a memory-mapped file rather than
+	 * on the heap, starting from a copy of the current squares of board. Every
+	 * later command is written through to the file, so the game can be picked
+	 * up again with openMapped() after the process stops.
+	 * 
+	 * @param file
+	 *            file to create; any existing contents are replaced
+	 * @param board
+	 *            board to copy the squares from
+	 * @throws IOException
+	 *             if the file cannot be created or mapped
+	 */
+	public static MinesweeperBoard createMapped(File file,
+			MinesweeperBoard board) throws IOException {
+		MappedCellStore store;
+		board.lockAllBands();
+		try {
+			store = MappedCellStore.create(file, board.Board);
+		} finally {
+			board.unlockAllBands();
+		}
+		return new MinesweeperBoard(store);
+	}
+
+	/**
+	 * Reopens a board file written by createMapped(), with every square as it
+	 * was when the last process using the file stopped. The file is mapped
+	 * rather than copied onto the heap; its squares are only read once, to
+	 * count them for status(), before the board is in play.
+	 * 
+	 * @param file
+	 *            board file created by createMapped()
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not a board file
+	 */
+	public static MinesweeperBoard openMapped(File file) throws IOException {
+		return new MinesweeperBoard(MappedCellStore.open(file));
+	}
+
+	/**
+	 * Loads a board file in a single pass over its bytes straight into the
+	 * board's storage. The file is either a text board file, in the format
+	 * MinesweeperServer --file takes, or a binary board file written by
+	 * save(), told apart by its first bytes. Either is checked as it is read
+	 * rather than by checkRep() afterwards, so a 20000x20000 board loads in
+	 * seconds.
+	 * 
+	 * @param file
+	 *            board file to load
+	 * @throws IOException
+	 *             if the file cannot be read, is a corrupt binary board file,
+	 *             or is not a square grid of 0s and 1s; for a text file the
+	 *             message gives the line at fault
+	 */
+	public static MinesweeperBoard loadFile(File file) throws IOException {
+		if (BoardSnapshot.isSnapshot(file)) {
+			BoardSnapshot snapshot = BoardSnapshot.read(file);
+			return new MinesweeperBoard(snapshot.store, snapshot.states);
+		}
+		long[] states = new long[StateCounts.STATES];
+		return new MinesweeperBoard(BoardFileReader.read(file, states), states);
+	}
+
+	/**
+	 * Saves every square of the board, dug and flagged ones included, to a
+	 * binary board file that loadFile() reads back. The squares are packed
+	 * three bits each behind a header giving the size and a checksum, so
+	 * saving and loading take about as long as writing and reading the
+	 * bytes. Each band of rows is copied under its own lock, so play goes on
+	 * while the board is saved; a command that changes rows of more than one
+	 * band during the save may be saved only in part. The file is written
+	 * beside file, under its name with a number and ".tmp" added, and then
+	 * moved over file, so a save that fails partway leaves any earlier file
+	 * whole, and saves to the same file at once do not mix.
+	 * 
+	 * @param file
+	 *            file to write; any existing contents are replaced
+	 * @param compress
+	 *            true to deflate the squares, which takes longer but makes
+	 *            the file much smaller for a board mostly untouched or
+	 *            mostly dug
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void save(File file, boolean compress) throws IOException {
+		File temporary = File.createTempFile(file.getName() + ".", ".tmp",
+				file.getAbsoluteFile().getParentFile());
+		try {
+			BoardSnapshot.write(this, 0, temporary, compress);
+			Files.move(temporary.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();
+		}
 	}
 
 	public boolean checkRep() {
+		return countValidSquares() != null;
+	}
+
+	/**
+	 * Counts the squares in each state, for checkRep() and for the
+	 * constructor, which must not call a method a subclass could override
+	 * before the board is made.
+	 * 
+	 * @return the counts, indexed as in StateCounts, or null if some square
+	 *         is not in a valid state
+	 */
+	private long[] countValidSquares() {
+		long[] states = new long[StateCounts.STATES];
 		for (int i = 0; i < size; i++) {
 			for (int j = 0; j < size; j++) {
 				if (!(isType(i, j, BOMB, UNTOUCHED)
 						|| isType(i, j, DUG, FLAGGED) || isType(i, j,
 							FLAGGED_BOMB))) {
-					return false;
+					return null;
+				}
+				states[StateCounts.indexOf(Board.get(i, j))]++;
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * @return countsAtStart for a board starting with states squares in each
+	 *         state, indexed as in StateCounts with -1 for a state not
+	 *         counted
+	 */
+	private static long[] startCounts(long[] states) {
+		long untouched = states[StateCounts.UNTOUCHED];
+		long bombs = states[StateCounts.BOMB];
+		long flagged = states[StateCounts.FLAGGED];
+		long flaggedBombs = states[StateCounts.FLAGGED_BOMB];
+		return new long[] { untouched < 0 ? -1 : untouched + flagged,
+				bombs < 0 ? -1 : bombs + flaggedBombs, flagged + flaggedBombs,
+				flaggedBombs };
+	}
+
+	/**
+	 * Returns how far the game has got: the safe squares left to dig, the
+	 * bombs, flags and correct flags on the board, and the bombs dug. The
+	 * counts are kept up to date by every command, so this takes constant
+	 * time and locks nothing. Each count shows every command that finished
+	 * before this call, but a command running meanwhile may show in some
+	 * counts and not yet in others.
+	 */
+	public BoardStatus status() {
+		return new BoardStatus(plus(countsAtStart[0], safeSquaresLeft.get()),
+				plus(countsAtStart[1], bombCount.get()), plus(
+						countsAtStart[2], flagCount.get()), plus(
+						countsAtStart[3], correctFlagCount.get()),
+				bombsDug.get());
+	}
+
+	private static long plus(long start, long change) {
+		return start < 0 ? -1 : start + change;
+	}
+
+	/**
+	 * @return number of squares along each side of the board
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return true if the board was made by procedural(), so it is meant to
+	 *         be looked at through windows and is too large to save or log
+	 */
+	public boolean isProcedural() {
+		return Board instanceof ProceduralCellStore;
+	}
+
+	/**
+	 * Starts telling listener about every change to the board, from some
+	 * point during this call on. To see the whole board at a point after
+	 * which no change is missed, call look() after this returns. Waits for
+	 * every command under way to finish, since commands only record their
+	 * changes for listeners while there are some.
+	 */
+	public void addListener(BoardListener listener) {
+		lockAllBands();
+		try {
+			listeners.add(listener);
+		} finally {
+			unlockAllBands();
+		}
+	}
+
+	/**
+	 * Stops telling listener about changes. Calls already under way may
+	 * still finish after this returns.
+	 */
+	public void removeListener(BoardListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts writing every change to log, or stops logging if log is null.
+	 * Changes made before this call are not written, so the log must take a
+	 * snapshot of the board after it.
+	 */
+	void setLog(BoardLog log) {
+		this.log = log;
+	}
+
+	/**
+	 * Copies the state of every square of rows top to bottom into rows[0] to
+	 * rows[bottom - top], holding the band locks of those rows meanwhile.
+	 * Must not be called while holding some band locks but not all of them.
+	 */
+	void readRows(int top, int bottom, char[][] rows) {
+		BitSet held = new BitSet();
+		lockRows(top, bottom, held);
+		try {
+			for (int y = top; y <= bottom; y++) {
+				char[] row = rows[y - top];
+				for (int x = 0; x < size; x++) {
+					row[x] = Board.get(x, y);
 				}
 			}
+		} finally {
+			for (int b = held.nextSetBit(0); b >= 0; b = held.nextSetBit(b + 1)) {
+				bandLocks[b].unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return most changes worth listing for a board of size x size squares.
+	 *         A change that touches more squares than this is cheaper to send
+	 *         as the whole board, which is then no bigger than the list. Used
+	 *         for the listeners here and for the server's delta responses.
+	 */
+	public static int maxListedChanges(int size) {
+		// a listed change costs several times what a board square does
+		long squares = (long) size * size;
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(64, squares / 8));
+	}
+
+	/**
+	 * Takes an idle work space, or makes one, for a command recording its
+	 * changes in changes, which may be null.
+	 */
+	private Digger takeDigger(ChangeList changes) {
+		Digger digger = idleDiggers.poll();
+		if (digger == null) {
+			digger = new Digger();
+		}
+		digger.changes = changes;
+		digger.unreported.clear(maxListedChanges);
+		digger.unlogged.clear();
+		return digger;
+	}
+
+	private void releaseDigger(Digger digger) {
+		digger.changes = null;
+		idleDiggers.add(digger);
+	}
+
+	/**
+	 * Writes the changes the digger made since it last reported to the log,
+	 * and tells the listeners about them. Requires holding the band locks of
+	 * the changed squares.
+	 */
+	private void reportChanges(Digger digger) {
+		updateCounts(digger);
+		logChanges(digger);
+		ChangeList unreported = digger.unreported;
+		if (unreported.size() == 0 && !unreported.overflowed()) {
+			return;
+		}
+		for (BoardListener listener : listeners) {
+			listener.squaresChanged(unreported);
+		}
+		unreported.clear(maxListedChanges);
+	}
+
+	/**
+	 * Writes the changes the digger made since it last wrote to the log.
+	 * Requires holding the band locks of the changed squares.
+	 */
+	private void logChanges(Digger digger) {
+		ChangeList unlogged = digger.unlogged;
+		if (unlogged.size() > 0) {
+			BoardLog current = log;
+			if (current != null) {
+				current.append(unlogged);
+			}
+			unlogged.clear();
 		}
-		return true;
 	}
 
-	public synchronized void removePlayer() {
-		players -= 1;
+	/**
+	 * Adds the state changes the digger counted since it last reported to
+	 * the running counts.
+	 */
+	private void updateCounts(Digger digger) {
+		long[] changes = digger.stateChanges;
+		long safe = changes[StateCounts.UNTOUCHED]
+				+ changes[StateCounts.FLAGGED];
+		long bombs = changes[StateCounts.BOMB]
+				+ changes[StateCounts.FLAGGED_BOMB];
+		long flags = changes[StateCounts.FLAGGED]
+				+ changes[StateCounts.FLAGGED_BOMB];
+		if (safe != 0) {
+			safeSquaresLeft.addAndGet(safe);
+		}
+		if (bombs != 0) {
+			bombCount.addAndGet(bombs);
+		}
+		if (flags != 0) {
+			flagCount.addAndGet(flags);
+		}
+		if (changes[StateCounts.FLAGGED_BOMB] != 0) {
+			correctFlagCount.addAndGet(changes[StateCounts.FLAGGED_BOMB]);
+		}
+		if (digger.bombsDug != 0) {
+			bombsDug.addAndGet(digger.bombsDug);
+			digger.bombsDug = 0;
+		}
+		Arrays.fill(changes, 0);
 	}
 
-	public synchronized void addPlayer() {
-		players += 1;
+	/**
+	 * Counts a square going from state before to state after.
+	 */
+	private static void countChange(char before, char after, Digger digger) {
+		digger.stateChanges[StateCounts.indexOf(before)]--;
+		digger.stateChanges[StateCounts.indexOf(after)]++;
 	}
 
-	public synchronized int getNumberOfPlayers() {
-		return players;
+	private static ReentrantLock[] newBandLocks(int size) {
+		ReentrantLock[] locks = new ReentrantLock[(size + BAND_ROWS - 1)
+				/ BAND_ROWS];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		return locks;
+	}
+
+	private static int bandOf(int y) {
+		return y / BAND_ROWS;
+	}
+
+	private void lockAllBands() {
+		for (ReentrantLock lock : bandLocks) {
+			lock.lock();
+		}
+	}
+
+	private void unlockAllBands() {
+		for (ReentrantLock lock : bandLocks) {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Locks the bands holding rows top to bottom, in band order, and records
+	 * them in held.
+	 */
+	private void lockRows(int top, int bottom, BitSet held) {
+		for (int b = bandOf(top); b <= bandOf(bottom); b++) {
+			bandLocks[b].lock();
+			held.set(b);
+		}
+	}
+
+	/**
+	 * Publishes the changes made in the bands the digger holds and reports
+	 * them to the listeners, then releases every band lock recorded in held.
+	 */
+	private void unlockAll(Digger digger) {
+		BitSet held = digger.held;
+		publishBands(held);
+		reportChanges(digger);
+		for (int b = held.nextSetBit(0); b >= 0; b = held.nextSetBit(b + 1)) {
+			bandLocks[b].unlock();
+		}
+		held.clear();
+	}
+
+	/**
+	 * Makes sure the digger holds the bands of rows top to bottom without
+	 * blocking. Returns false, remembering the missing bands in needed, if
+	 * one of them is held by another thread.
+	 */
+	private boolean tryHoldRows(int top, int bottom, Digger digger) {
+		boolean holdsAll = true;
+		for (int b = bandOf(top); b <= bandOf(bottom); b++) {
+			if (!digger.held.get(b)) {
+				if (bandLocks[b].tryLock()) {
+					digger.held.set(b);
+				} else {
+					digger.needed.set(b);
+					holdsAll = false;
+				}
+			}
+		}
+		return holdsAll;
+	}
+
+	/**
+	 * Releases every band the digger holds, then locks them again together
+	 * with the bands it needs, in band order.
+	 */
+	private void relock(Digger digger) {
+		BitSet wanted = (BitSet) digger.held.clone();
+		wanted.or(digger.needed);
+		digger.needed.clear();
+		unlockAll(digger);
+		for (int b = wanted.nextSetBit(0); b >= 0; b = wanted
+				.nextSetBit(b + 1)) {
+			bandLocks[b].lock();
+			digger.held.set(b);
+		}
+	}
+
+	private boolean isOnBoard(int x, int y) {
+		return (x < size && x >= 0) && (y < size && y >= 0);
 	}
 
 	private boolean isType(int x, int y, char type) {
 		if ((x < size && x >= 0) && (y < size && y >= 0)) {
-			return Board[y][x] == type;
+			return Board.get(x, y) == type;
 		}
 		return false;
 	}
@@ -101,91 +749,534 @@ public class MinesweeperBoard {
 		return isType(x, y, type1) || isType(x, y, type2);
 	}
 
-	private String getBombNeighbors(int x, int y) {
-		int bombCount = 0;
-		for (int i = -1; i < 2; i++) {
-			for (int j = -1; j < 2; j++) {
-				if (!(i == 0 && j == 0)
-						&& isType(x + i, y + j, BOMB, FLAGGED_BOMB)) {
-					bombCount++;
-				}
-			}
-		}
-		if (bombCount == 0) {
-			return " ";
+	private int getBombNeighbors(int x, int y) {
+		return Board.bombNeighbors(x, y);
+	}
+
+	/**
+	 * Digs the square at (x, y), flooding outwards if it has no bomb
+	 * neighbors. Requires the digger to hold the bands of rows y - 1 to y + 1.
+	 */
+	private void setDug(int x, int y, Digger digger) {
+		markSquareDug(x, y, digger);
+		if (getBombNeighbors(x, y) == 0) {
+			flood(x, y, digger);
 		}
-		return "" + bombCount;
 	}
 
-	private void setDug(int x, int y) {
-		Board[y][x] = DUG;
-		if (getBombNeighbors(x, y).equals(" ")) {
+	/**
+	 * Marks the square at (x, y) dug without opening any other square.
+	 * Requires the digger to hold the bands of rows y - 1 to y + 1.
+	 */
+	private void markSquareDug(int x, int y, Digger digger) {
+		char before = Board.get(x, y);
+		boolean wasBomb = before == BOMB || before == FLAGGED_BOMB;
+		// the store drops this bomb from the neighbors' counts
+		Board.set(x, y, DUG);
+		countChange(before, DUG, digger);
+		cellChanged(x, y, digger);
+		if (wasBomb) {
 			for (int i = -1; i < 2; i++) {
 				for (int j = -1; j < 2; j++) {
-					if (!(i == 0 && j == 0) && isType(x + i, y + j, UNTOUCHED)) {
-						setDug(x + i, y + j);
+					if (!(i == 0 && j == 0) && isType(x + i, y + j, DUG)) {
+						cellChanged(x + i, y + j, digger);
 					}
 				}
 			}
 		}
 	}
 
-	private List<String> getBoard() {
-		List<String> boardStrings = new ArrayList<String>();
-		for (int i = 0; i < size; i++) {
-			boardStrings.add("");
-			for (int j = 0; j < size; j++) {
-				if (j != 0) {
-					boardStrings.set(i, boardStrings.get(i) + " ");
+	/**
+	 * Digs every untouched square reachable from (x, y), which must be a dug
+	 * square with no bomb neighbors, through squares that have no bomb
+	 * neighbors either. Squares are marked dug when they are queued, so each
+	 * one is queued at most once and the queue only ever holds the boundary of
+	 * the opened region.
+	 * 
+	 * A square whose neighbors lie in a band held by another thread is set
+	 * aside. Once nothing else can be opened the digger drops its locks, takes
+	 * them again together with the missing bands, and carries on with the
+	 * squares set aside. Dug squares never change again, so nothing opened so
+	 * far is undone while the locks are released.
+	 */
+	private void flood(int x, int y, Digger digger) {
+		CellStore cells = Board;
+		SquareQueue queue = digger.queue;
+		SquareQueue deferred = digger.deferred;
+		queue.clear();
+		deferred.clear();
+		queue.add(x, y);
+		while (true) {
+			while (!queue.isEmpty()) {
+				int cx = queue.peekX();
+				int cy = queue.peekY();
+				queue.remove();
+				int top = Math.max(cy - 1, 0);
+				int bottom = Math.min(cy + 1, size - 1);
+				if (!tryHoldRows(top, bottom, digger)) {
+					deferred.add(cx, cy);
+					continue;
 				}
-				if (isType(j, i, DUG)) {
-					boardStrings.set(i,
-							boardStrings.get(i) + getBombNeighbors(j, i));
-				} else if (isType(j, i, FLAGGED, FLAGGED_BOMB)) {
-					boardStrings.set(i, boardStrings.get(i) + "F");
-				} else if (isType(j, i, UNTOUCHED, BOMB)) {
-					boardStrings.set(i, boardStrings.get(i) + "-");
-				} else {
-					throw new RuntimeException(
-							"There was an undefined type in the MinesweeperBoard");
+				int left = Math.max(cx - 1, 0);
+				int right = Math.min(cx + 1, size - 1);
+				for (int j = top; j <= bottom; j++) {
+					for (int i = left; i <= right; i++) {
+						// untouched squares are never bombs, so no counts
+						// change
+						if (cells.get(i, j) == UNTOUCHED) {
+							cells.set(i, j, DUG);
+							digger.stateChanges[StateCounts.UNTOUCHED]--;
+							digger.stateChanges[StateCounts.DUG]++;
+							cellChanged(i, j, digger);
+							if (cells.bombNeighbors(i, j) == 0) {
+								queue.add(i, j);
+							}
+						}
+					}
 				}
+			}
+			if (deferred.isEmpty()) {
+				return;
+			}
+			relock(digger);
+			SquareQueue emptied = queue;
+			queue = deferred;
+			deferred = emptied;
+		}
+	}
+
+	/**
+	 * Returns the character a player sees for the square at (x, y).
+	 */
+	private char getGlyph(int x, int y) {
+		if (isType(x, y, DUG)) {
+			int bombCount = getBombNeighbors(x, y);
+			return bombCount == 0 ? ' ' : (char) ('0' + bombCount);
+		} else if (isType(x, y, FLAGGED, FLAGGED_BOMB)) {
+			return 'F';
+		} else if (isType(x, y, UNTOUCHED, BOMB)) {
+			return '-';
+		}
+		throw new RuntimeException(
+				"There was an undefined type in the MinesweeperBoard");
+	}
+
+	/**
+	 * Patches the render cache after the square at (x, y) changed, and records
+	 * the change for the digger's caller, if it asked, for the listeners, if
+	 * there are any, and for the log, if there is one.
+	 * Rows that have never been rendered are left alone; they are built in
+	 * full the first time they are needed.
+	 */
+	private void cellChanged(int x, int y, Digger digger) {
+		char glyph = getGlyph(x, y);
+		char[][] rendered = this.rendered;
+		if (rendered != null) {
+			char[] row = rendered[y];
+			if (row != null) {
+				row[2 * x] = glyph;
+			}
+			rowCache[y] = null;
+		}
+		if (digger.changes != null) {
+			digger.changes.add(x, y, glyph);
+		}
+		// listeners are only added while no band is held, so this is the
+		// same for every change a command makes under its locks
+		if (!listeners.isEmpty()) {
+			digger.unreported.add(x, y, glyph);
+		}
+		if (log != null) {
+			digger.unlogged.add(x, y, Board.get(x, y));
+			if (digger.unlogged.size() >= BoardLog.FRAME_RECORDS) {
+				// a large flood is logged as it goes
+				logChanges(digger);
+			}
+		}
+	}
+
+	private char[] renderRow(int y) {
+		char[] row = new char[2 * size - 1];
+		for (int x = 0; x < size; x++) {
+			if (x != 0) {
+				row[2 * x - 1] = ' ';
+			}
+			row[2 * x] = getGlyph(x, y);
+		}
+		return row;
+	}
+
+	/**
+	 * Returns the String form of row y, rebuilding it if the row changed.
+	 * Requires holding the band lock of row y.
+	 */
+	private String rowString(int y) {
+		if (rowCache[y] == null) {
+			if (rendered[y] == null) {
+				rendered[y] = renderRow(y);
+			}
+			rowCache[y] = new String(rendered[y]);
+		}
+		return rowCache[y];
+	}
 
+	/**
+	 * Replaces the published board with a copy showing the current rows of
+	 * the given bands. Requires holding the band locks of all of them; since
+	 * no other thread can change those rows meanwhile, concurrent publishers
+	 * working on other bands simply retry on top of each other.
+	 */
+	private void publishBands(BitSet bands) {
+		List<String> current = published.get();
+		if (current == null) {
+			// nobody has asked for the whole board yet
+			return;
+		}
+		boolean changed = false;
+		for (int b = bands.nextSetBit(0); b >= 0; b = bands.nextSetBit(b + 1)) {
+			int end = Math.min((b + 1) * BAND_ROWS, size);
+			for (int y = b * BAND_ROWS; y < end; y++) {
+				if (rowCache[y] == null) {
+					rowString(y);
+					changed = true;
+				}
+			}
+		}
+		if (!changed) {
+			return;
+		}
+		while (true) {
+			String[] rows = current.toArray(new String[size]);
+			for (int b = bands.nextSetBit(0); b >= 0; b = bands
+					.nextSetBit(b + 1)) {
+				int end = Math.min((b + 1) * BAND_ROWS, size);
+				for (int y = b * BAND_ROWS; y < end; y++) {
+					rows[y] = rowCache[y];
+				}
+			}
+			if (published.compareAndSet(current,
+					Collections.unmodifiableList(Arrays.asList(rows)))) {
+				return;
 			}
+			current = published.get();
 		}
-		return boardStrings;
 	}
 
-	public synchronized List<String> flag(int x, int y) {
+	private void publishBand(int band) {
+		BitSet bands = new BitSet();
+		bands.set(band);
+		publishBands(bands);
+	}
+
+	/**
+	 * Returns an immutable snapshot of the board, one String per row, showing
+	 * every command that finished before this call. Does not lock unless
+	 * this is the first time the whole board is asked for, in which case all
+	 * bands are locked while it is rendered; must not be called while holding
+	 * any band lock.
+	 */
+	private List<String> getBoard() {
+		List<String> snapshot = published.get();
+		if (snapshot != null) {
+			return snapshot;
+		}
+		lockAllBands();
+		try {
+			snapshot = published.get();
+			if (snapshot == null) {
+				rendered = new char[size][];
+				rowCache = new String[size];
+				String[] rows = new String[size];
+				for (int y = 0; y < size; y++) {
+					rows[y] = rowString(y);
+				}
+				snapshot = Collections.unmodifiableList(Arrays.asList(rows));
+				published.set(snapshot);
+			}
+		} finally {
+			unlockAllBands();
+		}
+		return snapshot;
+	}
+
+	public List<String> flag(int x, int y) {
+		flag(x, y, null);
+		return getBoard();
+	}
+
+	/**
+	 * Flags the square at (x, y) like flag(x, y), but records the squares
+	 * that changed instead of returning the board, so nothing is rendered.
+	 * 
+	 * @param changes
+	 *            list to add the changed squares to, or null
+	 */
+	public void flag(int x, int y, ChangeList changes) {
+		if (isOnBoard(x, y)) {
+			Digger digger = takeDigger(changes);
+			ReentrantLock lock = bandLocks[bandOf(y)];
+			lock.lock();
+			try {
+				flagSquare(x, y, digger);
+				publishBand(bandOf(y));
+				reportChanges(digger);
+			} finally {
+				lock.unlock();
+				releaseDigger(digger);
+			}
+		}
+	}
+
+	/**
+	 * Flags the square at (x, y), which must be on the board, if it is
+	 * untouched. Requires the digger to hold the band of row y.
+	 */
+	private void flagSquare(int x, int y, Digger digger) {
 		if (isType(x, y, UNTOUCHED)) {
-			Board[y][x] = FLAGGED;
+			Board.set(x, y, FLAGGED);
+			countChange(UNTOUCHED, FLAGGED, digger);
+			cellChanged(x, y, digger);
 		} else if (isType(x, y, BOMB)) {
-			Board[y][x] = FLAGGED_BOMB;
+			Board.set(x, y, FLAGGED_BOMB);
+			countChange(BOMB, FLAGGED_BOMB, digger);
+			cellChanged(x, y, digger);
 		}
+	}
+
+	public List<String> deFlag(int x, int y) {
+		deFlag(x, y, null);
 		return getBoard();
 	}
 
-	public synchronized List<String> deFlag(int x, int y) {
+	/**
+	 * Deflags the square at (x, y) like deFlag(x, y), but records the squares
+	 * that changed instead of returning the board, so nothing is rendered.
+	 * 
+	 * @param changes
+	 *            list to add the changed squares to, or null
+	 */
+	public void deFlag(int x, int y, ChangeList changes) {
+		if (isOnBoard(x, y)) {
+			Digger digger = takeDigger(changes);
+			ReentrantLock lock = bandLocks[bandOf(y)];
+			lock.lock();
+			try {
+				deflagSquare(x, y, digger);
+				publishBand(bandOf(y));
+				reportChanges(digger);
+			} finally {
+				lock.unlock();
+				releaseDigger(digger);
+			}
+		}
+	}
+
+	/**
+	 * Deflags the square at (x, y), which must be on the board, if it is
+	 * flagged. Requires the digger to hold the band of row y.
+	 */
+	private void deflagSquare(int x, int y, Digger digger) {
 		if (isType(x, y, FLAGGED)) {
-			Board[y][x] = UNTOUCHED;
+			Board.set(x, y, UNTOUCHED);
+			countChange(FLAGGED, UNTOUCHED, digger);
+			cellChanged(x, y, digger);
 		} else if (isType(x, y, FLAGGED_BOMB)) {
-			Board[y][x] = BOMB;
+			Board.set(x, y, BOMB);
+			countChange(FLAGGED_BOMB, BOMB, digger);
+			cellChanged(x, y, digger);
 		}
-		return getBoard();
 	}
 
-	public synchronized List<String> dig(int x, int y) {
-		if (isType(x, y, UNTOUCHED)) {
-			setDug(x, y);
-		} else if (isType(x, y, BOMB)) {
-			setDug(x, y);
+	public List<String> dig(int x, int y) {
+		if (dig(x, y, null)) {
 			// indicates socket should be closed
 			return null;
 		}
 		return getBoard();
 	}
 
-	public synchronized List<String> look() {
+	/**
+	 * Digs the square at (x, y) like dig(x, y), but records the squares that
+	 * changed, including every square the flood opened, instead of returning
+	 * the board, so nothing is rendered.
+	 * 
+	 * @param changes
+	 *            list to add the changed squares to, or null
+	 * @return true if the square held a bomb
+	 */
+	public boolean dig(int x, int y, ChangeList changes) {
+		if (!isOnBoard(x, y)) {
+			return false;
+		}
+		Digger digger = takeDigger(changes);
+		lockRows(Math.max(y - 1, 0), Math.min(y + 1, size - 1), digger.held);
+		try {
+			return digSquare(x, y, digger);
+		} finally {
+			unlockAll(digger);
+			releaseDigger(digger);
+		}
+	}
+
+	/**
+	 * Digs the square at (x, y), which must be on the board, if it is not
+	 * dug or flagged. Requires the digger to hold the bands of rows y - 1 to
+	 * y + 1.
+	 * 
+	 * @return true if the square held a bomb
+	 */
+	private boolean digSquare(int x, int y, Digger digger) {
+		if (isType(x, y, UNTOUCHED)) {
+			setDug(x, y, digger);
+		} else if (isType(x, y, BOMB)) {
+			setDug(x, y, digger);
+			digger.bombsDug++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Marks the square at (x, y) dug, whatever state it is in, without
+	 * opening any other square even if it has no bomb neighbors. If it held a
+	 * bomb the bomb is removed. This is not a move in the game: it is for a
+	 * board holding copies of squares owned by another board, such as the
+	 * edges of a neighboring shard, to copy a square that was dug there.
+	 * 
+	 * @param changes
+	 *            list to add the changed squares to, or null
+	 */
+	public void markDug(int x, int y, ChangeList changes) {
+		if (!isOnBoard(x, y)) {
+			return;
+		}
+		Digger digger = takeDigger(changes);
+		lockRows(Math.max(y - 1, 0), Math.min(y + 1, size - 1), digger.held);
+		try {
+			if (!isType(x, y, DUG)) {
+				markSquareDug(x, y, digger);
+			}
+		} finally {
+			unlockAll(digger);
+			releaseDigger(digger);
+		}
+	}
+
+	/**
+	 * Makes a list of moves in order as one command: the bands every move
+	 * needs are locked once, up front, and the changes are published, and
+	 * reported to the listeners, once at the end rather than after each move.
+	 * A dig that floods into a band held by another thread may still have to
+	 * release and retake the locks, as dig() does. Moves on squares off the
+	 * board do nothing. Digging a bomb ends the list; the moves after it are
+	 * not made.
+	 * 
+	 * @param moves
+	 *            moves to make
+	 * @param changes
+	 *            list to add the changed squares to, or null
+	 * @return the index of the move that dug a bomb, or -1 if none did
+	 */
+	public int play(MoveList moves, ChangeList changes) {
+		Digger digger = takeDigger(changes);
+		// lock every band any move needs, in band order
+		BitSet wanted = digger.needed;
+		for (int i = 0; i < moves.size(); i++) {
+			int y = moves.getY(i);
+			if (isOnBoard(moves.getX(i), y)) {
+				if (moves.getKind(i) == MoveList.Kind.DIG) {
+					wanted.set(bandOf(Math.max(y - 1, 0)),
+							bandOf(Math.min(y + 1, size - 1)) + 1);
+				} else {
+					wanted.set(bandOf(y));
+				}
+			}
+		}
+		for (int b = wanted.nextSetBit(0); b >= 0; b = wanted
+				.nextSetBit(b + 1)) {
+			bandLocks[b].lock();
+			digger.held.set(b);
+		}
+		wanted.clear();
+		try {
+			for (int i = 0; i < moves.size(); i++) {
+				int x = moves.getX(i);
+				int y = moves.getY(i);
+				if (!isOnBoard(x, y)) {
+					continue;
+				}
+				switch (moves.getKind(i)) {
+				case DIG:
+					if (digSquare(x, y, digger)) {
+						return i;
+					}
+					break;
+				case FLAG:
+					flagSquare(x, y, digger);
+					break;
+				case DEFLAG:
+					deflagSquare(x, y, digger);
+					break;
+				}
+			}
+			return -1;
+		} finally {
+			unlockAll(digger);
+			releaseDigger(digger);
+		}
+	}
+
+	public List<String> look() {
 		return getBoard();
 	}
 
+	/**
+	 * Returns the part of the board inside a window, one String per row in
+	 * the same form as the rows of look(), showing every command that
+	 * finished before this call. Only the squares in the window are read,
+	 * under the band locks of its rows, so this costs the same on any size
+	 * of board. The window is cut down to the part on the board.
+	 * 
+	 * @param left
+	 *            column of the left edge of the window
+	 * @param top
+	 *            row of the top edge of the window
+	 * @param width
+	 *            number of columns in the window
+	 * @param height
+	 *            number of rows in the window
+	 * @return the rows of the window on the board, top to bottom; empty if
+	 *         the window is off the board
+	 */
+	public List<String> look(int left, int top, int width, int height) {
+		int right = (int) Math.min(size, Math.max(0, (long) left + width)) - 1;
+		int bottom = (int) Math.min(size, Math.max(0, (long) top + height)) - 1;
+		left = Math.max(left, 0);
+		top = Math.max(top, 0);
+		if (left > right || top > bottom) {
+			return Collections.emptyList();
+		}
+		String[] rows = new String[bottom - top + 1];
+		char[] row = new char[2 * (right - left) + 1];
+		BitSet held = new BitSet();
+		// bomb counts read the rows around the window
+		lockRows(Math.max(top - 1, 0), Math.min(bottom + 1, size - 1), held);
+		try {
+			for (int y = top; y <= bottom; y++) {
+				for (int x = left; x <= right; x++) {
+					if (x != left) {
+						row[2 * (x - left) - 1] = ' ';
+					}
+					row[2 * (x - left)] = getGlyph(x, y);
+				}
+				rows[y - top] = new String(row);
+			}
+		} finally {
+			for (int b = held.nextSetBit(0); b >= 0; b = held.nextSetBit(b + 1)) {
+				bandLocks[b].unlock();
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(rows));
+	}
+
 }
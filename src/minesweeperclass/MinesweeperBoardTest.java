@@ -2,8 +2,15 @@ package minesweeperclass;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
 
 import org.junit.Test;
 
@@ -14,7 +21,11 @@ public class MinesweeperBoardTest {
 	 * inputs
 	 * 
 	 * Testing space: constructor(int size), constructor(char[][] board),
-	 * flag(x,y), deFlag(x,y), dig(x,y), recursive chaining from dig(x,y)
+	 * flag(x,y), deFlag(x,y), dig(x,y), recursive chaining from dig(x,y),
+	 * loading text board files, saving and loading binary board files,
+	 * seeded random boards, procedural boards, windows of the board, status
+	 * counts (first asked for before or during play, array, bitplane and
+	 * procedural stores, winning)
 	 */
 
 	/*
@@ -37,6 +48,315 @@ public class MinesweeperBoardTest {
 		new MinesweeperBoard(0);
 	}
 
+	/**
+	 * @return the squares of board, one string per row
+	 */
+	private static String[] squares(MinesweeperBoard board) {
+		int size = board.getSize();
+		char[][] rows = new char[size][size];
+		board.readRows(0, size - 1, rows);
+		String[] squares = new String[size];
+		for (int y = 0; y < size; y++) {
+			squares[y] = new String(rows[y]);
+		}
+		return squares;
+	}
+
+	private static long countBombs(MinesweeperBoard board) {
+		long bombs = 0;
+		for (String row : squares(board)) {
+			for (int x = 0; x < row.length(); x++) {
+				if (row.charAt(x) == CellStore.BOMB) {
+					bombs++;
+				}
+			}
+		}
+		return bombs;
+	}
+
+	@Test
+	public void testRandomWithMines() {
+		long[] counts = { 0, 1, 99, 2500, 9999, 10000 };
+		for (long mines : counts) {
+			MinesweeperBoard board = MinesweeperBoard.randomWithMines(100,
+					mines, 42);
+			assertEquals(mines, countBombs(board));
+			assertTrue(board.checkRep());
+		}
+		// large enough to be kept in bitplanes
+		int size = MinesweeperBoard.MAX_ARRAY_STORE_SIZE + 1;
+		assertEquals(1234567, countBombs(MinesweeperBoard.randomWithMines(
+				size, 1234567, 7)));
+	}
+
+	@Test
+	public void testRandomIsSeeded() {
+		// the same seed always gives the same board
+		assertEquals(Arrays.asList(squares(MinesweeperBoard.randomWithMines(
+				300, 20000, 5))), Arrays.asList(squares(MinesweeperBoard
+				.randomWithMines(300, 20000, 5))));
+		assertEquals(Arrays.asList(squares(MinesweeperBoard
+				.randomWithDensity(300, 0.3, 5))), Arrays.asList(squares(
+				MinesweeperBoard.randomWithDensity(300, 0.3, 5))));
+		assertFalse(Arrays.asList(
+				squares(MinesweeperBoard.randomWithMines(300, 20000, 5)))
+				.equals(Arrays.asList(squares(MinesweeperBoard
+						.randomWithMines(300, 20000, 6)))));
+
+		MinesweeperBoard empty = MinesweeperBoard.randomWithDensity(50, 0, 1);
+		assertEquals(0, countBombs(empty));
+		MinesweeperBoard full = MinesweeperBoard.randomWithDensity(50, 1, 1);
+		assertEquals(2500, countBombs(full));
+		// about a quarter of the squares
+		long bombs = countBombs(MinesweeperBoard.randomWithDensity(400, 0.25,
+				3));
+		assertTrue(bombs > 38000 && bombs < 42000);
+	}
+
+	@Test
+	public void testRandomInvalid() {
+		try {
+			MinesweeperBoard.randomWithMines(10, 101, 1);
+			fail("placed 101 mines on 100 squares");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			MinesweeperBoard.randomWithMines(10, -1, 1);
+			fail("placed -1 mines");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			MinesweeperBoard.randomWithDensity(10, 1.5, 1);
+			fail("accepted a density of 1.5");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			MinesweeperBoard.randomWithDensity(0, 0.5, 1);
+			fail("made an empty board");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testProceduralMatchesStoredBoard() {
+		// the same moves on a procedural board and on a copy of it kept in
+		// an array give the same squares
+		MinesweeperBoard procedural = MinesweeperBoard.procedural(200, 0.2, 11);
+		char[][] copy = new char[200][];
+		for (int y = 0; y < 200; y++) {
+			copy[y] = squares(procedural)[y].toCharArray();
+		}
+		MinesweeperBoard stored = new MinesweeperBoard(copy);
+		Random random = new Random(12);
+		for (int i = 0; i < 2000; i++) {
+			int x = random.nextInt(200);
+			int y = random.nextInt(200);
+			int kind = random.nextInt(4);
+			if (kind == 0) {
+				procedural.flag(x, y, null);
+				stored.flag(x, y, null);
+			} else if (kind == 1) {
+				procedural.deFlag(x, y, null);
+				stored.deFlag(x, y, null);
+			} else {
+				assertEquals(stored.dig(x, y, null), procedural.dig(x, y, null));
+			}
+		}
+		assertEquals(Arrays.asList(squares(stored)),
+				Arrays.asList(squares(procedural)));
+		assertEquals(stored.look(), procedural.look());
+		assertEquals(stored.look(30, 40, 50, 20), procedural.look(30, 40, 50,
+				20));
+	}
+
+	@Test
+	public void testProceduralHugeBoard() {
+		int size = MinesweeperBoard.MAX_PROCEDURAL_SIZE;
+		ProceduralCellStore store = new ProceduralCellStore(size, 0.2, 3);
+		MinesweeperBoard board = new MinesweeperBoard(store);
+		assertEquals(0, store.chunkCount());
+		int middle = size / 2;
+		board.flag(middle, middle, null);
+		assertEquals(1, store.chunkCount());
+		assertEquals("F", board.look(middle, middle, 1, 1).get(0));
+		// nothing is kept once the square is back as it was
+		board.deFlag(middle, middle, null);
+		assertEquals(0, store.chunkCount());
+
+		// dig until a square floods, and the board only stores around it
+		int x = middle;
+		while (board.dig(x, middle, null)
+				|| !board.look(x, middle, 1, 1).get(0).equals(" ")) {
+			x++;
+		}
+		assertTrue(store.chunkCount() < 100);
+		// the same seed gives the same board
+		MinesweeperBoard again = MinesweeperBoard.procedural(size, 0.2, 3);
+		again.flag(middle, middle, null);
+		again.deFlag(middle, middle, null);
+		for (int i = middle; i < x; i++) {
+			again.dig(i, middle, null);
+		}
+		again.dig(x, middle, null);
+		assertEquals(board.look(x - 40, middle - 20, 80, 40), again.look(
+				x - 40, middle - 20, 80, 40));
+	}
+
+	@Test
+	public void testLookWindow() {
+		char[][] testBoard = new char[4][4];
+		for (int y = 0; y < 4; y++) {
+			Arrays.fill(testBoard[y], '-');
+		}
+		testBoard[0][3] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		board.flag(1, 1, null);
+		assertEquals(Arrays.asList("- -", "- F"), board.look(0, 0, 2, 2));
+		// cut down to the board
+		assertEquals(Arrays.asList("- -", "- -"), board.look(2, 2, 10, 10));
+		assertEquals(Arrays.asList("-"), board.look(-5, -5, 6, 6));
+		assertTrue(board.look(4, 0, 3, 3).isEmpty());
+		assertTrue(board.look(0, 0, 0, 3).isEmpty());
+		board.dig(0, 3, null);
+		assertEquals(Arrays.asList("F 1 1"), board.look(1, 1, 3, 1));
+	}
+
+	/**
+	 * Asserts that board.status() agrees with a count of every square.
+	 */
+	private static void assertStatusCounted(MinesweeperBoard board) {
+		long[] counts = new long[StateCounts.STATES];
+		for (String row : squares(board)) {
+			for (int x = 0; x < row.length(); x++) {
+				counts[StateCounts.indexOf(row.charAt(x))]++;
+			}
+		}
+		BoardStatus status = board.status();
+		assertEquals(counts[StateCounts.UNTOUCHED]
+				+ counts[StateCounts.FLAGGED], status.getSafeSquaresLeft());
+		assertEquals(counts[StateCounts.BOMB]
+				+ counts[StateCounts.FLAGGED_BOMB], status.getBombs());
+		assertEquals(counts[StateCounts.FLAGGED]
+				+ counts[StateCounts.FLAGGED_BOMB], status.getFlags());
+		assertEquals(counts[StateCounts.FLAGGED_BOMB],
+				status.getCorrectFlags());
+	}
+
+	/**
+	 * Makes random moves on board, checking its status as it goes.
+	 */
+	private static void playChecked(MinesweeperBoard board, Random random) {
+		int size = board.getSize();
+		for (int i = 0; i < 300; i++) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			int kind = random.nextInt(3);
+			if (kind == 0) {
+				board.flag(x, y, null);
+			} else if (kind == 1) {
+				board.deFlag(x, y, null);
+			} else {
+				board.dig(x, y, null);
+			}
+			if (i % 30 == 0) {
+				assertStatusCounted(board);
+			}
+		}
+		assertStatusCounted(board);
+	}
+
+	@Test
+	public void testStatusCounts() {
+		Random random = new Random(5);
+		// counted from the start, and first counted after play
+		MinesweeperBoard board = MinesweeperBoard.randomWithDensity(60, 0.2, 1);
+		playChecked(board, random);
+		board = MinesweeperBoard.randomWithDensity(60, 0.2, 2);
+		board.flag(3, 3, null);
+		board.dig(30, 30, null);
+		playChecked(board, random);
+
+		// bombs dug are removed from the board
+		MinesweeperBoard mined = MinesweeperBoard.randomWithMines(10, 100, 1);
+		assertEquals(100, mined.status().getBombs());
+		assertTrue(mined.dig(4, 4, null));
+		assertEquals(99, mined.status().getBombs());
+		assertEquals(1, mined.status().getBombsDug());
+
+		// a bitplane store counts by popcount
+		BitPlaneCellStore planes = new BitPlaneCellStore(70);
+		for (int y = 0; y < 70; y++) {
+			planes.setRow(y, new long[] { random.nextLong(),
+					random.nextLong() & 0x3f }, null, null);
+		}
+		board = new MinesweeperBoard(planes);
+		board.flag(1, 1, null);
+		playChecked(board, random);
+	}
+
+	@Test
+	public void testStatusWon() {
+		char[][] testBoard = new char[3][3];
+		for (int y = 0; y < 3; y++) {
+			Arrays.fill(testBoard[y], '-');
+		}
+		testBoard[2][2] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		BoardStatus status = board.status();
+		assertEquals(8, status.getSafeSquaresLeft());
+		assertFalse(status.isWon());
+		board.flag(2, 2, null);
+		board.flag(1, 1, null);
+		status = board.status();
+		assertEquals(2, status.getFlags());
+		assertEquals(1, status.getCorrectFlags());
+		// the flood stops at the flag
+		board.dig(0, 0, null);
+		assertEquals(1, board.status().getSafeSquaresLeft());
+		board.deFlag(1, 1, null);
+		board.dig(1, 1, null);
+		status = board.status();
+		assertEquals(0, status.getSafeSquaresLeft());
+		assertTrue(status.isWon());
+		assertEquals(0, status.getBombsDug());
+	}
+
+	@Test
+	public void testStatusProcedural() {
+		MinesweeperBoard board = MinesweeperBoard.procedural(
+				MinesweeperBoard.MAX_PROCEDURAL_SIZE, 0.2, 3);
+		board.flag(7, 7, null);
+		BoardStatus status = board.status();
+		assertEquals(-1, status.getSafeSquaresLeft());
+		assertEquals(-1, status.getBombs());
+		assertFalse(status.isWon());
+		assertEquals(1, status.getFlags());
+		board.flag(8, 7, null);
+		board.deFlag(7, 7, null);
+		assertEquals(1, board.status().getFlags());
+	}
+
+	@Test
+	public void testProceduralInvalid() {
+		try {
+			MinesweeperBoard.procedural(
+					MinesweeperBoard.MAX_PROCEDURAL_SIZE + 1, 0.2, 1);
+			fail("made a procedural board too large");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			MinesweeperBoard.procedural(100, 0.05, 1);
+			fail("made a procedural board that floods");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 	@Test
 	public void testBoardConstructor() {
 		// input char[][] constructor test
@@ -356,4 +676,718 @@ public class MinesweeperBoardTest {
 		newBoardRep = board.dig(0, 1);
 		assertTrue(boardRep.equals(newBoardRep));
 	}
+
+	/*
+	 * The following tests check the render cache: boards handed out by look()
+	 * and the mutators are snapshots that later commands must not change
+	 */
+
+	@Test
+	public void testSnapshotsAreStable() {
+		// a snapshot taken before a command keeps showing the old board
+
+		// construct testBoard
+		char[][] testBoard = new char[5][5];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				if (j % 2 == 1) {
+					testBoard[i][j] = 'B';
+				} else
+					testBoard[i][j] = '-';
+			}
+		}
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		List<String> before = board.look();
+		List<String> after = board.flag(2, 2);
+		assertEquals("- - - - -", before.get(2));
+		assertEquals("- - F - -", after.get(2));
+
+		// nothing changed, so the same snapshot is handed out again
+		assertTrue(board.look() == after);
+		assertTrue(board.flag(-1, 0) == after);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSnapshotIsImmutable() {
+		MinesweeperBoard board = new MinesweeperBoard(5);
+		board.look().set(0, "");
+	}
+
+	@Test
+	public void testDigBombUpdatesNeighborCounts() {
+		// digging a bomb removes it, so dug neighbors show one bomb fewer
+		char[][] testBoard = new char[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				testBoard[i][j] = '-';
+			}
+		}
+		testBoard[1][1] = 'B';
+		testBoard[0][2] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		List<String> boardRep = board.dig(0, 0);
+		assertEquals("1 - -", boardRep.get(0));
+		assertTrue(board.dig(1, 1) == null);
+		assertEquals("  - -", board.look().get(0));
+		assertEquals("- 1 -", board.look().get(1));
+	}
+
+	/**
+	 * Asserts that every change shows the glyph the board shows for its
+	 * square.
+	 */
+	private static void assertChangesMatchBoard(ChangeList changes,
+			MinesweeperBoard board) {
+		List<String> rows = board.look();
+		for (int i = 0; i < changes.size(); i++) {
+			assertEquals(rows.get(changes.getY(i)).charAt(2 * changes.getX(i)),
+					changes.getGlyph(i));
+		}
+	}
+
+	@Test
+	public void testChangeLists() {
+		// the dig, flag and deFlag variants record exactly the squares that
+		// changed, including dug neighbors whose count drops
+		char[][] testBoard = new char[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				testBoard[i][j] = '-';
+			}
+		}
+		testBoard[1][1] = 'B';
+		testBoard[0][2] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		ChangeList changes = new ChangeList();
+		assertFalse(board.dig(0, 0, changes));
+		assertEquals(1, changes.size());
+		assertEquals('1', changes.getGlyph(0));
+		assertChangesMatchBoard(changes, board);
+
+		changes.clear();
+		assertTrue(board.dig(1, 1, changes));
+		assertEquals(2, changes.size());
+		assertChangesMatchBoard(changes, board);
+
+		changes.clear();
+		board.flag(2, 2, changes);
+		assertEquals(1, changes.size());
+		assertEquals('F', changes.getGlyph(0));
+		assertEquals(2, changes.getX(0));
+		assertEquals(2, changes.getY(0));
+		board.deFlag(2, 2, changes);
+		assertEquals(2, changes.size());
+		assertEquals('-', changes.getGlyph(1));
+
+		// nothing changes for dug or off-board squares
+		changes.clear();
+		board.flag(0, 0, changes);
+		board.deFlag(0, 0, changes);
+		assertFalse(board.dig(0, 0, changes));
+		assertFalse(board.dig(-1, 3, changes));
+		assertEquals(0, changes.size());
+	}
+
+	@Test
+	public void testMarkDug() {
+		// markDug opens only the square itself, even with no bomb neighbors,
+		// and a bomb marked dug leaves the neighbors' counts
+		char[][] testBoard = new char[3][3];
+		for (int i = 0; i < 3; i++) {
+			Arrays.fill(testBoard[i], '-');
+		}
+		testBoard[0][2] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		ChangeList changes = new ChangeList();
+		board.markDug(0, 2, changes);
+		assertEquals(1, changes.size());
+		assertEquals(' ', changes.getGlyph(0));
+		assertEquals('-', board.look().get(1).charAt(0));
+
+		board.dig(1, 0, null);
+		assertEquals('1', board.look().get(0).charAt(2));
+		changes.clear();
+		board.markDug(2, 0, changes);
+		assertEquals(2, changes.size());
+		assertEquals(' ', board.look().get(0).charAt(2));
+		assertEquals(' ', board.look().get(0).charAt(4));
+		assertChangesMatchBoard(changes, board);
+
+		// dug and off-board squares are left alone
+		changes.clear();
+		board.markDug(2, 0, changes);
+		board.markDug(3, 0, changes);
+		assertEquals(0, changes.size());
+	}
+
+	@Test
+	public void testChangeListFloodAndLimit() {
+		char[][] testBoard = new char[40][40];
+		for (char[] row : testBoard) {
+			Arrays.fill(row, '-');
+		}
+		char[][] copy = new char[40][];
+		for (int i = 0; i < 40; i++) {
+			copy[i] = testBoard[i].clone();
+		}
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		ChangeList changes = new ChangeList();
+		// a flood past the limit overflows and records nothing
+		changes.clear(100);
+		assertFalse(board.dig(20, 20, changes));
+		assertTrue(changes.overflowed());
+		assertEquals(0, changes.size());
+		assertEquals(' ', board.look().get(39).charAt(78));
+
+		board = new MinesweeperBoard(copy);
+		changes.clear();
+		assertFalse(board.dig(20, 20, changes));
+		assertFalse(changes.overflowed());
+		assertEquals(40 * 40, changes.size());
+		assertChangesMatchBoard(changes, board);
+	}
+
+	@Test
+	public void testListeners() {
+		char[][] testBoard = new char[40][40];
+		for (char[] row : testBoard) {
+			Arrays.fill(row, '-');
+		}
+		testBoard[0][0] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		final List<String> heard = new ArrayList<String>();
+		BoardListener listener = new BoardListener() {
+			public void squaresChanged(ChangeList changes) {
+				if (changes.overflowed()) {
+					heard.add("overflowed");
+				}
+				for (int i = 0; i < changes.size(); i++) {
+					heard.add(changes.getX(i) + " " + changes.getY(i) + " "
+							+ changes.getGlyph(i));
+				}
+			}
+		};
+		board.addListener(listener);
+		board.flag(1, 1);
+		board.deFlag(1, 1, new ChangeList());
+		board.flag(5, 5);
+		board.flag(5, 5);
+		board.dig(1, 0);
+		assertEquals(Arrays.asList("1 1 F", "1 1 -", "5 5 F", "1 0 1"), heard);
+
+		// a flood too large to list is reported as overflowed
+		heard.clear();
+		board.dig(20, 20);
+		assertEquals(Arrays.asList("overflowed"), heard);
+
+		heard.clear();
+		board.removeListener(listener);
+		board.deFlag(5, 5);
+		assertTrue(heard.isEmpty());
+	}
+
+	@Test
+	public void testPlay() {
+		// moves are made in order, and a bomb ends the list
+		char[][] testBoard = new char[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				testBoard[i][j] = '-';
+			}
+		}
+		testBoard[1][1] = 'B';
+		testBoard[0][2] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		MoveList moves = new MoveList();
+		moves.add(MoveList.Kind.DIG, 0, 0);
+		moves.add(MoveList.Kind.FLAG, 2, 2);
+		moves.add(MoveList.Kind.FLAG, 0, 1);
+		moves.add(MoveList.Kind.DEFLAG, 0, 1);
+		moves.add(MoveList.Kind.DIG, 9, 9);
+		ChangeList changes = new ChangeList();
+		assertEquals(-1, board.play(moves, changes));
+		assertEquals(4, changes.size());
+		assertEquals("1 - -", board.look().get(0));
+		assertEquals("- - F", board.look().get(2));
+
+		moves.clear();
+		moves.add(MoveList.Kind.DEFLAG, 2, 2);
+		moves.add(MoveList.Kind.DIG, 1, 1);
+		moves.add(MoveList.Kind.FLAG, 1, 0);
+		assertEquals(1, board.play(moves, null));
+		assertEquals("  - -", board.look().get(0));
+		assertEquals("- - -", board.look().get(2));
+	}
+
+	@Test
+	public void testNeighborCountsAtEdges() {
+		// counts come from the precomputed plane, check corners, edges and a
+		// fully surrounded square
+		char[][] testBoard = new char[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				testBoard[i][j] = 'B';
+			}
+		}
+		testBoard[1][1] = '-';
+		testBoard[0][0] = '-';
+		testBoard[2][1] = 'C';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		assertEquals("- 7 -", board.dig(1, 1).get(1));
+		assertEquals("2 - -", board.dig(0, 0).get(0));
+		assertEquals("- F -", board.look().get(2));
+	}
+
+	/*
+	 * The following tests dig large empty regions, which must open without
+	 * overflowing the stack
+	 */
+
+	@Test
+	public void testDigLargeEmptyBoard() {
+		// one dig in the corner of a bomb-free board opens every square
+		int size = 4096;
+		char[][] testBoard = new char[size][size];
+		for (int i = 0; i < size; i++) {
+			Arrays.fill(testBoard[i], '-');
+		}
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		List<String> boardRep = board.dig(0, 0);
+		assertEquals(size, boardRep.size());
+		char[] emptyRow = new char[2 * size - 1];
+		Arrays.fill(emptyRow, ' ');
+		String expectedRow = new String(emptyRow);
+		for (int i = 0; i < size; i++) {
+			assertEquals(expectedRow, boardRep.get(i));
+		}
+	}
+
+	@Test
+	public void testDigLargeEmptyRegion() {
+		// a wall of bombs splits a bomb-free board; digging from the middle
+		// of the left half opens the left half only
+		int size = 4096;
+		int wall = size / 2;
+		char[][] testBoard = new char[size][size];
+		for (int i = 0; i < size; i++) {
+			Arrays.fill(testBoard[i], '-');
+			testBoard[i][wall] = 'B';
+		}
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		List<String> boardRep = board.dig(wall / 2, size / 2);
+		for (int i = 0; i < size; i++) {
+			String row = boardRep.get(i);
+			assertEquals(' ', row.charAt(2 * (wall - 2)));
+			assertEquals(i == 0 || i == size - 1 ? '2' : '3',
+					row.charAt(2 * (wall - 1)));
+			assertEquals('-', row.charAt(2 * wall));
+			assertEquals('-', row.charAt(2 * (size - 1)));
+		}
+	}
+
+	/*
+	 * The following tests check that the bitplane storage engine behaves
+	 * exactly like the array one
+	 */
+
+	@Test
+	public void testBitPlaneStoreStates() {
+		// every state survives a round trip, including across word boundaries
+		char[] states = { 'B', '-', 'D', 'F', 'C' };
+		BitPlaneCellStore store = new BitPlaneCellStore(130);
+		for (int x = 0; x < 130; x++) {
+			store.set(x, x % 7, states[x % 5]);
+		}
+		for (int x = 0; x < 130; x++) {
+			assertEquals(states[x % 5], store.get(x, x % 7));
+			assertEquals('-', store.get(x, 10));
+		}
+	}
+
+	@Test
+	public void testBitPlaneStoreMatchesArrayStore() {
+		// play the same random game on both engines and compare every board
+		int size = 70;
+		Random random = new Random(4);
+		ArrayCellStore arrayStore = new ArrayCellStore(size);
+		BitPlaneCellStore bitPlaneStore = new BitPlaneCellStore(size);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				if (random.nextDouble() < .15) {
+					arrayStore.set(x, y, 'B');
+					bitPlaneStore.set(x, y, 'B');
+				}
+			}
+		}
+		MinesweeperBoard arrayBoard = new MinesweeperBoard(arrayStore);
+		MinesweeperBoard bitPlaneBoard = new MinesweeperBoard(bitPlaneStore);
+		assertEquals(arrayBoard.look(), bitPlaneBoard.look());
+		for (int i = 0; i < 300; i++) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			int command = random.nextInt(3);
+			if (command == 0) {
+				assertEquals(arrayBoard.dig(x, y), bitPlaneBoard.dig(x, y));
+			} else if (command == 1) {
+				assertEquals(arrayBoard.flag(x, y), bitPlaneBoard.flag(x, y));
+			} else {
+				assertEquals(arrayBoard.deFlag(x, y),
+						bitPlaneBoard.deFlag(x, y));
+			}
+			assertEquals(arrayBoard.look(), bitPlaneBoard.look());
+		}
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				assertEquals(arrayStore.get(x, y), bitPlaneStore.get(x, y));
+				assertEquals(arrayStore.bombNeighbors(x, y),
+						bitPlaneStore.bombNeighbors(x, y));
+			}
+		}
+	}
+
+	/*
+	 * The following tests check boards kept in a memory-mapped file
+	 */
+
+	@Test
+	public void testMappedBoardSurvivesReopen() throws IOException {
+		// play on a mapped copy of a board, then reopen the file
+		char[][] testBoard = new char[5][5];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				if (j % 2 == 1) {
+					testBoard[i][j] = 'B';
+				} else
+					testBoard[i][j] = '-';
+			}
+		}
+		File file = File.createTempFile("board", ".snapshot");
+		file.deleteOnExit();
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		MinesweeperBoard mapped = MinesweeperBoard.createMapped(file, board);
+		assertEquals(board.look(), mapped.look());
+		mapped.dig(0, 0);
+		mapped.flag(1, 1);
+		List<String> boardRep = mapped.flag(2, 2);
+		assertEquals("2 - - - -", boardRep.get(0));
+		assertEquals("- F - - -", boardRep.get(1));
+
+		MinesweeperBoard reopened = MinesweeperBoard.openMapped(file);
+		assertEquals(boardRep, reopened.look());
+		reopened.deFlag(1, 1);
+		assertTrue(reopened.dig(1, 1) == null);
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpenMappedRejectsOtherFiles() throws IOException {
+		File file = File.createTempFile("board", ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write("0 0 0 0 0 0 0\n0 0 0 0 1 0 0\n");
+		writer.close();
+		MinesweeperBoard.openMapped(file);
+	}
+
+	/*
+	 * The following tests load board files
+	 */
+
+	private static File boardFile(String contents) throws IOException {
+		File file = File.createTempFile("board", ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void testLoadFile() throws IOException {
+		MinesweeperBoard board = MinesweeperBoard.loadFile(boardFile(
+				"0 1 0\n0 0 0\n1 0 0\n"));
+		assertEquals(3, board.getSize());
+		assertEquals("1 - -", board.dig(0, 0).get(0));
+		assertTrue(board.dig(1, 0) == null);
+		assertTrue(board.dig(0, 2) == null);
+
+		// carriage returns, and no newline after the last line
+		board = MinesweeperBoard.loadFile(boardFile("0 0\r\n0 1"));
+		assertEquals("1 -", board.dig(0, 0).get(0));
+		assertTrue(board.dig(1, 1) == null);
+	}
+
+	@Test
+	public void testLoadLargeFile() throws IOException {
+		// large enough to be kept in bitplanes
+		int size = MinesweeperBoard.MAX_ARRAY_STORE_SIZE + 1;
+		StringBuilder row = new StringBuilder();
+		for (int x = 0; x < size; x++) {
+			row.append(x == 0 ? "" : " ").append(x == size - 1 ? '1' : '0');
+		}
+		row.append('\n');
+		File file = File.createTempFile("board", ".txt");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		for (int y = 0; y < size; y++) {
+			writer.write(row.toString());
+		}
+		writer.close();
+		MinesweeperBoard board = MinesweeperBoard.loadFile(file);
+		assertEquals(size, board.getSize());
+		ChangeList changes = new ChangeList();
+		assertFalse(board.dig(size - 2, size - 1, changes));
+		assertEquals('2', changes.getGlyph(0));
+		assertTrue(board.dig(size - 1, 0, changes));
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadRaggedFile() throws IOException {
+		MinesweeperBoard.loadFile(boardFile("0 0 0\n0 0\n0 0 0\n"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadNonSquareFile() throws IOException {
+		MinesweeperBoard.loadFile(boardFile("0 0 0\n0 0 0\n"));
+	}
+
+	@Test
+	public void testLoadInvalidFiles() throws IOException {
+		String[] invalid = { "", "0 0\n0 0\n0 0\n", "0  0\n0 0\n",
+				"0 0 \n0 0\n", "0 2\n0 0\n", "00\n00\n", "0 0\r0 0\n",
+				"0 0\n\n0 0\n" };
+		for (String contents : invalid) {
+			try {
+				MinesweeperBoard.loadFile(boardFile(contents));
+				fail("loaded \"" + contents + "\"");
+			} catch (IOException e) {
+				// the message says which line is wrong
+				assertTrue(e.getMessage().startsWith("Board file"));
+			}
+		}
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		char[][] testBoard = new char[9][9];
+		for (int y = 0; y < 9; y++) {
+			Arrays.fill(testBoard[y], '-');
+		}
+		testBoard[4][4] = 'B';
+		testBoard[8][8] = 'B';
+		MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		board.dig(0, 0);
+		board.flag(4, 4);
+		board.flag(8, 8);
+		for (boolean compress : new boolean[] { false, true }) {
+			File file = File.createTempFile("board", ".board");
+			file.deleteOnExit();
+			board.save(file, compress);
+			// written beside the file and moved over it
+			for (String name : file.getParentFile().list()) {
+				assertFalse(name.startsWith(file.getName() + "."));
+			}
+			// the game carries on from where it was saved
+			MinesweeperBoard loaded = MinesweeperBoard.loadFile(file);
+			assertEquals(board.look(), loaded.look());
+			assertTrue(loaded.checkRep());
+			// counted as it was read
+			assertStatusCounted(loaded);
+			loaded.deFlag(4, 4);
+			assertTrue(loaded.dig(4, 4) == null);
+			loaded.deFlag(8, 8);
+			assertTrue(loaded.dig(8, 8) == null);
+		}
+	}
+
+	@Test
+	public void testSaveAndLoadLarge() throws IOException {
+		// large enough to be kept in bitplanes
+		int size = MinesweeperBoard.MAX_ARRAY_STORE_SIZE + 1;
+		MinesweeperBoard board = new MinesweeperBoard(new BitPlaneCellStore(
+				size));
+		board.flag(size - 1, size - 1);
+		board.dig(0, 0);
+		File file = File.createTempFile("board", ".board");
+		file.deleteOnExit();
+		board.save(file, true);
+		MinesweeperBoard loaded = MinesweeperBoard.loadFile(file);
+		assertEquals(board.look(), loaded.look());
+		// the dig opened every square but the flagged one
+		assertEquals(1, loaded.status().getFlags());
+		assertEquals(1, loaded.status().getSafeSquaresLeft());
+	}
+
+	@Test
+	public void testLoadCorruptSave() throws IOException {
+		MinesweeperBoard board = new MinesweeperBoard(20);
+		for (boolean compress : new boolean[] { false, true }) {
+			File file = File.createTempFile("board", ".board");
+			file.deleteOnExit();
+			board.save(file, compress);
+			// flip one bit of the squares
+			RandomAccessFile raw = new RandomAccessFile(file, "rw");
+			raw.seek(raw.length() - 3);
+			int b = raw.read();
+			raw.seek(raw.length() - 3);
+			raw.write(b ^ 0x10);
+			raw.close();
+			try {
+				MinesweeperBoard.loadFile(file);
+				fail("loaded a corrupt save");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testLoadCorruptSaveHeader() throws IOException {
+		MinesweeperBoard board = new MinesweeperBoard(20);
+		File file = File.createTempFile("board", ".board");
+		file.deleteOnExit();
+		board.save(file, true);
+		// a size too large to allocate, caught by the header checksum
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		raw.seek(12);
+		raw.writeInt(Integer.MAX_VALUE);
+		raw.close();
+		try {
+			MinesweeperBoard.loadFile(file);
+			fail("loaded a corrupt save");
+		} catch (IOException e) {
+			// expected
+		}
+		// the same size with a matching checksum, caught by the bound
+		raw = new RandomAccessFile(file, "rw");
+		byte[] header = new byte[BoardSnapshot.HEADER_BYTES - 8];
+		raw.readFully(header);
+		CRC32 crc = new CRC32();
+		crc.update(header);
+		raw.writeInt((int) crc.getValue());
+		raw.close();
+		try {
+			MinesweeperBoard.loadFile(file);
+			fail("loaded a corrupt save");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/*
+	 * The following tests run commands from several threads at once
+	 */
+
+	@Test(timeout = 60000)
+	public void testConcurrentFloods() throws InterruptedException {
+		// floods started from many places at once meet without deadlocking
+		// and together open the whole board
+		final int size = 1024;
+		char[][] testBoard = new char[size][size];
+		for (int i = 0; i < size; i++) {
+			Arrays.fill(testBoard[i], '-');
+		}
+		final MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int start = t * size / threads.length;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					board.dig(start, size - 1 - start);
+					board.look();
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		char[] emptyRow = new char[2 * size - 1];
+		Arrays.fill(emptyRow, ' ');
+		String expectedRow = new String(emptyRow);
+		for (String row : board.look()) {
+			assertEquals(expectedRow, row);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testConcurrentCommands() throws InterruptedException,
+			IOException {
+		// random commands from many threads leave the board valid, and a
+		// look afterwards agrees with a fresh render of the same squares
+		final int size = 200;
+		final MinesweeperBoard board = new MinesweeperBoard(size);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final Random random = new Random(t);
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 2000; i++) {
+						int x = random.nextInt(size);
+						int y = random.nextInt(size);
+						int command = random.nextInt(4);
+						if (command == 0) {
+							board.dig(x, y);
+						} else if (command == 1) {
+							board.flag(x, y);
+						} else if (command == 2) {
+							board.deFlag(x, y);
+						} else {
+							board.look();
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(board.checkRep());
+		File file = File.createTempFile("board", ".snapshot");
+		file.deleteOnExit();
+		// the mapped copy has an empty render cache
+		assertEquals(MinesweeperBoard.createMapped(file, board).look(),
+				board.look());
+	}
+
+	@Test(timeout = 60000)
+	public void testLookSeesFinishedCommands() throws InterruptedException {
+		// a reader polling look() while another thread digs only ever sees
+		// complete boards, and sees the last dig once it has returned
+		final int size = 256;
+		char[][] testBoard = new char[size][size];
+		for (int i = 0; i < size; i++) {
+			Arrays.fill(testBoard[i], '-');
+			testBoard[i][size / 2] = 'B';
+		}
+		final MinesweeperBoard board = new MinesweeperBoard(testBoard);
+		final List<String> initial = board.look();
+		final boolean[] torn = new boolean[1];
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < 2000; i++) {
+					List<String> boardRep = board.look();
+					// the left half is opened by a single dig, so it is
+					// either all untouched or all open
+					char first = boardRep.get(0).charAt(0);
+					for (String row : boardRep) {
+						if (row.charAt(0) != first) {
+							torn[0] = true;
+						}
+					}
+				}
+			}
+		});
+		reader.start();
+		List<String> boardRep = board.dig(0, 0);
+		assertTrue(board.look() == boardRep);
+		reader.join();
+		assertFalse(torn[0]);
+		assertEquals('-', initial.get(size - 1).charAt(0));
+		assertEquals(' ', board.look().get(size - 1).charAt(0));
+	}
 }
@@ -0,0 +1,73 @@
+package minesweeperclass;
+
+/**
+ * A sequence of digs, flags and deflags to be made on a board as one command
+ * with MinesweeperBoard.play().
+ * 
+ * Not threadsafe, and reusable: clear() empties the list.
+ */
+public class MoveList {
+	public enum Kind {
+		DIG, FLAG, DEFLAG
+	}
+
+	private Kind[] kinds = new Kind[4];
+	private int[] xs = new int[4];
+	private int[] ys = new int[4];
+	private int size = 0;
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Appends a move on the square at (x, y), which need not be on the board.
+	 */
+	public void add(Kind kind, int x, int y) {
+		if (kind == null) {
+			throw new NullPointerException("kind");
+		}
+		if (size == kinds.length) {
+			int capacity = 2 * size;
+			Kind[] biggerKinds = new Kind[capacity];
+			System.arraycopy(kinds, 0, biggerKinds, 0, size);
+			kinds = biggerKinds;
+			int[] biggerXs = new int[capacity];
+			System.arraycopy(xs, 0, biggerXs, 0, size);
+			xs = biggerXs;
+			int[] biggerYs = new int[capacity];
+			System.arraycopy(ys, 0, biggerYs, 0, size);
+			ys = biggerYs;
+		}
+		kinds[size] = kind;
+		xs[size] = x;
+		ys[size] = y;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Kind getKind(int i) {
+		checkIndex(i);
+		return kinds[i];
+	}
+
+	public int getX(int i) {
+		checkIndex(i);
+		return xs[i];
+	}
+
+	public int getY(int i) {
+		checkIndex(i);
+		return ys[i];
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("move " + i + ", size "
+					+ size);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package minesweeperclass;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * CellStore for boards far too large to hold: where the bombs are is a pure
+ * function of the seed and the square, worked out by hashing, and only the
+ * squares players have touched are stored. Memory grows with the explored
+ * area rather than with the board, so a board millions of squares on a side
+ * costs nothing until it is played on.
+ *
+ * Squares are stored in chunks of 64 columns by CHUNK_ROWS rows, each with
+ * one long per row for each of the bomb, dug and flag planes as in
+ * BitPlaneCellStore. A chunk is made, with its bombs copied from the hash,
+ * the first time one of its squares is set to anything but its initial
+ * state, and dropped again once every square in it is back to its initial
+ * state (a flag taken off again, say). Squares of chunks that were never made
+ * are read straight from the hash, so nothing untouched is ever kept.
+ *
+ * CHUNK_ROWS is the board's band height, so every square of a chunk is
+ * guarded by the same band lock, and so are the chunk's counts and its
+ * coming and going from the chunk map. The map itself is shared by all the
+ * bands and is concurrent.
+ */
+final class ProceduralCellStore implements CellStore {
+	static final int CHUNK_ROWS = MinesweeperBoard.BAND_ROWS;
+
+	/** The touched squares of 64 columns by CHUNK_ROWS rows. */
+	private static final class Chunk {
+		private final long[] bombs = new long[CHUNK_ROWS];
+		private final long[] dug = new long[CHUNK_ROWS];
+		private final long[] flags = new long[CHUNK_ROWS];
+		/** Squares dug or flagged. */
+		private int touched;
+		/** Squares whose bomb differs from the hash. */
+		private int movedBombs;
+	}
+
+	private final int size;
+	private final long seed;
+	/** A square is a bomb if the top 53 bits of its hash are below this. */
+	private final long threshold;
+	private final ConcurrentMap<Long, Chunk> chunks = new ConcurrentHashMap<Long, Chunk>();
+
+	/**
+	 * Makes a store of size x size untouched squares, each a bomb with
+	 * probability density, picked by seed.
+	 */
+	ProceduralCellStore(int size, double density, long seed) {
+		this.size = size;
+		this.seed = seed;
+		threshold = (long) (density * (1L << 53));
+	}
+
+	/**
+	 * @return the number of chunks stored, which is what the store's memory
+	 *         grows with
+	 */
+	int chunkCount() {
+		return chunks.size();
+	}
+
+	private static Long chunkKey(int x, int y) {
+		return ((long) (y / CHUNK_ROWS) << 32) | (x >>> 6);
+	}
+
+	/**
+	 * @return true if the square at (x, y) starts out as a bomb
+	 */
+	private boolean hashBomb(int x, int y) {
+		long hash = BoardGenerator.mix(seed
+				^ BoardGenerator.mix(((long) y << 32) | x));
+		return hash >>> 11 < threshold;
+	}
+
+	private boolean isBomb(int x, int y) {
+		Chunk chunk = chunks.get(chunkKey(x, y));
+		if (chunk == null) {
+			return hashBomb(x, y);
+		}
+		return (chunk.bombs[y % CHUNK_ROWS] & (1L << x)) != 0;
+	}
+
+	private Chunk newChunk(int x, int y) {
+		Chunk chunk = new Chunk();
+		int left = x & ~63;
+		int top = y - y % CHUNK_ROWS;
+		int right = Math.min(left + 64, size);
+		int bottom = Math.min(top + CHUNK_ROWS, size);
+		for (int j = top; j < bottom; j++) {
+			long row = 0;
+			for (int i = left; i < right; i++) {
+				if (hashBomb(i, j)) {
+					row |= 1L << i;
+				}
+			}
+			chunk.bombs[j - top] = row;
+		}
+		return chunk;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public char get(int x, int y) {
+		Chunk chunk = chunks.get(chunkKey(x, y));
+		if (chunk == null) {
+			return hashBomb(x, y) ? BOMB : UNTOUCHED;
+		}
+		int row = y % CHUNK_ROWS;
+		long bit = 1L << x;
+		boolean flagged = (chunk.flags[row] & bit) != 0;
+		if ((chunk.bombs[row] & bit) != 0) {
+			return flagged ? FLAGGED_BOMB : BOMB;
+		} else if ((chunk.dug[row] & bit) != 0) {
+			return DUG;
+		}
+		return flagged ? FLAGGED : UNTOUCHED;
+	}
+
+	@Override
+	public void set(int x, int y, char state) {
+		boolean bomb = state == BOMB || state == FLAGGED_BOMB;
+		boolean isDug = state == DUG;
+		boolean flagged = state == FLAGGED || state == FLAGGED_BOMB;
+		if (!bomb && !isDug && !flagged && state != UNTOUCHED) {
+			throw new IllegalArgumentException("Invalid square state: "
+					+ state);
+		}
+		boolean initialBomb = hashBomb(x, y);
+		Long key = chunkKey(x, y);
+		Chunk chunk = chunks.get(key);
+		if (chunk == null) {
+			if (!isDug && !flagged && bomb == initialBomb) {
+				// still in its initial state
+				return;
+			}
+			chunk = newChunk(x, y);
+			chunks.put(key, chunk);
+		}
+		int row = y % CHUNK_ROWS;
+		long bit = 1L << x;
+		boolean wasBomb = (chunk.bombs[row] & bit) != 0;
+		boolean wasTouched = ((chunk.dug[row] | chunk.flags[row]) & bit) != 0;
+		chunk.bombs[row] = bomb ? chunk.bombs[row] | bit : chunk.bombs[row]
+				& ~bit;
+		chunk.dug[row] = isDug ? chunk.dug[row] | bit : chunk.dug[row] & ~bit;
+		chunk.flags[row] = flagged ? chunk.flags[row] | bit : chunk.flags[row]
+				& ~bit;
+		chunk.touched += (isDug || flagged ? 1 : 0) - (wasTouched ? 1 : 0);
+		chunk.movedBombs += (bomb != initialBomb ? 1 : 0)
+				- (wasBomb != initialBomb ? 1 : 0);
+		if (chunk.touched == 0 && chunk.movedBombs == 0) {
+			chunks.remove(key);
+		}
+	}
+
+	/**
+	 * Counts the dug and flagged squares, which are all in stored chunks.
+	 * How many squares are bombs and how many untouched is a sum over every
+	 * square's hash, too many to work out, so those two counts are -1.
+	 */
+	@Override
+	public long[] countStates() {
+		long[] counts = new long[StateCounts.STATES];
+		for (Chunk chunk : chunks.values()) {
+			for (int row = 0; row < CHUNK_ROWS; row++) {
+				long flagBits = chunk.flags[row];
+				counts[StateCounts.DUG] += Long.bitCount(chunk.dug[row]);
+				counts[StateCounts.FLAGGED] += Long.bitCount(flagBits
+						& ~chunk.bombs[row]);
+				counts[StateCounts.FLAGGED_BOMB] += Long.bitCount(flagBits
+						& chunk.bombs[row]);
+			}
+		}
+		counts[StateCounts.UNTOUCHED] = -1;
+		counts[StateCounts.BOMB] = -1;
+		return counts;
+	}
+
+	@Override
+	public int bombNeighbors(int x, int y) {
+		int count = 0;
+		int left = Math.max(x - 1, 0);
+		int right = Math.min(x + 1, size - 1);
+		int bottom = Math.min(y + 1, size - 1);
+		for (int j = Math.max(y - 1, 0); j <= bottom; j++) {
+			for (int i = left; i <= right; i++) {
+				if ((i != x || j != y) && isBomb(i, j)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+}
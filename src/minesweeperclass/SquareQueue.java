@@ -0,0 +1,71 @@
+package minesweeperclass;
+
+/**
+ * A FIFO queue of board squares backed by a single growable int ring buffer,
+ * storing each square as an (x, y) pair. Used by the dig flood so that opening
+ * an empty region needs neither recursion nor an object per square. The
+ * buffer is kept between floods and only grows, so a board that has done one
+ * large flood does not allocate again.
+ * 
+ * Not threadsafe: the owner must confine each queue to one thread at a time.
+ */
+class SquareQueue {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private int[] squares = new int[2 * INITIAL_CAPACITY];
+	private int head = 0;
+	private int count = 0;
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	void clear() {
+		head = 0;
+		count = 0;
+	}
+
+	void add(int x, int y) {
+		if (2 * count == squares.length) {
+			grow();
+		}
+		int tail = (head + 2 * count) & (squares.length - 1);
+		squares[tail] = x;
+		squares[tail + 1] = y;
+		count++;
+	}
+
+	/**
+	 * Returns the x coordinate of the square at the front of the queue.
+	 * Requires !isEmpty().
+	 */
+	int peekX() {
+		return squares[head];
+	}
+
+	/**
+	 * Returns the y coordinate of the square at the front of the queue.
+	 * Requires !isEmpty().
+	 */
+	int peekY() {
+		return squares[head + 1];
+	}
+
+	/**
+	 * Removes the square at the front of the queue. Requires !isEmpty().
+	 */
+	void remove() {
+		head = (head + 2) & (squares.length - 1);
+		count--;
+	}
+
+	private void grow() {
+		// the capacity stays a power of two so indices can wrap with a mask
+		int[] bigger = new int[2 * squares.length];
+		int firstPart = squares.length - head;
+		System.arraycopy(squares, head, bigger, 0, firstPart);
+		System.arraycopy(squares, 0, bigger, firstPart, head);
+		squares = bigger;
+		head = 0;
+	}
+}
@@ -0,0 +1,106 @@
+package minesweeperclass;
+
+import java.util.Arrays;
+
+/**
+ * Indexes of the per-state counts a MinesweeperBoard starts from, as returned
+ * by CellStore.countStates(), and ways of working them out: a count that
+ * reads every square, for stores with nothing faster, and counts of packed
+ * rows and of boards holding only bombs, for the code that fills a store.
+ */
+final class StateCounts {
+	static final int UNTOUCHED = 0;
+	static final int BOMB = 1;
+	static final int DUG = 2;
+	static final int FLAGGED = 3;
+	static final int FLAGGED_BOMB = 4;
+	/** Number of states, and so of counts. */
+	static final int STATES = 5;
+
+	private StateCounts() {
+	}
+
+	/**
+	 * @return the index of the count of squares in state, which must be a
+	 *         valid square state
+	 */
+	static int indexOf(char state) {
+		switch (state) {
+		case CellStore.UNTOUCHED:
+			return UNTOUCHED;
+		case CellStore.BOMB:
+			return BOMB;
+		case CellStore.DUG:
+			return DUG;
+		case CellStore.FLAGGED:
+			return FLAGGED;
+		case CellStore.FLAGGED_BOMB:
+			return FLAGGED_BOMB;
+		default:
+			throw new IllegalArgumentException("Invalid square state: "
+					+ state);
+		}
+	}
+
+	/**
+	 * @return the number of squares of store in each state, read one square
+	 *         at a time
+	 */
+	static long[] count(CellStore store) {
+		long[] counts = new long[STATES];
+		int size = store.size();
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				counts[indexOf(store.get(x, y))]++;
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Sets counts to those of a board of size x size squares, bombs of them
+	 * bombs and every other square untouched.
+	 */
+	static void setUntouched(long[] counts, int size, long bombs) {
+		Arrays.fill(counts, 0);
+		counts[BOMB] = bombs;
+		counts[UNTOUCHED] = (long) size * size - bombs;
+	}
+
+	/**
+	 * Adds the bombs, dug squares and flags of one row, packed as in
+	 * BitPlaneCellStore, to counts. Untouched squares are not counted;
+	 * countUntouched() works them out once every row is added.
+	 *
+	 * @param dug
+	 *            dug bits of the row, or null if none is dug
+	 * @param flags
+	 *            flag bits of the row, or null if none is flagged
+	 */
+	static void addPackedRow(long[] counts, long[] bombs, long[] dug,
+			long[] flags) {
+		for (int w = 0; w < bombs.length; w++) {
+			long flagBits = flags == null ? 0 : flags[w];
+			counts[BOMB] += Long.bitCount(bombs[w] & ~flagBits);
+			counts[FLAGGED_BOMB] += Long.bitCount(bombs[w] & flagBits);
+			counts[FLAGGED] += Long.bitCount(flagBits & ~bombs[w]);
+			if (dug != null) {
+				counts[DUG] += Long.bitCount(dug[w]);
+			}
+		}
+	}
+
+	/**
+	 * Sets the untouched count of a board of size x size squares to the
+	 * squares not in any other state.
+	 */
+	static void countUntouched(long[] counts, int size) {
+		long counted = 0;
+		for (int state = 0; state < STATES; state++) {
+			if (state != UNTOUCHED) {
+				counted += counts[state];
+			}
+		}
+		counts[UNTOUCHED] = (long) size * size - counted;
+	}
+}